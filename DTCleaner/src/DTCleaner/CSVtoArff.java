@@ -1,121 +1,551 @@
 package DTCleaner;
-import weka.core.Instances;
-import weka.core.converters.ArffSaver;
-import weka.core.converters.CSVLoader;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.*;
+import weka.core.Range;
+import weka.core.Utils;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.util.Scanner;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 
+/**
+ * Converts a CSV file to an ARFF file without loading it, in two streaming passes over chunks of lines parsed in
+ * parallel: the first builds the values of the nominal attributes, the second writes the rows. Only a few chunks
+ * per thread are held at a time, so memory stays bounded whatever the size of the file.
+ *
+ * The first line holds the names of the attributes. A record must fit on one line, values may be quoted with
+ * double quotes (see Util.splitCSVLine). Empty values and ? are missing.
+ *
+ * An attribute is numeric when all its values in the first sampleSize rows are numbers, nominal otherwise; a numeric
+ * attribute with another value later in the file becomes nominal. The types can be forced with ranges of attributes,
+ * e.g. "1,3-4,7": a nominal value of an attribute forced to be numeric is written as missing.
+ */
 public class CSVtoArff {
 
+	public static final int DEFAULT_SAMPLE_SIZE = 10000;
+	public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String input;
+	private int threads;
+	private int sampleSize = DEFAULT_SAMPLE_SIZE;
+	private int chunkBytes = DEFAULT_CHUNK_BYTES;
+	private String nominalRange;
+	private String numericRange;
+	private String relation;
+
+	private String[] names;
+	private boolean[] numeric;
+	// values of the nominal attributes in the order they're first seen, and their quoted form
+	private List<LinkedHashSet<String>> values;
+	private List<HashMap<String, String>> quoted;
+	private long numRows;
+	// values of the attributes forced to be numeric that aren't numbers
+	private long numNonNumeric;
+
+	/**
+	 * @param input: the CSV file
+	 * @param threads: number of threads parsing chunks of the file
+	 */
+	public CSVtoArff(String input, int threads){
+		this.input = input;
+		this.threads = Math.max(1, threads);
+		String name = new File(input).getName();
+		this.relation = name.toLowerCase().endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+	}
+
+	/**
+	 * Sets the number of rows the types of the attributes are inferred from.
+	 */
+	public void setSampleSize(int rows){
+		this.sampleSize = Math.max(1, rows);
+	}
+
+	/**
+	 * Sets the size of the chunks of the file parsed by a thread at a time.
+	 */
+	public void setChunkSize(int bytes){
+		this.chunkBytes = Math.max(1 << 10, bytes);
+	}
+
+	/**
+	 * Forces the types of some attributes instead of inferring them.
+	 * @param nominalRange: attributes made nominal, e.g. "1,3-4,7", or null
+	 * @param numericRange: attributes made numeric, or null
+	 */
+	public void setTypes(String nominalRange, String numericRange){
+		this.nominalRange = nominalRange;
+		this.numericRange = numericRange;
+	}
+
+	/**
+	 * Sets the name of the relation, the name of the input file by default.
+	 */
+	public void setRelation(String relation){
+		this.relation = relation;
+	}
+
+	/**
+	 * Converts the file.
+	 * @param output: the ARFF file
+	 * @return number of rows written
+	 * @throws IOException if a row doesn't have a value per attribute, or a file couldn't be read or written
+	 * @throws InterruptedException
+	 */
+	public long convert(String output) throws IOException, InterruptedException{
+		long start = System.nanoTime();
+		long headerBytes = readHeader();
+		inferTypes();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			// a numeric attribute with other values later in the file becomes nominal, its values need another pass
+			boolean[] wanted = new boolean[names.length];
+			for(int att = 0; att < names.length; att++) wanted[att] = !numeric[att];
+			boolean[] demoted = collectValues(pool, headerBytes, wanted);
+			boolean again = false;
+			for(int att = 0; att < names.length; att++){
+				if(demoted[att]){
+					System.out.println("Attribute " + names[att] + " has non numeric values after the sample, it's made nominal.");
+					numeric[att] = false;
+					again = true;
+				}
+			}
+			if(again) collectValues(pool, headerBytes, demoted);
+
+			quoted = new ArrayList<HashMap<String, String>>(names.length);
+			for(int att = 0; att < names.length; att++){
+				HashMap<String, String> q = new HashMap<String, String>();
+				if(!numeric[att]) for(String value : values.get(att)) q.put(value, Utils.quote(value));
+				quoted.add(q);
+			}
+
+			writeArff(pool, headerBytes, output);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		long elapsed = System.nanoTime() - start;
+		long size = new File(input).length();
+		System.out.println(toSummaryString());
+		System.out.println("Converted " + numRows + " rows (" + size / (1024 * 1024) + " MB) in " + elapsed / 1000000 + " ms, "
+				+ String.format("%.1f", size / 1048576.0 / Math.max(elapsed / 1e9, 1e-3)) + " MB/s");
+		if(numNonNumeric > 0) System.out.println(numNonNumeric + " non numeric values of numeric attributes were written as missing.");
+		return numRows;
+	}
+
+	/**
+	 * Returns the type and number of distinct values of every attribute.
+	 */
+	public String toSummaryString(){
+		StringBuilder summary = new StringBuilder("\nDataset summary:\n");
+		summary.append(Utils.padRight("Attribute", 24)).append(Utils.padRight("Type", 10)).append(Utils.padLeft("Distinct", 10)).append("\n");
+		for(int att = 0; att < names.length; att++){
+			summary.append(Utils.padRight(names[att], 24)).append(Utils.padRight(numeric[att] ? "numeric" : "nominal", 10))
+					.append(Utils.padLeft(numeric[att] ? "" : "" + values.get(att).size(), 10)).append("\n");
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * Reads the names of the attributes.
+	 * @return number of bytes of the first line, line break included
+	 */
+	private long readHeader() throws IOException{
+		InputStream in = new FileInputStream(input);
+		try {
+			byte[] line = new byte[1 << 16];
+			int length = 0;
+			int b;
+			while((b = in.read()) >= 0 && b != '\n'){
+				if(length == line.length) line = Arrays.copyOf(line, length * 2);
+				line[length++] = (byte) b;
+			}
+			if(length == 0) throw new IOException("No header line in " + input);
+			long bytes = length + (b == '\n' ? 1 : 0);
+			if(line[length - 1] == '\r') length--;
+
+			names = Util.splitCSVLine(new String(line, 0, length, UTF8));
+			for(int att = 0; att < names.length; att++) names[att] = names[att].trim();
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Infers the types of the attributes from the first sampleSize rows, and applies the forced types.
+	 */
+	private void inferTypes() throws IOException{
+		numeric = new boolean[names.length];
+		Arrays.fill(numeric, true);
+		boolean[] seen = new boolean[names.length];
+
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(input), UTF8));
+		try {
+			br.readLine();
+			String line;
+			for(int row = 0; row < sampleSize && (line = br.readLine()) != null; row++){
+				if(line.trim().isEmpty()) continue;
+				String[] fields = fields(line, row + 2);
+				for(int att = 0; att < names.length; att++){
+					String value = fields[att].trim();
+					if(isMissing(value)) continue;
+					seen[att] = true;
+					if(numeric[att] && !isNumber(value)) numeric[att] = false;
+				}
+			}
+		} finally {
+			br.close();
+		}
+		// an attribute without values in the sample is nominal
+		for(int att = 0; att < names.length; att++) if(!seen[att]) numeric[att] = false;
+
+		if(nominalRange != null) for(int att : range(nominalRange)) numeric[att] = false;
+		if(numericRange != null) for(int att : range(numericRange)) numeric[att] = true;
+
+		values = new ArrayList<LinkedHashSet<String>>(names.length);
+		for(int att = 0; att < names.length; att++) values.add(new LinkedHashSet<String>());
+	}
+
+	private int[] range(String rangeList){
+		Range range = new Range(rangeList);
+		range.setUpper(names.length - 1);
+		List<Integer> attributes = new ArrayList<Integer>();
+		for(int att = 0; att < names.length; att++) if(range.isInRange(att)) attributes.add(att);
+		return Util.convertIntegers(attributes);
+	}
+
+	/**
+	 * First pass: adds the values of the wanted attributes to values, chunk by chunk in the order of the file.
+	 * @return the numeric attributes, not forced to be numeric, that have values that aren't numbers
+	 */
+	private boolean[] collectValues(ExecutorService pool, long headerBytes, final boolean[] wanted) throws IOException, InterruptedException{
+		final boolean[] check = new boolean[names.length];
+		final boolean[] forced = numericRange == null ? new boolean[names.length] : forcedNumeric();
+		for(int att = 0; att < names.length; att++) check[att] = numeric[att] && !forced[att];
+		final boolean[] demoted = new boolean[names.length];
+
+		new ChunkReader<ChunkValues>(pool, headerBytes) {
+			Callable<ChunkValues> parse(final byte[] chunk, final int length, final long offset){
+				return new Callable<ChunkValues>() {
+					public ChunkValues call() throws IOException {
+						final ChunkValues result = new ChunkValues(names.length);
+						forEachRow(chunk, length, offset, new RowHandler() {
+							public void row(String[] fields) {
+								for(int att = 0; att < names.length; att++){
+									String value = fields[att].trim();
+									if(isMissing(value)) continue;
+									if(wanted[att]) result.values.get(att).add(value);
+									else if(check[att] && !result.demoted[att] && !isNumber(value)) result.demoted[att] = true;
+								}
+							}
+						});
+						return result;
+					}
+				};
+			}
+
+			void done(ChunkValues result){
+				for(int att = 0; att < names.length; att++){
+					if(wanted[att]) values.get(att).addAll(result.values.get(att));
+					demoted[att] |= result.demoted[att];
+				}
+			}
+		}.run();
+		return demoted;
+	}
+
+	private boolean[] forcedNumeric(){
+		boolean[] forced = new boolean[names.length];
+		for(int att : range(numericRange)) forced[att] = true;
+		return forced;
+	}
+
+	/**
+	 * Second pass: writes the header and the rows, chunk by chunk in the order of the file.
+	 */
+	private void writeArff(ExecutorService pool, long headerBytes, String output) throws IOException, InterruptedException{
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), UTF8), 1 << 16);
+		try {
+			out.write("@relation " + Utils.quote(relation) + "\n\n");
+			for(int att = 0; att < names.length; att++){
+				out.write("@attribute " + Utils.quote(names[att]) + " ");
+				if(numeric[att]) out.write("numeric");
+				else{
+					out.write('{');
+					boolean first = true;
+					for(String value : values.get(att)){
+						if(!first) out.write(',');
+						out.write(quoted.get(att).get(value));
+						first = false;
+					}
+					out.write('}');
+				}
+				out.write('\n');
+			}
+			out.write("\n@data\n");
+
+			numRows = 0;
+			numNonNumeric = 0;
+			new ChunkReader<ChunkRows>(pool, headerBytes) {
+				Callable<ChunkRows> parse(final byte[] chunk, final int length, final long offset){
+					return new Callable<ChunkRows>() {
+						public ChunkRows call() throws IOException {
+							final ChunkRows result = new ChunkRows(length);
+							forEachRow(chunk, length, offset, new RowHandler() {
+								public void row(String[] fields) {
+									for(int att = 0; att < names.length; att++){
+										if(att > 0) result.text.append(',');
+										String value = fields[att].trim();
+										if(isMissing(value)) result.text.append('?');
+										else if(!numeric[att]) result.text.append(quoted.get(att).get(value));
+										else if(isNumber(value)) result.text.append(value);
+										else{
+											result.text.append('?');
+											result.numNonNumeric++;
+										}
+									}
+									result.text.append('\n');
+									result.numRows++;
+								}
+							});
+							return result;
+						}
+					};
+				}
+
+				void done(ChunkRows result) throws IOException{
+					out.write(result.text.toString());
+					numRows += result.numRows;
+					numNonNumeric += result.numNonNumeric;
+				}
+			}.run();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The values found in a chunk by the first pass.
+	 */
+	private static class ChunkValues {
+		final List<LinkedHashSet<String>> values;
+		final boolean[] demoted;
+
+		ChunkValues(int numAttributes){
+			values = new ArrayList<LinkedHashSet<String>>(numAttributes);
+			for(int att = 0; att < numAttributes; att++) values.add(new LinkedHashSet<String>());
+			demoted = new boolean[numAttributes];
+		}
+	}
+
+	/**
+	 * The ARFF rows of a chunk, written by the second pass.
+	 */
+	private static class ChunkRows {
+		final StringBuilder text;
+		long numRows;
+		long numNonNumeric;
+
+		ChunkRows(int length){
+			text = new StringBuilder(length + length / 4);
+		}
+	}
+
+	private interface RowHandler {
+		void row(String[] fields);
+	}
+
+	/**
+	 * Calls handler with the fields of every non empty line of a chunk.
+	 * @param offset: byte of the file the chunk starts at
+	 */
+	private void forEachRow(byte[] chunk, int length, long offset, RowHandler handler) throws IOException{
+		String text = new String(chunk, 0, length, UTF8);
+		int start = 0;
+		while(start < text.length()){
+			int end = text.indexOf('\n', start);
+			if(end < 0) end = text.length();
+			int e = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+			if(e > start && !text.substring(start, e).trim().isEmpty()){
+				String[] fields = Util.splitCSVLine(text.substring(start, e));
+				if(fields.length != names.length){
+					// chunks are parsed out of order, so the line is given by its byte in the file rather than its number
+					long at = offset + text.substring(0, start).getBytes(UTF8).length;
+					throw new IOException("Expected " + names.length + " values, got " + fields.length + " on the line starting at byte " + at + " of " + input);
+				}
+				handler.row(fields);
+			}
+			start = end + 1;
+		}
+	}
+
+	private String[] fields(String line, long lineNumber) throws IOException{
+		String[] fields = Util.splitCSVLine(line);
+		if(fields.length != names.length) throw new IOException("Expected " + names.length + " values, got " + fields.length + " on line " + lineNumber);
+		return fields;
+	}
+
+	private static boolean isMissing(String value){
+		return value.isEmpty() || value.equals("?");
+	}
+
+	/**
+	 * Returns true if value is a decimal number, e.g. -1.5e3, without parsing it.
+	 */
+	static boolean isNumber(String value){
+		int k = 0;
+		int n = value.length();
+		if(k < n && (value.charAt(k) == '-' || value.charAt(k) == '+')) k++;
+		int digits = 0;
+		while(k < n && Character.isDigit(value.charAt(k))){ k++; digits++; }
+		if(k < n && value.charAt(k) == '.'){
+			k++;
+			while(k < n && Character.isDigit(value.charAt(k))){ k++; digits++; }
+		}
+		if(digits == 0) return false;
+		if(k < n && (value.charAt(k) == 'e' || value.charAt(k) == 'E')){
+			k++;
+			if(k < n && (value.charAt(k) == '-' || value.charAt(k) == '+')) k++;
+			int exponent = 0;
+			while(k < n && Character.isDigit(value.charAt(k))){ k++; exponent++; }
+			if(exponent == 0) return false;
+		}
+		return k == n;
+	}
+
+	/**
+	 * Reads the file after the header in chunks ending at a line break, parses them on the pool and hands the
+	 * results to done() in the order of the file. At most 2 chunks per thread are read ahead.
+	 */
+	private abstract class ChunkReader<T> {
+		private ExecutorService pool;
+		private long headerBytes;
+
+		ChunkReader(ExecutorService pool, long headerBytes){
+			this.pool = pool;
+			this.headerBytes = headerBytes;
+		}
+
+		abstract Callable<T> parse(byte[] chunk, int length, long offset);
+
+		abstract void done(T result) throws IOException;
+
+		void run() throws IOException, InterruptedException{
+			ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+			InputStream in = new FileInputStream(input);
+			try {
+				long skipped = 0;
+				while(skipped < headerBytes){
+					long s = in.skip(headerBytes - skipped);
+					if(s <= 0) break;
+					skipped += s;
+				}
+
+				long offset = headerBytes;
+				// bytes after the last line break of the previous chunk
+				byte[] carry = new byte[0];
+				while(true){
+					byte[] chunk = new byte[Math.max(chunkBytes, carry.length * 2)];
+					System.arraycopy(carry, 0, chunk, 0, carry.length);
+					int length = carry.length;
+					int read;
+					while(length < chunk.length && (read = in.read(chunk, length, chunk.length - length)) > 0) length += read;
+					boolean last = length < chunk.length;
+
+					int end = length;
+					if(!last){
+						while(end > 0 && chunk[end - 1] != '\n') end--;
+						// a line longer than the chunk, the next chunk is made larger
+						if(end == 0) end = -1;
+					}
+					if(end < 0){
+						carry = Arrays.copyOf(chunk, length);
+						continue;
+					}
+					carry = Arrays.copyOfRange(chunk, end, length);
+
+					if(end > 0){
+						pending.add(pool.submit(parse(chunk, end, offset)));
+						offset += end;
+					}
+					while(pending.size() >= 2 * threads || (last && !pending.isEmpty())) done(get(pending.poll()));
+					if(last) break;
+				}
+			} finally {
+				in.close();
+				for(Future<T> future : pending) future.cancel(true);
+			}
+		}
+
+		private T get(Future<T> future) throws IOException, InterruptedException{
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
 	/**
 		Convert a CSV file to an Arff file.
 		input: CSV file (comma separated)
 		output: Arff file
 	 */
 	public static void main(String[] args) throws Exception {
-		if(args.length != 2){
-			System.out.println("\nUsage: CSVtoArff <input.csv> <output.arff>");
-			System.out.println("Eample: CSVtoArff <data/hospital.csv> <hospital.arff>");
-			System.exit(1);
+		int threads = Runtime.getRuntime().availableProcessors();
+		int sampleSize = DEFAULT_SAMPLE_SIZE;
+		int chunkMB = 0;
+		String nominal = null;
+		String numeric = null;
+		String relation = null;
+		List<String> files = new ArrayList<String>();
+		for(int k = 0; k < args.length; k++){
+			if(args[k].equals("-threads") && k + 1 < args.length) threads = Integer.parseInt(args[++k]);
+			else if(args[k].equals("-sample") && k + 1 < args.length) sampleSize = Integer.parseInt(args[++k]);
+			else if(args[k].equals("-chunk") && k + 1 < args.length) chunkMB = Integer.parseInt(args[++k]);
+			else if(args[k].equals("-nominal") && k + 1 < args.length) nominal = args[++k];
+			else if(args[k].equals("-numeric") && k + 1 < args.length) numeric = args[++k];
+			else if(args[k].equals("-relation") && k + 1 < args.length) relation = args[++k];
+			else files.add(args[k]);
 		}
-		
-		System.out.println("loading file "+ args[0]);
-		
-		// load CSV file.
-		CSVLoader loader = new CSVLoader();
-		loader.setSource(new File(args[0]));
-		Instances instances = loader.getDataSet();
-
-		//Print Summary
-		System.out.println("\nDataset summary:\n");
-		System.out.println(instances.toSummaryString());
-		
-		//Changing type
-		instances = changeType(instances);
-		
-		
-		//Print dataset
-		Scanner sc = new Scanner(System.in);
-		System.out.println("\nDo you want to print the data to console (Y/N)?");
-		String answer = sc.next();
-		if(answer.toLowerCase().contentEquals("y")) System.out.println(instances);
-		
-		// Save Arff file.
-		System.out.println("\nSaving Arff file...\n");
-		ArffSaver saver = new ArffSaver();
-		saver.setInstances(instances);
-		saver.setFile(new File(args[1]));
-		saver.writeBatch();
-				
-		sc.close();
-		System.out.println("\nSaved.\n");
-
-	}
-	
-	
-	/**
-	 * Changes type of attributes.
-	 */
-	private static Instances changeType(Instances i) throws Exception{
-		Scanner sc = new Scanner(System.in);
-		String answer = "";
-		while(!answer.toLowerCase().contentEquals("n")){
-			System.out.println("\nDo you want to change the type of some attributes? (Y/N)?");
-			answer = sc.next();
-			if(answer.toLowerCase().contentEquals("y")){
-				System.out.println("Choose from list:\n" +
-									"1- From numeric to nominal\n" +
-								   	"2- From nominal to numeric");
-				int choice = sc.nextInt();
-				
-				if(choice == 1){
-					i = NumToNom(i);
-				}else if(choice == 2){
-					i = NomToNum(i);
-				}else{
-					System.out.println("Not a valid choice");
-				}
-			}
-			
+		if(files.size() != 2){
+			System.out.println("\nUsage: CSVtoArff [-threads N] [-sample rows] [-chunk MB] [-nominal range] [-numeric range] [-relation name] <input.csv> <output.arff>");
+			System.out.println("Example: CSVtoArff -threads 8 -nominal 1,6,8 data/hospital.csv hospital.arff");
+			System.out.println("Types are inferred from the first rows (" + DEFAULT_SAMPLE_SIZE + " by default), ranges such as \"1,3-4,7\" force them.");
+			System.exit(1);
 		}
-		return i;
-	}
-	
-	/**
-	 * Converting attributes from Nominal to Numeric.
-	 */
-	private static Instances NomToNum(Instances i) throws Exception{
-		// TODO 
-		System.out.println("\n Conversion function isn't implented yet");
-		System.out.println(i.toSummaryString());
-		return i;
-	}
-
-	/**
-	 * Converting attributes from Numeric to Nominal.
-	 */
-	private static Instances NumToNom(Instances i) throws Exception{
-		System.out.println("Type range of variables to make nominal, e.g. \"1,3-4,7\"");
-		Scanner sc = new Scanner(System.in);
-		String range = sc.next();
-		
-		NumericToNominal convert = new NumericToNominal();
-		String[] options = {"-R",range};
-		
-		convert.setOptions(options);
-		convert.setInputFormat(i);
-		
-		System.out.println("\nConverting...\n");
-		
-		Instances newI = Filter.useFilter(i, convert);
-		System.out.println(newI.toSummaryString());
-		
-		return newI;
+
+		System.out.println("Converting "+ files.get(0) + " on " + threads + " threads..");
+		CSVtoArff converter = new CSVtoArff(files.get(0), threads);
+		converter.setSampleSize(sampleSize);
+		if(chunkMB > 0) converter.setChunkSize(chunkMB << 20);
+		converter.setTypes(nominal, numeric);
+		if(relation != null) converter.setRelation(relation);
+		converter.convert(files.get(1));
+		System.out.println("\nSaved " + files.get(1) + ".\n");
 	}
 
 }
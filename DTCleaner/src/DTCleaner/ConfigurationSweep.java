@@ -0,0 +1,244 @@
+package DTCleaner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Utils;
+
+/**
+ * Trains and evaluates the repair models of DTCleaner under several configurations (a heuristic and more Clus
+ * settings), on the same train and test sets, and prints the training time, repair time, peak memory and repair
+ * accuracy of every configuration.
+ *
+ * The models of configuration c are trained in <location><c>/<n>/. Configurations are trained one at a time, the
+ * models of a configuration on parallelism workers, and then evaluated one at a time, so that the times of a
+ * configuration aren't skewed by the others running next to it. The peak memory is only known when the models are
+ * built in their own JVM by a ProcessTrainer measuring memory, it's the highest peak heap usage of the models of the
+ * configuration.
+ */
+public class ConfigurationSweep {
+
+	/**
+	 * A heuristic and the Clus settings to use with it.
+	 */
+	public static class Configuration {
+		// name of the configuration, also the name of its folder
+		public final String name;
+		public final HeuristicType heuristic;
+		// more settings by "Section.Key", see Util.makeSettingFile
+		public final Map<String, String> settings;
+
+		public Configuration(String name, HeuristicType heuristic, Map<String, String> settings){
+			this.name = name;
+			this.heuristic = heuristic;
+			this.settings = settings;
+		}
+	}
+
+	/**
+	 * The cost and accuracy of a configuration.
+	 */
+	public static class SweepResult {
+		public final Configuration configuration;
+		// time to train all models of the configuration
+		public final long trainingNanos;
+		// time to repair the violating tuples with the predictions of every model and evaluate them
+		public final long repairNanos;
+		// highest peak heap usage of the models, -1 if unknown
+		public final long peakHeapBytes;
+		// mean percentage of correctly classified tuples over the models, -1 if the configuration failed
+		public final float accuracy;
+		// null if every model was built and evaluated
+		public final String error;
+
+		SweepResult(Configuration configuration, long trainingNanos, long repairNanos, long peakHeapBytes, float accuracy, String error){
+			this.configuration = configuration;
+			this.trainingNanos = trainingNanos;
+			this.repairNanos = repairNanos;
+			this.peakHeapBytes = peakHeapBytes;
+			this.accuracy = accuracy;
+			this.error = error;
+		}
+
+		/**
+		 * Returns the accuracy gained per second of training
+		 */
+		public double accuracyPerSecond(){
+			return accuracy < 0 ? 0 : accuracy / Math.max(trainingNanos / 1e9, 1e-3);
+		}
+	}
+
+	private DTCleaner cleaner;
+	private ModelTrainer trainer;
+	private int parallelism;
+	private String location;
+
+	/**
+	 * @param cleaner: holds the CFDs and the clean and violating tuples, after seperateViolatedInstances()
+	 * @param trainer: builds the models, it must allow concurrent calls when parallelism > 1
+	 * @param parallelism: number of models of a configuration trained at the same time
+	 * @param location: folder holding the folders of the configurations, e.g. "exp/sweep/"
+	 */
+	public ConfigurationSweep(DTCleaner cleaner, ModelTrainer trainer, int parallelism, String location){
+		this.cleaner = cleaner;
+		this.trainer = trainer;
+		this.parallelism = Math.max(1, parallelism);
+		this.location = location;
+	}
+
+	/**
+	 * Returns every heuristic with the default settings, and Gain (the heuristic of makeModel) with a few tree settings.
+	 * @return configurations
+	 */
+	public static List<Configuration> defaults(){
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		for(HeuristicType heuristic : HeuristicType.values()){
+			configurations.add(new Configuration(heuristic.toString(), heuristic, Collections.<String, String>emptyMap()));
+		}
+		configurations.add(new Configuration("Gain-MaxDepth10", HeuristicType.Gain, settings("Constraints.MaxDepth", "10")));
+		configurations.add(new Configuration("Gain-NoPruning", HeuristicType.Gain, settings("Tree.PruningMethod", "None")));
+		configurations.add(new Configuration("Gain-MinimalWeight5", HeuristicType.Gain, settings("Model.MinimalWeight", "5.0")));
+		configurations.add(new Configuration("Gain-MultiwaySplits", HeuristicType.Gain, settings("Tree.BinarySplit", "No")));
+		return configurations;
+	}
+
+	private static Map<String, String> settings(String key, String value){
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		settings.put(key, value);
+		return settings;
+	}
+
+	/**
+	 * Trains and evaluates every configuration, and prints the table of results.
+	 * @param configurations
+	 * @return the result of every configuration, in the order of configurations
+	 * @throws IOException if the train and test sets couldn't be written
+	 * @throws InterruptedException
+	 */
+	public List<SweepResult> run(List<Configuration> configurations) throws IOException, InterruptedException{
+		// the same groups, train set and test set for every configuration
+		List<TrainingScheduler.TrainingGroup> groups = TrainingScheduler.groupByPremise(cleaner.CFDs);
+		String[] datasets = cleaner.storeDatasets(groups);
+
+		System.out.println("\nSweeping " + configurations.size() + " configurations of " + groups.size() + " models on " + parallelism + " workers..");
+		// one configuration at a time, so that its training time is its own
+		List<SweepResult> trained = new ArrayList<SweepResult>(configurations.size());
+		for(Configuration configuration : configurations) trained.add(train(configuration, groups, datasets[0], datasets[1]));
+
+		List<SweepResult> results = new ArrayList<SweepResult>(trained.size());
+		for(SweepResult result : trained) results.add(evaluate(result, groups.size()));
+
+		System.out.println(toTableString(results));
+		Report report = Report.get();
+		for(SweepResult result : results){
+			if(report.sample(Report.SWEEP)) report.write(Report.SWEEP, new String[]{"configuration", "heuristic", "settings", "trainingNanos", "repairNanos", "peakHeapBytes", "accuracy", "error"},
+					new Object[]{result.configuration.name, result.configuration.heuristic.toString(), result.configuration.settings.toString(),
+					result.trainingNanos, result.repairNanos, result.peakHeapBytes, result.accuracy, result.error});
+		}
+		return results;
+	}
+
+	/**
+	 * Repairs the violating tuples with the models of a configuration and measures their accuracy.
+	 */
+	private SweepResult evaluate(SweepResult trained, int numModels){
+		if(trained.error != null) return trained;
+
+		String folder = location + trained.configuration.name + "/";
+		long start = System.nanoTime();
+		float sum = 0;
+		String error = null;
+		for(int model = 1; model <= numModels && error == null; model++){
+			try {
+				float accuracy = cleaner.replaceByPredictions(folder, model);
+				if(accuracy < 0) error = "Couldn't evaluate model " + model;
+				sum += accuracy;
+			} catch (IOException e) {
+				error = "Couldn't evaluate model " + model + ": " + e.getMessage();
+			}
+		}
+		long repairNanos = System.nanoTime() - start;
+		float accuracy = error == null && numModels > 0 ? sum / numModels : -1;
+		return new SweepResult(trained.configuration, trained.trainingNanos, repairNanos, trained.peakHeapBytes, accuracy, error);
+	}
+
+	/**
+	 * Returns the results as a table, one line per configuration, followed by the most accurate configuration.
+	 * @param results
+	 * @return table
+	 */
+	public static String toTableString(List<SweepResult> results){
+		StringBuilder table = new StringBuilder();
+		table.append("\n").append(Utils.padRight("Configuration", 25))
+				.append(Utils.padLeft("Train ms", 10))
+				.append(Utils.padLeft("Repair ms", 10))
+				.append(Utils.padLeft("Peak MB", 9))
+				.append(Utils.padLeft("Accuracy %", 12))
+				.append(Utils.padLeft("Accuracy %/s", 14)).append("\n");
+
+		SweepResult best = null;
+		for(SweepResult result : results){
+			table.append(Utils.padRight(result.configuration.name, 25));
+			if(result.error != null){
+				table.append("  failed: ").append(result.error.split("\n")[0]).append("\n");
+				continue;
+			}
+			table.append(Utils.padLeft("" + result.trainingNanos / 1000000, 10))
+					.append(Utils.padLeft("" + result.repairNanos / 1000000, 10))
+					.append(Utils.padLeft(result.peakHeapBytes < 0 ? "?" : "" + result.peakHeapBytes / (1024 * 1024), 9))
+					.append(Utils.padLeft(String.format("%.2f", result.accuracy), 12))
+					.append(Utils.padLeft(String.format("%.2f", result.accuracyPerSecond()), 14)).append("\n");
+
+			// most accurate, then fastest to train
+			if(best == null || result.accuracy > best.accuracy || (result.accuracy == best.accuracy && result.trainingNanos < best.trainingNanos)) best = result;
+		}
+		if(best != null) table.append("Most accurate: ").append(best.configuration.name).append("\n");
+		return table.toString();
+	}
+
+	/**
+	 * Trains the models of a single configuration, parallelism models at a time.
+	 */
+	private SweepResult train(Configuration configuration, List<TrainingScheduler.TrainingGroup> groups, String trainFile, String testFile) throws IOException, InterruptedException {
+		System.out.println("Training configuration " + configuration.name + "..");
+		long start = System.nanoTime();
+		TrainingScheduler scheduler = new TrainingScheduler(trainer, parallelism, location + configuration.name + "/");
+		List<TrainingScheduler.TrainingResult> results = scheduler.train(groups, trainFile, testFile, configuration.heuristic, configuration.settings);
+		long elapsedTime = System.nanoTime() - start;
+
+		long peak = -1;
+		StringBuilder failed = new StringBuilder();
+		for(TrainingScheduler.TrainingResult result : results){
+			if(result.error != null) failed.append(result.error.getMessage()).append("\n");
+			else peak = Math.max(peak, ProcessTrainer.peakHeapUsage(result.output));
+		}
+		return new SweepResult(configuration, elapsedTime, 0, peak, -1, failed.length() > 0 ? failed.toString() : null);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2 || args.length > 4){
+			System.out.println("\nUsage: ConfigurationSweep <input.arff> <CFDinput> [parallelism] [report.jsonl|report.csv]");
+			System.out.println("Example: ConfigurationSweep data/hospitalFewerAttr20PercentNoiseOn4.arff data/CFDs 4 exp/sweep.csv");
+			System.exit(1);
+		}
+
+		int parallelism = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+		if(args.length == 4) Report.set(Report.open(args[3], "all"));
+
+		try {
+			DTCleaner cleaner = new DTCleaner(args[0], args[1], parallelism);
+			cleaner.seperateViolatedInstances();
+
+			// every model in its own JVM, so that the models of a configuration train concurrently and their memory can be measured
+			ProcessTrainer trainer = new ProcessTrainer();
+			trainer.setMeasureMemory(true);
+			new ConfigurationSweep(cleaner, trainer, parallelism, "exp/sweep/").run(defaults());
+		} finally {
+			Report.get().close();
+		}
+	}
+}
@@ -6,10 +6,8 @@ import java.util.AbstractMap.SimpleImmutableEntry;
 
 import com.google.common.collect.Multiset;
 
-import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
-import weka.core.converters.ConverterUtils.DataSource;
 
 /**
  * DescionTree Cleaner (DTCleaner) produces multi-target decision trees for the purpose of data cleaning:
@@ -22,21 +20,44 @@ import weka.core.converters.ConverterUtils.DataSource;
  */
 public class DTCleaner{
 	
+	// the ground truth of the hospital datasets in data/
+	public static final String DEFAULT_GROUND_TRUTH = "data/hospitalFewerAttr.arff";
+	
 	// Set of FDs
 	HashMap<String, String[]> FDs;
 	// Set of CFDs
 	Multiset<CFD> CFDs;
-	// Dataset instance
-	private Instances i;
-	// Violated instances
-	private Instances violated;
-	// holds index of violated tuples and the list of FDs that it violates.
-	HashMap<Integer, List<String>> violatedTuplesMap;
+	// Dataset, dictionary encoded. Converted to weka Instances only where Weka/Clus need it.
+	private EncodedTable table;
+	// The clean and violating tuples of the dataset, with the original id of every tuple. The violating tuples,
+	// dictionary encoded (same dictionaries as table), are violated().
+	private Partition partition;
+	// holds the violated tuples of every CFD (or FD), as a bitmap of tuple indexes per rule.
+	ViolationSet violations;
 	// Number of CFDs when merged by premise IDs
 	private int CFDsMergedSize;
-	// copy of the ground truth (no noise added) dataset instance. Not modified and will only be used for testing the classifier accuracy.
-	private Instances groundTruth;
-	private Set<String> groundTruthInstancesSet; // Holds the tuples in groundTruth as strings. Note: assuming groundTruth doesn't contain any duplicates
+	// Number of threads used for violation detection. 1 means sequential detection.
+	private int parallelism;
+	// Builds the Clus models. By default inside this JVM, or in a JVM per model when parallelism > 1.
+	private ModelTrainer trainer;
+	// Holds the train and test sets of the models, written once and shared by the setting files.
+	private ArtifactStore artifacts = new ArtifactStore("exp/artifacts/");
+	// Binary copies of the dataset and the ground truth, read instead of parsing their ARFF files again.
+	private ColumnarCache datasets = new ColumnarCache("exp/datasets/");
+	// Heap size (MB, 0 for the JVM default) and timeout (ms, 0 for none) of every Clus model, see setTrainingLimits.
+	private int trainingHeapMB;
+	private long trainingTimeout;
+	// Size of the cache of trained models in MB, 0 to train every model.
+	private long modelCacheMB = 1024;
+	// Number of clean tuples the models are trained on, 0 for all of them, drawn uniformly or per premise values.
+	private int trainingSampleSize;
+	private boolean stratifiedSample;
+	private long sampleSeed;
+	// Number of tuples the models were trained on, and the outcome of training every model.
+	private int trainingRows;
+	private List<TrainingScheduler.TrainingResult> trainingResults;
+	// fingerprints of the ground truth, null if there's none
+	private GroundTruthEvaluator groundTruth;
 	
 	/**
 	 * 
@@ -45,26 +66,51 @@ public class DTCleaner{
 	 * @throws Exception 
 	 */
 	public DTCleaner(String dataInput, String CFDInput) throws Exception{
+		this(dataInput, CFDInput, 1);
+	}
+	
+	/**
+	 * 
+	 * @param dataInput: The input data set location, e.g. data/hospital.arff 
+	 * @param FDInput: The FD input, e.g. data/FDs.txt
+	 * @param parallelism: Number of threads used for violation detection
+	 * @throws Exception 
+	 */
+	public DTCleaner(String dataInput, String CFDInput, int parallelism) throws Exception{
+		this(dataInput, CFDInput, DEFAULT_GROUND_TRUTH, parallelism);
+	}
+	
+	/**
+	 * 
+	 * @param dataInput: The input data set location, e.g. data/hospital.arff 
+	 * @param FDInput: The FD input, e.g. data/FDs.txt
+	 * @param groundTruthInput: The clean data set, with the tuples of dataInput in the same order, or null if
+	 * 		there's none. The repairs are evaluated against it.
+	 * @param parallelism: Number of threads used for violation detection
+	 * @throws Exception 
+	 */
+	public DTCleaner(String dataInput, String CFDInput, String groundTruthInput, int parallelism) throws Exception{
 		
 		// Initialize variables
+		this.parallelism = parallelism;
 		// Reading dataset
-		DataSource scource = new DataSource(dataInput);
 		System.out.println("\nReading dataset: "+dataInput+"...");
-		i = scource.getDataSet();
+		table = datasets.load(dataInput);
 		System.out.println("\nDataset summary:");
-		System.out.println(i.toSummaryString());
-		scource = new DataSource("data/hospitalFewerAttr.arff");
-		groundTruth = scource.getDataSet();
-		groundTruthInstancesSet = new LinkedHashSet<String>();
-		for(int j = 0; j < groundTruth.numInstances(); j++){
-			Instance inst = groundTruth.instance(j);
-			groundTruthInstancesSet.add(inst.toString());
+		System.out.println(table.toSummaryString());
+		if(groundTruthInput != null){
+			groundTruth = new GroundTruthEvaluator(datasets.load(groundTruthInput));
+			String mismatch = groundTruth.mismatch(table);
+			if(mismatch != null){
+				System.out.println("Warning: " + groundTruthInput + " isn't the ground truth of " + dataInput + ", " + mismatch + ". The repairs won't be evaluated.");
+				groundTruth = null;
+			}
 		}
 	
 		// Reading CFDs
 		CFDs = CFDUtility.readCFDs(CFDInput);
 		System.out.println("\nCFDs summary:");
-		System.out.println(CFDUtility.toSummaryString(i, CFDs));
+		System.out.println(CFDUtility.toSummaryString(table.getHeader(), CFDs));
 
 		// get violated instances (same header as original instance).
 		CFDupdateViolated();
@@ -73,26 +119,42 @@ public class DTCleaner{
 	
 	/**
 	 * Finds the violating tuples and returns
-	 * 1- Instances violated: contains the list of violating instances as a weka Instances object.
-	 * 2- HashMap that maps the tuple index in the dataset and a list of CFDs
-	 * 		that the tuple violates.
+	 * 1- EncodedTable violated: contains the list of violating tuples.
+	 * 2- ViolationSet violations: the tuple indexes in the dataset violating
+	 * 		every CFD.
 	 */
 	private void CFDupdateViolated() {
-		violatedTuples v = CFDUtility.returnViolatedTuples(i, CFDs);
-		violated = v.instances;
-		violatedTuplesMap = v.tupleID;
+		EncodedCFDIndex index = new EncodedCFDIndex(new CFDIndex(CFDs), table);
+		if(parallelism > 1){
+			ParallelDetector detector = new ParallelDetector(parallelism);
+			violations = detector.returnViolatedTupleIDs(index);
+			detector.shutdown();
+		}
+		else violations = index.returnViolatedTupleIDs();
+		
+		// CFDs with wildcards are evaluated with one grouping pass per embedded FD
+		PatternTableau tableau = new PatternTableau(CFDs, table);
+		if(tableau.size() > 0) tableau.returnViolatedTupleIDs(violations);
+		
+		partition = new Partition(table, violations.violatingRows());
 	}
 
 	/**
 	 * Finds the violating tuples and returns
-	 * 1- Instances violated: contains the list of violating instances.
-	 * 2- HashMap that maps the tuple index in the dataset and a list of FDs
-	 * 		that it violates.
+	 * 1- EncodedTable violated: contains the list of violating tuples.
+	 * 2- ViolationSet violations: the tuple indexes in the dataset violating
+	 * 		every FD.
 	 */
 	private void FDupdateViolated() {
-		violatedTuples v = FDUtility.returnViolatedTuples(i, FDs);
-		violated = v.instances;
-		violatedTuplesMap = v.tupleID;
+		violatedTuples v;
+		if(parallelism > 1){
+			ParallelDetector detector = new ParallelDetector(parallelism);
+			v = detector.returnViolatedTuples(table, FDs);
+			detector.shutdown();
+		}
+		else v = FDUtility.returnViolatedTuples(table, FDs);
+		violations = v.violations;
+		partition = new Partition(table, violations.violatingRows());
 	}
 	
 	/**
@@ -100,7 +162,14 @@ public class DTCleaner{
 	 * @return
 	 */
 	public Instances getViolatedInstancs(){
-		return violated;
+		return violated().toInstances();
+	}
+	
+	/**
+	 * Returns the violating tuples, made from the dataset when first asked for (see Partition).
+	 */
+	private EncodedTable violated(){
+		return partition.violating();
 	}
 	
 	/**
@@ -108,7 +177,15 @@ public class DTCleaner{
 	 * @return instances
 	 */
 	public Instances getInstancs(){
-		return i;
+		return table.toInstances();
+	}
+	
+	/**
+	 * Returns the dictionary encoded dataset
+	 * @return table
+	 */
+	public EncodedTable getTable(){
+		return table;
 	}
 	
 	/**
@@ -119,26 +196,76 @@ public class DTCleaner{
 		return CFDsMergedSize;
 	}
 	/**
-	 * Checks whether the data instance satisfies our FDs
+	 * Sets how the Clus models are built, e.g. new ProcessTrainer() to run Clus in a separate JVM for every model, or
+	 * new NativeTrainer(parallelism) to learn the trees in this JVM without Clus.
+	 * @param trainer
+	 */
+	public void setTrainer(ModelTrainer trainer){
+		this.trainer = trainer;
+	}
+	
+	/**
+	 * Sets the heap size and timeout of every Clus model. The heap of a model can't be capped inside this JVM, nor can
+	 * Clus be stopped safely there, so with a limit every model is built in its own JVM (a ProcessTrainer), even
+	 * when parallelism is 1. Doesn't apply to a trainer given to setTrainer().
+	 * @param heapMB: heap size in MB, 0 for the JVM default
+	 * @param timeout: time a model may take in ms, 0 for no limit
+	 */
+	public void setTrainingLimits(int heapMB, long timeout){
+		this.trainingHeapMB = heapMB;
+		this.trainingTimeout = timeout;
+	}
+	
+	/**
+	 * Sets the size of the cache of trained models (exp/cache/). A model whose train set, test set, targets and
+	 * settings didn't change since an earlier run isn't trained again.
+	 * @param maxMB: size of the cache in MB, 0 to train every model
+	 */
+	public void setModelCache(long maxMB){
+		this.modelCacheMB = maxMB;
+	}
+	
+	/**
+	 * Trains the models on a sample of the clean tuples instead of all of them. The accuracy of every model is
+	 * printed next to its training time by replaceByPredictions().
+	 * @param size: number of tuples in the sample, 0 to train on all the clean tuples
+	 * @param stratified: if true the size tuples are split among the combinations of premise values of the CFDs in
+	 * 		proportion to their number of tuples, keeping at least one of each while they're fewer than size,
+	 * 		otherwise drawn uniformly
+	 * @param seed: the same seed gives the same sample, and so the same models (see setModelCache)
+	 */
+	public void setTrainingSample(int size, boolean stratified, long seed){
+		this.trainingSampleSize = size;
+		this.stratifiedSample = stratified;
+		this.sampleSeed = seed;
+	}
+	
+	/**
+	 * Checks whether the data instance satisfies our FDs.
+	 * All FDs are checked at the same time on parallelism threads, stopping at the first counterexample.
 	 * @return boolean
 	 */
 	public boolean isFDSatisfied(){
-		
-		return FDUtility.checkFDSatisfaction(i, FDs);
+		ParallelDetector detector = new ParallelDetector(parallelism);
+		try {
+			return detector.checkFDSatisfaction(table, FDs);
+		} finally {
+			detector.shutdown();
+		}
 	}
 	
 	/**
 	 * Prints the instances to console.
 	 */
 	public void printInstances(){
-		System.out.println(i);
+		System.out.println(table.toInstances());
 	}
 
 	/**
 	 * Prints the violating instances to console.
 	 */
 	public void printViolatingInstances(){
-		System.out.println(violated);
+		System.out.println(violated().toInstances());
 	}
 	
 	/**
@@ -152,11 +279,13 @@ public class DTCleaner{
 				"   " + Utils.padLeft("Index" , 5)+
 				"   " + " FD");
 		
-		for(int index : violatedTuplesMap.keySet()){
+		// rows are visited in increasing order, the rule names are only rendered here
+		ViolationSet.Cursor cursor = violations.cursor();
+		while(cursor.next()){
 			StringBuilder row = new StringBuilder();
 			row.append(Utils.padLeft("" + (count++), 5)+"   ");
-			row.append(Utils.padLeft("" + (index), 5)+" : ");
-			for(String FD : violatedTuplesMap.get(index)){
+			row.append(Utils.padLeft("" + (cursor.row()), 5)+" : ");
+			for(String FD : cursor.violations()){
 				row.append(FD+ " | ");
 			}
 			
@@ -178,11 +307,13 @@ public class DTCleaner{
 				"   " + Utils.padLeft("Index" , 5)+
 				"   " + " CFD");
 		
-		for(int index : violatedTuplesMap.keySet()){
+		// rows are visited in increasing order, the rule names are only rendered here
+		ViolationSet.Cursor cursor = violations.cursor();
+		while(cursor.next()){
 			StringBuilder row = new StringBuilder();
 			row.append(Utils.padLeft("" + (count++), 5)+"   ");
-			row.append(Utils.padLeft("" + (index), 5)+" : ");
-			for(String CFD : violatedTuplesMap.get(index)){
+			row.append(Utils.padLeft("" + (cursor.row()), 5)+" : ");
+			for(String CFD : cursor.violations()){
 				row.append(CFD+ " | ");
 			}
 			
@@ -196,29 +327,22 @@ public class DTCleaner{
 	/**
 	 * Removes the violated instances from our training set.
 	 * Note: this should be performed after updateViolated() method.
-	 * @return the new instances after removal
+	 * @return the table after removal
 	 */
-	public Instances seperateViolatedInstances(){
+	public EncodedTable seperateViolatedInstances(){
 		System.out.println("\nSeperating violating tuples from dataset...");
-		Object[] keys = violatedTuplesMap.keySet().toArray();
-		Arrays.sort(keys, Collections.reverseOrder());
+		int removed = partition.violatingIds().length;
 		
-		int count = 0;
-		// it's important to iterate in descending order (from last to first), because when we remove
-		// an instance, the rest shifts by 1 position.
-		for(Object k : keys){
-			int index = (Integer) k;
-			i.delete(index);
-			count++;
-		}
+		// the clean tuples were split from the violating ones in a single pass when they were detected
+		table = partition.clean();
 		
-		if(violatedTuplesMap.keySet().size() >= 1) {
-			System.out.println("Removed: "+ count);
-			System.out.println("Num Instances left: "+ i.numInstances());
+		if(removed >= 1) {
+			System.out.println("Removed: "+ removed);
+			System.out.println("Num Instances left: "+ table.numRows());
 		}
 		else System.out.println("Did not preform any removal. Violating tuples set is empty.");
 		
-		return i;
+		return table;
 	}
 	
 	
@@ -233,7 +357,7 @@ public class DTCleaner{
 				attrIndexes.add(Integer.parseInt(RHS));
 			}
 			
-			setMissingAtIndex(violated, Util.convertIntegers(attrIndexes));
+			setMissingAtIndex(violated(), Util.convertIntegers(attrIndexes));
 		}
 	}
 	
@@ -248,7 +372,7 @@ public class DTCleaner{
 				attrIndexes.add(lhs.getKey());
 			}
 			
-			setMissingAtIndex(violated, Util.convertIntegers(attrIndexes));
+			setMissingAtIndex(violated(), Util.convertIntegers(attrIndexes));
 		}
 	}
 	
@@ -263,82 +387,79 @@ public class DTCleaner{
 			for(int attIndex : attIndexes)	i.instance(j).setMissing(attIndex);
 		}
 	}
+	
+	/**
+	 * Sets attribute values to be "missing" in the input table t.
+	 *   
+	 * @param t: table to work with
+	 * @param attIndex: array of indexes of the attribute which we would remove the values in
+	 */
+	public void setMissingAtIndex(EncodedTable t, int[] attIndexes){
+		for(int j = 0; j < t.numRows(); j++)	{
+			for(int attIndex : attIndexes)	t.setMissing(j, attIndex);
+		}
+	}
 
 	/**
-	 * Makes the classification model for each CFD and produces predictions for the test file.
-	 * @throws IOException
+	 * Makes the classification model for each group of CFDs sharing a premise and produces predictions for the test file.
+	 * The groups are trained on parallelism workers.
+	 * @throws IOException if a model couldn't be built
 	 * @throws InterruptedException
 	 */
 	public void makeModel() throws IOException, InterruptedException{
-		int folder = 1;
+		// CFDs with the same premise need to be considered as one CFD, with the RHS of all of them as targets.
+		List<TrainingScheduler.TrainingGroup> groups = TrainingScheduler.groupByPremise(CFDs);
 		
-		// this will allow us to keep track of which CFDs we made a model for. We can't make one for each because some CFDs 
-		// will have the same premise and they need to be considered as one CFD
-		HashSet<CFD>  seenCFDs = new HashSet<CFD>();
+		String[] datasets = storeDatasets(groups);
+		String trainFile = datasets[0];
+		String testFile = datasets[1];
 		
-		for(CFD cfd : CFDs){
-			
-			// check if we have already build a model for this CFD
-			if(seenCFDs.contains(cfd)) continue;
-			
-			System.out.println("\nMaking model..");
-			
-			TreeSet<Integer> targets = new TreeSet<Integer>();
-			for(SimpleImmutableEntry<Integer, String> lhs : cfd.getPremise()){
-				targets.add(lhs.getKey());
-			}
-			
-			// find other CFDs containing the same premise.
-			for(CFD otherCFDsWithSamePremise : CFDs){
-				if(otherCFDsWithSamePremise.equals(cfd)) continue;
-				
-				TreeSet<Integer> otherTargets = new TreeSet<Integer>();
-				for(SimpleImmutableEntry<Integer, String> lhs : otherCFDsWithSamePremise.getPremise()){
-					otherTargets.add(lhs.getKey());
-				}
-
-				if(otherTargets.equals(targets)){
-					seenCFDs.add(otherCFDsWithSamePremise);
-				}
-			}
-			
-			//add RHS values of CFDs that have same premise keys
-			for(CFD seenCFD : seenCFDs){
-				targets.add(seenCFD.getRHS().getKey());
-			}
-			
-			// targets now holds the RHS of all CFDs with same premise.
-			targets.add(cfd.getRHS().getKey());
-
-			
-			// make the configurations settings for "Clus" to build decision trees.
-			Util.saveArff(i, "exp/"+folder+"/train.arff");
-			Util.saveArff(violated, "exp/"+folder+"/test.arff");
-			Util.makeSettingFile("exp/"+folder+"/train.arff", "exp/"+folder+"/test.arff", targets, HeuristicType.Gain, "exp/"+folder+"/");
-			
-			System.out.println("building...");
-
-			long start = System.nanoTime();    
-			
-			// Run a java app in a separate system process
-			Process proc = Runtime.getRuntime().exec("java -jar lib/Clus.jar " + "exp/"+folder+"/setting.s" );
-			BufferedReader input = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-			String line;
-			while((line = input.readLine()) != null){
-			    System.out.println(line); // output the result of the process
+		System.out.println("\nMaking " + groups.size() + " models on " + parallelism + " workers..");
+		
+		// Clus can only build one model at a time in this JVM, concurrent models and models with limits run in their own JVM.
+		// In this JVM an exit of Clus is trapped where the JVM allows it, see ClusTrainer.
+		ModelTrainer modelTrainer = trainer;
+		boolean limited = trainingHeapMB > 0 || trainingTimeout > 0;
+		if(modelTrainer == null) modelTrainer = parallelism > 1 || limited ? new ProcessTrainer("lib/Clus.jar", trainingHeapMB, trainingTimeout) : new ClusTrainer();
+		// the native trees differ from the Clus ones for the same setting file, they're cached apart
+		if(modelCacheMB > 0) modelTrainer = new ModelCache(modelTrainer, modelTrainer instanceof NativeTrainer ? "exp/native-cache/" : "exp/cache/", modelCacheMB * 1024 * 1024);
+		
+		long start = System.nanoTime();
+		TrainingScheduler scheduler = new TrainingScheduler(modelTrainer, parallelism, "exp/");
+		trainingResults = scheduler.train(groups, trainFile, testFile, HeuristicType.Gain);
+		System.out.println("Elapsed Training Time (all models): " + (System.nanoTime() - start));
+		
+		CFDsMergedSize = groups.size();
+		
+		StringBuilder failed = new StringBuilder();
+		for(TrainingScheduler.TrainingResult result : trainingResults){
+			if(result.error != null) failed.append("\n").append(result.error.getMessage());
+		}
+		if(failed.length() > 0) throw new IOException("Couldn't build all models:" + failed);
+	}
+	
+	/**
+	 * Writes the train set (the clean tuples, or a sample of them, see setTrainingSample) and the test set (the
+	 * violating tuples) of the models to the artifact store.
+	 * @param groups: the groups of CFDs the models are trained for
+	 * @return the train file and the test file
+	 * @throws IOException
+	 */
+	String[] storeDatasets(List<TrainingScheduler.TrainingGroup> groups) throws IOException{
+		// the train and test sets are the same for every model, write them once.
+		EncodedTable train = table;
+		if(trainingSampleSize > 0 && trainingSampleSize < table.numRows()){
+			int[] strata = null;
+			if(stratifiedSample){
+				TreeSet<Integer> premises = new TreeSet<Integer>();
+				for(TrainingScheduler.TrainingGroup group : groups) premises.addAll(group.premise);
+				strata = Util.convertIntegers(new ArrayList<Integer>(premises));
 			}
-
-			long elapsedTime = System.nanoTime() - start;
-			System.out.println("Elapsed Training Time: " + elapsedTime);
-			
-			input.close();
-			
-			folder++;
-			
-			seenCFDs.add(cfd);
+			train = table.select(ReservoirSample.sample(table, trainingSampleSize, strata, sampleSeed));
+			System.out.println("\nTraining on a " + (stratifiedSample ? "stratified" : "uniform") + " sample of " + train.numRows() + " out of " + table.numRows() + " clean tuples");
 		}
-		
-		CFDsMergedSize = folder-1;
+		trainingRows = train.numRows();
+		return new String[]{artifacts.put(train.toInstances()), artifacts.put(violated().toInstances())};
 	}
 	
 	/**
@@ -350,148 +471,292 @@ public class DTCleaner{
 		System.out.println("\nReplacing errornous entries with the predicted values");
 		
 		for(int folder = 1; folder <= CFDsMergedSize; folder++){
+			float accuracy = replaceByPredictions("exp/", folder);
+			if(accuracy >= 0) printTrainingTradeOff(folder, accuracy);
+		}
 			
-			// numOfTargets holds the number of target attributes for this model
-			int numOfTargets = -1;
-			// open predictions file
-			FileInputStream fs = new FileInputStream("exp/"+folder+"/setting.s");
-			BufferedReader br = new BufferedReader(new InputStreamReader(fs));
-			
-			String line = br.readLine();
-			String [] targetAttr = null; 
-			while(line != null){
-				if(line.contains("Target = ")){
-					targetAttr = line.substring(line.indexOf('=')+1, line.length()).split(",");
-				}
-				if(line.contains("TargetSize = ")) {
-					line = line.replaceAll("\\D+","");
-					numOfTargets = Integer.parseInt(line);
-				}else line = br.readLine();
-			}
-			
-			if(numOfTargets < 0 || targetAttr == null){
-				System.out.println("\nError: Coudln't complete method replaceByPredictions()");
-				System.exit(1);
+	}
+	
+	/**
+	 * Replaces the erroneous entries by the predictions of a single model, writes the cleaned test set to
+	 * <location><folder>/testCleaned.arff and prints its accuracy.
+	 * @param location: folder holding the folders of the models, e.g. "exp/"
+	 * @param folder: number of the model
+	 * @return percentage of correctly classified tuples, -1 if it couldn't be computed
+	 * @throws IOException
+	 */
+	float replaceByPredictions(String location, int folder) throws IOException{
+		Report report = Report.get();
+		
+		// the test set of the model, the targets are read from the header of the predictions
+		String testFile = null;
+		BufferedReader br = new BufferedReader(new FileReader(location+folder+"/setting.s"));
+		try {
+			String line;
+			while((line = br.readLine()) != null && testFile == null){
+				if(line.startsWith("TestSet")) testFile = line.substring(line.indexOf('=')+1).trim();
 			}
-			
+		} finally {
+			br.close();
+		}
+		if(testFile == null) throw new IOException("No TestSet in " + location+folder+"/setting.s");
 		
-			// open predictions file
-			FileInputStream fs0 = new FileInputStream("exp/"+folder+"/setting.test.pred.arff");
-			BufferedReader br0 = new BufferedReader(new InputStreamReader(fs0));
-			
-			// skip lines until we reach line containing "@DATA"
-			
-			String predictedLine = br0.readLine();
-			while(predictedLine != null){
-				if(predictedLine.contentEquals("@DATA")) {
-					predictedLine = br0.readLine();
-					break;
-				}else predictedLine = br0.readLine();
+		// the test set holds the violating tuples in this order, they're repaired in memory for the evaluation
+		int[] all = new int[violated().numRows()];
+		for(int j = 0; j < all.length; j++) all[j] = j;
+		EncodedTable repaired = violated().select(all);
+		
+		// the predictions and the test rows are read in lockstep, merged rows are written field by field
+		PredictionMerger merger = new PredictionMerger(new FileReader(location+folder+"/setting.test.pred.arff"), new FileReader(testFile));
+		BufferedWriter bw = new BufferedWriter(new FileWriter(location+folder+"/testCleaned.arff"));
+		int numRows = 0;
+		try {
+			bw.write(merger.getHeader());
+			while(merger.next()){
+				merger.writeRow(bw);
+				if(merger.getRow() < repaired.numRows()) merger.setRow(repaired, merger.getRow());
+				numRows++;
+				
+				// the repaired tuple is only rendered into the report when it's sampled
+				if(report.sample(Report.REPAIR)) report.write(Report.REPAIR, new String[]{"model", "row", "replacing", "to", "in", "repaired"}, 
+						new Object[]{folder, merger.getRow(), merger.actualToString(), merger.predictedToString(), merger.rowToString(), merger.mergedToString()});
 			}
+		} finally {
+			merger.close();
+			bw.close();
+		}
+		
+		if(numRows != violated().numRows()){
+			System.out.println("The test set of model " + folder + " has " + numRows + " tuples, not the " + violated().numRows() + " violating tuples. Skipping the evaluation.");
+			return -1;
+		}
+		return printEvaluation(violated(), repaired, partition.violatingIds(), location+folder+"/testCleaned.arff");
+	}
+	
+	/**
+	 * Repairs the violating tuples with the predictions of every model in a single pass, and writes them merged back
+	 * with the clean tuples, in the order of the dataset, as one cleaned dataset.
+	 * Note: this should be performed after makeModel().
+	 * @param policy: how a cell predicted by several models is repaired when they disagree
+	 * @param output: the cleaned dataset, e.g. "exp/cleaned.arff"
+	 * @return the cleaned dataset
+	 * @throws IOException if the predictions of a model couldn't be read
+	 */
+	public EncodedTable repair(PredictionCombiner.ConflictPolicy policy, String output) throws IOException{
+		EncodedTable cleaned = mergeRepaired(policy);
+		saveCleaned(cleaned, output);
+		return cleaned;
+	}
+	
+	/**
+	 * Repairs the violating tuples like repair(), then repeats until the dataset is consistent: the violations are
+	 * re-detected on the rows whose cells changed only (see IncrementalDetector, which keeps the CFDs with wildcards
+	 * too), and the tuples that still violate a CFD or FD are predicted again, until no tuple violates, no cell
+	 * changes or maxRounds rounds are done.
+	 * A round costs time proportional to the number of violating tuples left, not to the size of the dataset.
+	 * 
+	 * The first repair uses the predictions of makeModel(). The models of the next rounds are learned once on the
+	 * clean tuples, if tuples are left to repair, and kept in memory (RepairModels), as the Clus models can't
+	 * predict single tuples.
+	 * Note: this should be performed after makeModel().
+	 * @param policy: how a cell predicted by several models is repaired when they disagree
+	 * @param maxRounds: most rounds after the first repair
+	 * @param output: the cleaned dataset, e.g. "exp/cleaned.arff"
+	 * @return the cleaned dataset
+	 * @throws IOException if the predictions of a model couldn't be read
+	 */
+	public EncodedTable repairToFixpoint(PredictionCombiner.ConflictPolicy policy, int maxRounds, String output) throws IOException{
+		EncodedTable cleaned = mergeRepaired(policy);
+		
+		// the violations of the whole dataset are only detected once, the rounds update them
+		IncrementalDetector detector = new IncrementalDetector(cleaned, CFDs, FDs);
+		// learned once, in the first round with violating tuples left
+		RepairModels models = null;
+		PredictionCombiner combiner = new PredictionCombiner(policy);
+		// a violating tuple is repaired in here, then its changed cells are updated in the detector
+		EncodedTable scratch = cleaned.select(new int[0]);
+		Report report = Report.get();
+		
+		int round = 1;
+		for(; round <= maxRounds; round++){
+			long start = System.nanoTime();
+			int[] rows = Util.sortedIndexes(detector.getViolatedTuplesMap().keySet());
+			if(rows.length == 0) break;
+			if(models == null) models = new RepairModels(table, CFDs, HeuristicType.Gain, parallelism);
 			
-			// open test file.
-			FileInputStream fs1 = new FileInputStream("exp/"+folder+"/test.arff");
-			BufferedReader br1 = new BufferedReader(new InputStreamReader(fs1));
-
-		    String tmpFileName = "exp/"+folder+"/testCleaned.arff";
-		    BufferedWriter bw = new BufferedWriter(new FileWriter(tmpFileName));
-		    
-			String testLine = br1.readLine();
-			bw.write(testLine);
-			while(testLine != null){
-				if(testLine.toLowerCase().contentEquals("@data")) {
-					testLine = br1.readLine();
-					break;
-				}else testLine = br1.readLine();
-				bw.write(testLine+"\n");
+			// every tuple is predicted from the values of the previous round, so the order of the rows doesn't matter
+			int[][][] predictions = new int[rows.length][models.size()][];
+			for(int m = 0; m < models.size(); m++){
+				for(int k = 0; k < rows.length; k++) predictions[k][m] = models.predict(m, cleaned, rows[k]);
 			}
 			
-			while(testLine != null){			
-				
-				System.out.println("replacing: " + predictedLine.substring(0, Util.nthOccurrence(predictedLine, ',', numOfTargets)));
-				System.out.println("To       : " + predictedLine.substring(Util.nthOccurrence(predictedLine, ',', numOfTargets)+1, Util.nthOccurrence(predictedLine, ',', numOfTargets*2)) );
-				System.out.println("In       : " + testLine+ "\n------------------");
-				
-				String [] predictedValues = predictedLine.substring(Util.nthOccurrence(predictedLine, ',', numOfTargets)+1, Util.nthOccurrence(predictedLine, ',', numOfTargets*2)).split(",");
-				String [] testLineValues = testLine.split(",");
-				
-				int predictedValuesIndex = 0;
-				for(String t : targetAttr){
-					int tar = Integer.parseInt(t.replaceAll("[^0-9]", ""));
-					testLineValues[tar - 1] = predictedValues[predictedValuesIndex];
-					predictedValuesIndex++;
+			int changed = 0;
+			for(int k = 0; k < rows.length; k++){
+				scratch.clear();
+				scratch.add(cleaned.row(rows[k]));
+				models.repair(scratch, 0, predictions[k], combiner);
+				for(int att = 0; att < cleaned.numAttributes(); att++){
+					int code = scratch.code(0, att);
+					if(code == cleaned.code(rows[k], att)) continue;
+					detector.updateCode(rows[k], att, code);
+					changed++;
 				}
-				
-				StringBuilder replacedTestLine = new StringBuilder();
-				for(String s : testLineValues){
-					replacedTestLine.append(s+",");
-				}
-				replacedTestLine.deleteCharAt(replacedTestLine.length()-1);
-
-				
-				testLine = replacedTestLine.toString();
-
-				bw.write(testLine+"\n");
-				
-				predictedLine = br0.readLine();
-				testLine = br1.readLine();
 			}
+			long nanos = System.nanoTime() - start;
 			
-			fs.close();
-			br.close();
-			fs0.close();
-			br0.close();
-			fs1.close();
-			br1.close();
-			bw.close();
-			
-			try {
-				printClassificationAccuracy("exp/"+folder+"/testCleaned.arff");
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+			System.out.println("Round " + round + ": " + rows.length + " violating tuples, changed " + changed + " values, "
+					+ detector.getViolatedTuplesMap().size() + " violating tuples left, in " + nanos / 1000000 + " ms");
+			if(report.sample(Report.ROUND)) report.write(Report.ROUND, new String[]{"round", "violating", "changed", "left", "nanos"},
+					new Object[]{round, rows.length, changed, detector.getViolatedTuplesMap().size(), nanos});
+			if(changed == 0) break;
 		}
-			
+		
+		int left = detector.getViolatedTuplesMap().size();
+		if(left == 0) System.out.println("Reached a fixpoint: no violating tuples left.");
+		else if(round > maxRounds) System.out.println("Stopped after " + maxRounds + " rounds with " + left + " violating tuples left.");
+		else System.out.println("Reached a fixpoint: the models don't change the " + left + " violating tuples left.");
+		
+		saveCleaned(cleaned, output);
+		return cleaned;
+	}
+	
+	/**
+	 * Repairs the violating tuples with the predictions of every model in a single pass, and merges them back with
+	 * the clean tuples, in the order of the dataset.
+	 */
+	private EncodedTable mergeRepaired(PredictionCombiner.ConflictPolicy policy) throws IOException{
+		System.out.println("\nRepairing the violating tuples with the predictions of all models (" + policy + ")...");
+		
+		// the same groups, in the same order, as the models of makeModel()
+		List<String> predictionFiles = new ArrayList<String>();
+		List<Set<Integer>> premises = new ArrayList<Set<Integer>>();
+		for(TrainingScheduler.TrainingGroup group : TrainingScheduler.groupByPremise(CFDs)){
+			predictionFiles.add("exp/"+group.folder+"/setting.test.pred.arff");
+			premises.add(group.premise);
+		}
+		
+		// the test set of the models holds the violating tuples in this order
+		int[] all = new int[violated().numRows()];
+		for(int j = 0; j < all.length; j++) all[j] = j;
+		EncodedTable repaired = violated().select(all);
+		PredictionCombiner combiner = new PredictionCombiner(policy);
+		combiner.apply(repaired, predictionFiles, premises);
+		System.out.println("Changed " + combiner.getChanged() + " values. The models disagreed on " + combiner.getConflicts() + " values.");
+		
+		return partition.merge(repaired);
+	}
+	
+	/**
+	 * Writes the cleaned dataset and prints its accuracy.
+	 */
+	private void saveCleaned(EncodedTable cleaned, String output) throws IOException{
+		Util.saveArff(cleaned.toInstances(), output);
+		
+		// tuple j of the cleaned dataset is tuple j of the dataset
+		int[] ids = new int[cleaned.numRows()];
+		for(int j = 0; j < ids.length; j++) ids[j] = j;
+		printEvaluation(partition.merge(violated()), cleaned, ids, output);
 	}
 	
 	/**
-	 * Prints the accuracy of the classifier.
+	 * Prints the accuracy of a model next to its training time and the number of tuples it was trained on, and
+	 * writes them to the report, to compare training samples of different sizes.
+	 * @param folder: number of the model
+	 * @param accuracy: percentage of correctly classified tuples
+	 */
+	private void printTrainingTradeOff(int folder, float accuracy){
+		if(trainingResults == null || folder > trainingResults.size()) return;
+		long nanos = trainingResults.get(folder - 1).elapsedNanos;
+		
+		System.out.println("Model " + folder + ": " + accuracy + "% correctly classified, trained on " + trainingRows + " out of " + table.numRows() + " clean tuples in " + nanos / 1000000 + " ms");
+		Report report = Report.get();
+		if(report.sample(Report.ACCURACY)) report.write(Report.ACCURACY, new String[]{"model", "accuracy", "trainingRows", "cleanRows", "nanos"},
+				new Object[]{folder, accuracy, trainingRows, table.numRows(), nanos});
+	}
+	
+	/**
+	 * Prints the percentage of tuples equal to the ground truth after the repair, and the precision, recall and F1
+	 * of the repaired cells of every attribute. The tuples that differ go to the report.
 	 * Note: this should be performed only when the ground truth data is given.
-	 * @param dataInput
-	 * @throws Exception
+	 * @param dirty: the tuples before the repair
+	 * @param repaired: the same tuples after the repair
+	 * @param ids: index of every tuple in the dataset, and in the ground truth
+	 * @param name: where the repaired tuples were written, for the report
+	 * @return percentage of correctly classified tuples, -1 without ground truth
 	 */
-	public void printClassificationAccuracy(String dataInput) throws Exception{
-
+	public float printEvaluation(EncodedTable dirty, EncodedTable repaired, int[] ids, String name){
+		if(groundTruth == null){
+			System.out.println("\nNo ground truth, the repairs aren't evaluated.");
+			return -1;
+		}
+		
 		System.out.println("\nCalculating how many tuples were correctly classified...");
-
-		DataSource scource = new DataSource(dataInput);
-		Instances testCleaned = scource.getDataSet();
+		GroundTruthEvaluator.Evaluation evaluation;
+		try {
+			evaluation = groundTruth.evaluate(dirty, repaired, ids);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Couldn't evaluate " + name + " against the ground truth: " + e.getMessage());
+			return -1;
+		}
 		
-	
-		System.out.println("\nThe following tuples were wrongly classified: ");
-		int correctCount = 0;
-		for(int j = 0; j < testCleaned.numInstances(); j++){
-			if(groundTruthInstancesSet.contains(testCleaned.instance(j).toString())) correctCount++;
-			else System.out.println(testCleaned.instance(j).toString());
+		// the wrongly classified tuples go to the report
+		Report report = Report.get();
+		for(int j = evaluation.wrongRows.nextSetBit(0); j >= 0; j = evaluation.wrongRows.nextSetBit(j + 1)){
+			if(report.sample(Report.MISCLASSIFIED)) report.write(Report.MISCLASSIFIED, new String[]{"file", "row", "id", "tuple"}, new Object[]{name, j, ids[j], repaired.rowToString(j)});
+		}
+		for(int att = -1; att < evaluation.attributes.length; att++){
+			if(att >= 0 && evaluation.errors(att) == 0 && evaluation.repairs(att) == 0) continue;
+			if(report.sample(Report.CELLS)) report.write(Report.CELLS, new String[]{"file", "attribute", "errors", "repairs", "correctRepairs", "precision", "recall", "f1"},
+					new Object[]{name, att < 0 ? "All" : evaluation.attributes[att], evaluation.errors(att), evaluation.repairs(att), evaluation.correctRepairs(att),
+					evaluation.precision(att), evaluation.recall(att), evaluation.f1(att)});
 		}
-		float percent = (correctCount * 100.0f) / testCleaned.numInstances();
 		
-		System.out.println("\n"+percent+"%: "+ correctCount + " out of " + testCleaned.numInstances() + " correctly classified." );
+		System.out.println("\n"+evaluation.rowAccuracy()+"%: "+ evaluation.correctRows + " out of " + evaluation.numRows + " correctly classified." );
+		System.out.println(evaluation.toSummaryString());
+		return evaluation.rowAccuracy();
 	}
 	
 	
+	/**
+	 * Removes the train and test sets of earlier runs. Note: this should be performed after replaceByPredictions().
+	 */
+	public void removeStaleArtifacts(){
+		artifacts.removeStale();
+	}
+	
 	public static void main(String[] args) throws Exception {
-		if(args.length != 2){
-			System.out.println("\nUsage: DTCleaner <input.arff> <FDinput.txt>");
-			System.out.println("Eample: DTCleaner <data/hospital.arff> <FDlist.txt>");
+		// -truth <ground truth.arff|none> may be given anywhere
+		String groundTruthInput = DEFAULT_GROUND_TRUTH;
+		List<String> positional = new ArrayList<String>();
+		for(int k = 0; k < args.length; k++){
+			if(args[k].equals("-truth") && k + 1 < args.length) groundTruthInput = args[++k];
+			else positional.add(args[k]);
+		}
+		if(groundTruthInput.equals("none")) groundTruthInput = null;
+		args = positional.toArray(new String[positional.size()]);
+		
+		if(args.length < 2 || args.length > 5){
+			System.out.println("\nUsage: DTCleaner <input.arff> <FDinput.txt> [parallelism] [report.jsonl|report.csv] [summary|all|sample:N] [-truth <groundTruth.arff>|none]");
+			System.out.println("Example: DTCleaner <data/hospital.arff> <FDlist.txt> 8 exp/report.jsonl sample:100 -truth data/hospitalClean.arff");
+			System.out.println("Without a report file only the number of violating, repaired and misclassified tuples is printed.");
+			System.out.println("The repairs are evaluated against " + DEFAULT_GROUND_TRUTH + " by default, and not evaluated with -truth none.");
 			System.exit(1);
 		}
 		
-		DTCleaner cleaner = new DTCleaner(args[0],args[1]);
-		cleaner.seperateViolatedInstances();
-		cleaner.makeModel();
-
-		cleaner.replaceByPredictions();
+		int parallelism = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+		if(args.length >= 4) Report.set(Report.open(args[3], args.length == 5 ? args[4] : "all"));
+		
+		try {
+			DTCleaner cleaner = new DTCleaner(args[0],args[1],groundTruthInput,parallelism);
+			cleaner.seperateViolatedInstances();
+			cleaner.makeModel();
+	
+			cleaner.replaceByPredictions();
+			cleaner.repairToFixpoint(PredictionCombiner.ConflictPolicy.RHS_FIRST, 10, "exp/cleaned.arff");
+			cleaner.removeStaleArtifacts();
+		} finally {
+			Report.get().close();
+		}
 		
 	}
 
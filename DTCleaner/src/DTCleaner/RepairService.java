@@ -0,0 +1,598 @@
+package DTCleaner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Repairs incoming tuples online: the repair models of every group of CFDs are learned once on the clean tuples and
+ * kept in memory with the CFD index, and every tuple received is checked against the CFDs and, if it violates one,
+ * repaired with the predictions of every model and sent back.
+ *
+ * Tuples come one per line, from stdin or from clients of a local socket, either as CSV (the values of all
+ * attributes in order, "?" for missing values) or as a JSON object of attribute names to values. A CSV line is
+ * answered with the cleaned tuple as CSV, a JSON line with {"tuple":{..},"violated":[..],"remaining":[..],"changed":n},
+ * the CFDs violated before and after the repair. A malformed line is answered with an error.
+ *
+ * The lines wait in a bounded queue, so that readers block when the models fall behind. A single worker takes them
+ * in micro-batches of up to maxBatch lines, waiting at most maxWait for a batch to fill, and runs every model over
+ * the violating tuples of the batch at once. Every client gets its answers in the order of its lines.
+ *
+ * The models are RepairModels, as Clus can't predict single tuples without writing a test set and starting over.
+ * Constant CFDs and CFDs with wildcards in the premise only are checked. FDs and CFDs with a wildcard RHS, e.g.
+ * 5=_->3=_, are ignored, as they need the other tuples; a warning is printed for the CFDs ignored.
+ */
+public class RepairService {
+
+	public static final int DEFAULT_MAX_BATCH = 64;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	// number of recent latencies the percentiles are computed over
+	public static final int LATENCY_WINDOW = 1 << 16;
+	// the latencies are printed every STATS_EVERY requests
+	public static final int STATS_EVERY = 10000;
+
+	// marks the end of the requests
+	private static final Request STOP = new Request(null, null, 0);
+
+	/**
+	 * A line waiting for its repair.
+	 */
+	private static class Request {
+		final String line;
+		final Connection from;
+		// when the line was read
+		final long received;
+
+		Request(String line, Connection from, long received){
+			this.line = line;
+			this.from = from;
+			this.received = received;
+		}
+	}
+
+	/**
+	 * Where the answers of a client go. Counts the lines of the client that aren't answered yet.
+	 */
+	private static class Connection {
+		private final Writer out;
+		private int pending;
+		private boolean failed;
+
+		Connection(Writer out){
+			this.out = out;
+		}
+
+		synchronized void added(){
+			pending++;
+		}
+
+		synchronized void answer(String line){
+			if(!failed){
+				try {
+					out.write(line);
+					out.write('\n');
+				} catch (IOException e) {
+					// the client went away, its remaining answers are dropped
+					failed = true;
+				}
+			}
+			if(--pending == 0) notifyAll();
+		}
+
+		synchronized void flush(){
+			if(failed) return;
+			try {
+				out.flush();
+			} catch (IOException e) {
+				failed = true;
+			}
+		}
+
+		synchronized void awaitAnswers() throws InterruptedException {
+			while(pending > 0) wait();
+		}
+	}
+
+	private String[] attributes;
+	private HashMap<String, Integer> attributeIndex = new HashMap<String, Integer>();
+
+	private EncodedCFDIndex index;
+	private CodeKey[] probes;
+	// CFDs with wildcards in the premise only, which the CFD index leaves out
+	private List<RowPattern> patterns;
+	private RepairModels models;
+	private PredictionCombiner combiner;
+
+	// the tuples of the current batch, sharing the dictionaries of clean
+	private EncodedTable batch;
+
+	private int maxBatch = DEFAULT_MAX_BATCH;
+	private long maxWaitNanos;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private BlockingQueue<Request> queue;
+	private Thread worker;
+	private boolean stopped;
+
+	private LatencyRecorder latencies = new LatencyRecorder(LATENCY_WINDOW);
+	private long numViolating;
+	private long numChanged;
+	private long numRemaining;
+
+	/**
+	 * Learns a model per group of CFDs with the same premise, as makeModel() does.
+	 * @param clean: the tuples satisfying the CFDs, e.g. DTCleaner.getTable() after seperateViolatedInstances()
+	 * @param CFDs
+	 * @param heuristic: Default, Gain, GainRatio, VarianceReduction or ReducedError
+	 * @param policy: how a cell predicted differently by several models is repaired
+	 * @param parallelism: number of threads used to learn a model
+	 */
+	public RepairService(EncodedTable clean, Multiset<CFD> CFDs, HeuristicType heuristic, PredictionCombiner.ConflictPolicy policy, int parallelism){
+		attributes = new String[clean.numAttributes()];
+		for(int att = 0; att < attributes.length; att++){
+			attributes[att] = clean.getHeader().attribute(att).name();
+			attributeIndex.put(attributes[att], att);
+		}
+
+		index = new EncodedCFDIndex(new CFDIndex(CFDs), clean);
+		probes = index.probes();
+		patterns = RowPattern.of(CFDs, clean);
+		int ignored = 0;
+		for(CFD cfd : CFDs.elementSet()) if(cfd.getRHS().getValue().equals(CFD.WILDCARD)) ignored++;
+		if(ignored > 0) System.out.println("Warning: " + ignored + " CFDs with a wildcard RHS need the other tuples, they won't be checked.");
+		combiner = new PredictionCombiner(policy);
+		batch = new EncodedTable(clean.getHeader(), clean);
+
+		System.out.println("\nLearning the repair models on " + clean.numRows() + " clean tuples..");
+		long start = System.nanoTime();
+		models = new RepairModels(clean, CFDs, heuristic, parallelism);
+		System.out.println("Learned " + models.size() + " models in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * Sets how lines are batched. Must be called before start().
+	 * @param maxBatch: most lines repaired together
+	 * @param maxWaitMillis: longest time to wait for a batch to fill, 0 to only take the lines already waiting
+	 * @param queueCapacity: most lines waiting, readers block beyond
+	 */
+	public void setBatching(int maxBatch, long maxWaitMillis, int queueCapacity){
+		this.maxBatch = Math.max(1, maxBatch);
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	/**
+	 * Starts the worker repairing the lines.
+	 */
+	public synchronized void start(){
+		if(worker != null) throw new IllegalStateException("The service was already started");
+		queue = new ArrayBlockingQueue<Request>(queueCapacity);
+		worker = new Thread(new Runnable() {
+			public void run() {
+				try {
+					work();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "repair-service");
+		worker.start();
+	}
+
+	/**
+	 * Repairs the lines answered so far, stops the worker and prints the latencies.
+	 * @throws InterruptedException
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if(worker == null || stopped) return;
+		stopped = true;
+		queue.put(STOP);
+		worker.join();
+
+		System.out.println(latencies.toSummaryString());
+		System.out.println("Violating: " + numViolating + ", cells changed: " + numChanged + ", still violating after repair: " + numRemaining);
+		Report report = Report.get();
+		long[] p = latencies.percentiles(50, 95, 99);
+		if(report.sample(Report.LATENCY)) report.write(Report.LATENCY, new String[]{"requests", "violating", "changed", "remaining", "p50Nanos", "p95Nanos", "p99Nanos", "maxNanos"},
+				new Object[]{latencies.count(), numViolating, numChanged, numRemaining, p[0], p[1], p[2], latencies.max()});
+	}
+
+	/**
+	 * Returns the latencies of the lines answered so far, from reading a line to writing its answer
+	 */
+	public LatencyRecorder getLatencies(){
+		return latencies;
+	}
+
+	/**
+	 * Reads lines until the end of in and writes their answers to out, in the same order.
+	 * Returns when every line is answered.
+	 * @param in
+	 * @param out: flushed after every batch
+	 * @throws IOException if in couldn't be read
+	 * @throws InterruptedException
+	 */
+	public void serve(Reader in, Writer out) throws IOException, InterruptedException {
+		if(queue == null) throw new IllegalStateException("The service isn't started");
+		Connection connection = new Connection(out);
+		BufferedReader br = new BufferedReader(in);
+		String line;
+		while((line = br.readLine()) != null){
+			long received = System.nanoTime();
+			line = line.trim();
+			if(line.isEmpty()) continue;
+			connection.added();
+			queue.put(new Request(line, connection, received));
+		}
+		connection.awaitAnswers();
+		connection.flush();
+	}
+
+	/**
+	 * Accepts clients on a port of the loopback address, each served by its own thread. Never returns.
+	 * @param port
+	 * @throws IOException if the port couldn't be bound
+	 */
+	public void listen(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		System.out.println("Listening on " + server.getLocalSocketAddress() + "..");
+		try {
+			while(true){
+				final Socket socket = server.accept();
+				Thread client = new Thread(new Runnable() {
+					public void run() {
+						try {
+							serve(new InputStreamReader(socket.getInputStream(), "UTF-8"), new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+						} catch (IOException e) {
+							System.out.println("Client " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+								// already closed
+							}
+						}
+					}
+				}, "repair-client-" + socket.getPort());
+				client.setDaemon(true);
+				client.start();
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Takes the lines in batches until STOP.
+	 */
+	private void work() throws InterruptedException {
+		List<Request> requests = new ArrayList<Request>(maxBatch);
+		boolean stopping = false;
+		while(!stopping){
+			Request first = queue.take();
+			if(first == STOP) break;
+			requests.add(first);
+
+			long deadline = System.nanoTime() + maxWaitNanos;
+			while(requests.size() < maxBatch){
+				long wait = deadline - System.nanoTime();
+				Request next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+				if(next == null) break;
+				if(next == STOP){
+					stopping = true;
+					break;
+				}
+				requests.add(next);
+			}
+
+			long before = latencies.count();
+			repair(requests);
+			if(latencies.count() / STATS_EVERY > before / STATS_EVERY) System.out.println(latencies.toSummaryString());
+			requests.clear();
+		}
+	}
+
+	/**
+	 * Repairs and answers a batch of lines.
+	 */
+	private void repair(List<Request> requests){
+		batch.clear();
+		int n = requests.size();
+		// row of every line in batch, -1 if it's malformed
+		int[] rows = new int[n];
+		String[] errors = new String[n];
+		boolean[] json = new boolean[n];
+		// values of every line missing from the dictionaries, which are only grown by the clean tuples
+		String[][] unknown = new String[n][];
+		int[] codes = new int[attributes.length];
+		for(int i = 0; i < n; i++){
+			String line = requests.get(i).line;
+			json[i] = line.startsWith("{");
+			rows[i] = -1;
+			try {
+				String[] values = json[i] ? parseJSON(line) : parseCSV(line);
+				for(int att = 0; att < attributes.length; att++){
+					codes[att] = values[att] == null ? EncodedTable.MISSING : batch.dictionary(att).code(values[att]);
+					// an unknown value can't satisfy a constant of a CFD nor match a branch of a model, like a missing one
+					if(codes[att] == EncodedTable.MISSING && values[att] != null){
+						if(unknown[i] == null) unknown[i] = new String[attributes.length];
+						unknown[i][att] = values[att];
+					}
+				}
+				rows[i] = batch.add(codes);
+			} catch (IllegalArgumentException e) {
+				errors[i] = e.getMessage();
+			}
+		}
+
+		// the CFDs violated by every tuple, before the repair
+		List<List<String>> violated = new ArrayList<List<String>>(n);
+		for(int i = 0; i < n; i++) violated.add(rows[i] < 0 ? null : violations(rows[i]));
+
+		// model by model, so that a tree is walked for all the violating tuples of the batch in a row
+		int[][][] predictions = new int[n][models.size()][];
+		for(int m = 0; m < models.size(); m++){
+			for(int i = 0; i < n; i++) if(violated.get(i) != null) predictions[i][m] = models.predict(m, batch, rows[i]);
+		}
+
+		for(int i = 0; i < n; i++){
+			Request request = requests.get(i);
+			String answer;
+			if(rows[i] < 0){
+				answer = json[i] ? "{\"error\":" + Report.json(errors[i]) + "}" : "error," + Report.csv(errors[i]);
+			}else{
+				List<String> remaining = null;
+				int changed = 0;
+				if(violated.get(i) != null){
+					int before = combiner.getChanged();
+					models.repair(batch, rows[i], predictions[i], combiner);
+					changed = combiner.getChanged() - before;
+					remaining = violations(rows[i]);
+					numViolating++;
+					numChanged += changed;
+					if(remaining != null) numRemaining++;
+				}
+				answer = json[i] ? toJSON(rows[i], unknown[i], violated.get(i), remaining, changed) : toCSV(rows[i], unknown[i]);
+			}
+			request.from.answer(answer);
+			latencies.record(System.nanoTime() - request.received);
+		}
+
+		// once per client of the batch
+		Map<Connection, Boolean> flushed = new IdentityHashMap<Connection, Boolean>();
+		for(Request request : requests) if(flushed.put(request.from, Boolean.TRUE) == null) request.from.flush();
+	}
+
+	/**
+	 * Returns the CFDs violated by a tuple of batch, or null if it doesn't violate any.
+	 */
+	private List<String> violations(int row){
+		List<String> violated = index.violations(batch, row, probes);
+		for(RowPattern pattern : patterns){
+			if(!pattern.isViolatedBy(batch, row)) continue;
+			if(violated == null) violated = new LinkedList<String>();
+			violated.add(pattern.name);
+		}
+		return violated;
+	}
+
+	/**
+	 * Returns the values of a CSV line, null for missing ones.
+	 */
+	private String[] parseCSV(String line){
+		String[] values = Util.splitCSVLine(line);
+		if(values.length != attributes.length) throw new IllegalArgumentException("Expected " + attributes.length + " values, got " + values.length);
+		for(int att = 0; att < values.length; att++){
+			values[att] = values[att].trim();
+			if(values[att].isEmpty() || values[att].equals("?")) values[att] = null;
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the values of a flat JSON object by attribute, null for missing ones.
+	 * Attributes left out of the object are missing, unknown ones are an error.
+	 */
+	private String[] parseJSON(String line){
+		String[] values = new String[attributes.length];
+		for(Map.Entry<String, String> entry : parseJSONObject(line).entrySet()){
+			Integer att = attributeIndex.get(entry.getKey());
+			if(att == null) throw new IllegalArgumentException("Unknown attribute " + entry.getKey());
+			String value = entry.getValue();
+			values[att] = value == null || value.equals("?") ? null : value;
+		}
+		return values;
+	}
+
+	/**
+	 * Parses an object whose values are strings, numbers, booleans or null. Numbers and booleans are kept as written.
+	 * @param text
+	 * @return values by name, in the order of the object
+	 */
+	static Map<String, String> parseJSONObject(String text){
+		Map<String, String> object = new LinkedHashMap<String, String>();
+		int[] k = {skipSpaces(text, 0)};
+		expect(text, k, '{');
+		if(peek(text, k) == '}'){
+			k[0]++;
+		}else{
+			while(true){
+				String name = parseJSONString(text, k);
+				expect(text, k, ':');
+				char c = peek(text, k);
+				String value;
+				if(c == '"') value = parseJSONString(text, k);
+				else if(c == '{' || c == '[') throw new IllegalArgumentException("Nested values aren't supported, at " + k[0]);
+				else{
+					int start = k[0];
+					while(k[0] < text.length() && ",} \t".indexOf(text.charAt(k[0])) < 0) k[0]++;
+					value = text.substring(start, k[0]);
+					if(value.isEmpty()) throw new IllegalArgumentException("Expected a value at " + start);
+					if(value.equals("null")) value = null;
+				}
+				object.put(name, value);
+				if(peek(text, k) == ','){
+					k[0]++;
+					continue;
+				}
+				expect(text, k, '}');
+				break;
+			}
+		}
+		if(skipSpaces(text, k[0]) != text.length()) throw new IllegalArgumentException("Unexpected text after the object, at " + k[0]);
+		return object;
+	}
+
+	private static String parseJSONString(String text, int[] k){
+		expect(text, k, '"');
+		StringBuilder value = new StringBuilder();
+		while(k[0] < text.length()){
+			char c = text.charAt(k[0]++);
+			if(c == '"') return value.toString();
+			if(c == '\\'){
+				if(k[0] >= text.length()) break;
+				char escaped = text.charAt(k[0]++);
+				switch(escaped){
+				case 'n': value.append('\n'); break;
+				case 'r': value.append('\r'); break;
+				case 't': value.append('\t'); break;
+				case 'b': value.append('\b'); break;
+				case 'f': value.append('\f'); break;
+				case 'u':
+					if(k[0] + 4 > text.length()) throw new IllegalArgumentException("Malformed \\u escape at " + k[0]);
+					try {
+						value.append((char) Integer.parseInt(text.substring(k[0], k[0] + 4), 16));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Malformed \\u escape at " + k[0]);
+					}
+					k[0] += 4;
+					break;
+				default: value.append(escaped);
+				}
+			}
+			else value.append(c);
+		}
+		throw new IllegalArgumentException("Unterminated string");
+	}
+
+	/**
+	 * Returns the next non-space char, skipping the spaces, or 0 at the end of the text.
+	 */
+	private static char peek(String text, int[] k){
+		k[0] = skipSpaces(text, k[0]);
+		return k[0] < text.length() ? text.charAt(k[0]) : 0;
+	}
+
+	private static void expect(String text, int[] k, char c){
+		if(peek(text, k) != c) throw new IllegalArgumentException("Expected '" + c + "' at " + k[0]);
+		k[0]++;
+	}
+
+	private static int skipSpaces(String text, int k){
+		while(k < text.length() && Character.isWhitespace(text.charAt(k))) k++;
+		return k;
+	}
+
+	/**
+	 * Returns the value of a cell of batch, null if it's missing.
+	 * @param unknown: the values of the line missing from the dictionaries, null if there are none
+	 */
+	private String value(int row, int att, String[] unknown){
+		if(batch.code(row, att) != EncodedTable.MISSING) return batch.label(row, att);
+		return unknown == null ? null : unknown[att];
+	}
+
+	private String toCSV(int row, String[] unknown){
+		StringBuilder line = new StringBuilder();
+		for(int att = 0; att < attributes.length; att++){
+			if(att > 0) line.append(',');
+			String value = value(row, att, unknown);
+			line.append(Report.csv(value == null ? "?" : value));
+		}
+		return line.toString();
+	}
+
+	private String toJSON(int row, String[] unknown, List<String> violated, List<String> remaining, int changed){
+		StringBuilder line = new StringBuilder("{\"tuple\":{");
+		for(int att = 0; att < attributes.length; att++){
+			if(att > 0) line.append(',');
+			line.append(Report.json(attributes[att])).append(':');
+			String value = value(row, att, unknown);
+			if(value == null) line.append("null");
+			else line.append(Report.json(value));
+		}
+		line.append("},\"violated\":").append(toJSONArray(violated));
+		line.append(",\"remaining\":").append(toJSONArray(remaining));
+		line.append(",\"changed\":").append(changed).append('}');
+		return line.toString();
+	}
+
+	private static String toJSONArray(List<String> values){
+		StringBuilder array = new StringBuilder("[");
+		if(values != null){
+			for(String value : values){
+				if(array.length() > 1) array.append(',');
+				array.append(Report.json(value));
+			}
+		}
+		return array.append(']').toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2 || args.length > 6){
+			System.out.println("\nUsage: RepairService <input.arff> <CFDinput> [stdin|port] [parallelism] [maxBatch] [maxWaitMillis]");
+			System.out.println("Example: RepairService data/hospitalFewerAttr20PercentNoiseOn4.arff data/CFDs 7070 4 64 2");
+			System.out.println("Reads one tuple per line as CSV or JSON and answers with the repaired tuple, on stdin/stdout or on a local port.");
+			System.exit(1);
+		}
+
+		boolean stdin = args.length < 3 || args[2].equals("stdin");
+		// on stdin the answers go to stdout, so progress is printed to stderr
+		PrintStream answers = System.out;
+		if(stdin) System.setOut(System.err);
+		int parallelism = args.length >= 4 ? Integer.parseInt(args[3]) : 1;
+
+		DTCleaner cleaner = new DTCleaner(args[0], args[1], parallelism);
+		cleaner.seperateViolatedInstances();
+
+		final RepairService service = new RepairService(cleaner.getTable(), cleaner.CFDs, HeuristicType.Gain, PredictionCombiner.ConflictPolicy.RHS_FIRST, parallelism);
+		service.setBatching(args.length >= 5 ? Integer.parseInt(args[4]) : DEFAULT_MAX_BATCH, args.length == 6 ? Long.parseLong(args[5]) : 0, DEFAULT_QUEUE_CAPACITY);
+		service.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					service.stop();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}));
+
+		if(stdin){
+			service.serve(new InputStreamReader(System.in, "UTF-8"), new BufferedWriter(new OutputStreamWriter(answers, "UTF-8")));
+			service.stop();
+		}
+		else service.listen(Integer.parseInt(args[2]));
+	}
+}
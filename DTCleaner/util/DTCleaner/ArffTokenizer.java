@@ -0,0 +1,266 @@
+package DTCleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the rows of an ARFF file one at a time, with quoted values as written by weka: enclosed in single or double
+ * quotes, with backslash escapes, so that they may hold commas. The header is read when the tokenizer is made.
+ *
+ * A row is kept as its characters and the bounds of its fields, both reused from row to row, so reading a row doesn't
+ * allocate. A field is only decoded into a String on demand (value()), and can be copied as it's written in the file,
+ * quotes included, with writeRaw(). Sparse rows ({...}) aren't supported.
+ */
+public class ArffTokenizer {
+
+	private Reader in;
+	private char[] buffer = new char[1 << 16];
+	private int position;
+	private int limit;
+	private int lineNumber;
+
+	// header up to and including the @data line, and the names of the attributes
+	private String header;
+	private List<String> attributes = new ArrayList<String>();
+
+	// characters of the current row, and the bounds of its fields (quotes included)
+	private char[] row = new char[256];
+	private int rowLength;
+	private int[] start = new int[16];
+	private int[] end = new int[16];
+	private int numFields;
+
+	/**
+	 * Reads the header.
+	 * @param in: the ARFF file, e.g. a FileReader. Buffering is done here.
+	 * @throws IOException if there's no @data line
+	 */
+	public ArffTokenizer(Reader in) throws IOException {
+		this.in = in;
+		StringBuilder text = new StringBuilder();
+		while(readLine()){
+			String line = new String(row, 0, rowLength);
+			text.append(line).append('\n');
+			String trimmed = line.trim();
+			String lower = trimmed.toLowerCase();
+			if(lower.startsWith("@attribute")) attributes.add(attributeName(trimmed.substring("@attribute".length())));
+			else if(lower.startsWith("@data")){
+				header = text.toString();
+				return;
+			}
+		}
+		throw new IOException("No @data line in the ARFF file");
+	}
+
+	/**
+	 * Returns the header up to and including the @data line, one line per line of the file
+	 */
+	public String getHeader(){
+		return header;
+	}
+
+	/**
+	 * Returns the names of the attributes, unquoted
+	 */
+	public List<String> getAttributes(){
+		return attributes;
+	}
+
+	/**
+	 * Reads the next row, skipping empty lines and comments.
+	 * @return false at the end of the file
+	 * @throws IOException on a malformed row
+	 */
+	public boolean next() throws IOException {
+		while(readLine()){
+			int k = 0;
+			while(k < rowLength && isSpace(row[k])) k++;
+			if(k == rowLength || row[k] == '%') continue;
+			if(row[k] == '{') throw new IOException("Sparse ARFF rows aren't supported, line " + lineNumber);
+			split(k);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of fields of the current row
+	 */
+	public int numFields(){
+		return numFields;
+	}
+
+	/**
+	 * Returns true if field k of the current row is missing (?)
+	 */
+	public boolean isMissing(int k){
+		return end[k] - start[k] == 1 && row[start[k]] == '?';
+	}
+
+	/**
+	 * Returns field k of the current row, unquoted and unescaped
+	 * @param k
+	 * @return value, null if it's missing
+	 */
+	public String value(int k){
+		if(isMissing(k)) return null;
+		char first = row[start[k]];
+		if(first != '\'' && first != '"') return new String(row, start[k], end[k] - start[k]);
+
+		StringBuilder value = new StringBuilder(end[k] - start[k]);
+		for(int c = start[k] + 1; c < end[k] - 1; c++){
+			char ch = row[c];
+			if(ch == '\\' && c + 1 < end[k] - 1){
+				ch = row[++c];
+				switch(ch){
+				case 'n': ch = '\n'; break;
+				case 'r': ch = '\r'; break;
+				case 't': ch = '\t'; break;
+				default: break;
+				}
+			}
+			value.append(ch);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Writes field k of the current row as it's written in the file
+	 * @param k
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeRaw(int k, Writer out) throws IOException {
+		out.write(row, start[k], end[k] - start[k]);
+	}
+
+	/**
+	 * Appends field k of the current row as it's written in the file
+	 */
+	public void appendRaw(int k, StringBuilder out){
+		out.append(row, start[k], end[k] - start[k]);
+	}
+
+	/**
+	 * Returns fields [from, to) of the current row as they're written in the file, separated by commas
+	 */
+	public String rawFields(int from, int to){
+		StringBuilder fields = new StringBuilder();
+		for(int k = from; k < to; k++){
+			if(k > from) fields.append(',');
+			appendRaw(k, fields);
+		}
+		return fields.toString();
+	}
+
+	/**
+	 * Returns the current row as it's written in the file
+	 */
+	public String rowToString(){
+		return rawFields(0, numFields);
+	}
+
+	/**
+	 * Returns the number of the line of the current row, from 1
+	 */
+	public int getLineNumber(){
+		return lineNumber;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Splits the current row into fields, from position k.
+	 */
+	private void split(int k) throws IOException {
+		numFields = 0;
+		while(true){
+			while(k < rowLength && isSpace(row[k])) k++;
+			if(numFields == start.length){
+				start = Arrays.copyOf(start, numFields * 2);
+				end = Arrays.copyOf(end, numFields * 2);
+			}
+			start[numFields] = k;
+			if(k < rowLength && (row[k] == '\'' || row[k] == '"')){
+				char quote = row[k++];
+				while(k < rowLength && row[k] != quote){
+					if(row[k] == '\\') k++;
+					k++;
+				}
+				if(k >= rowLength) throw new IOException("Unterminated quote, line " + lineNumber);
+				end[numFields] = ++k;
+				while(k < rowLength && isSpace(row[k])) k++;
+				if(k < rowLength && row[k] != ',') throw new IOException("Expected a comma after a quoted value, line " + lineNumber);
+			}else{
+				while(k < rowLength && row[k] != ',') k++;
+				int e = k;
+				while(e > start[numFields] && isSpace(row[e - 1])) e--;
+				end[numFields] = e;
+			}
+			numFields++;
+			if(k >= rowLength) return;
+			// skip the comma
+			k++;
+		}
+	}
+
+	/**
+	 * Reads the next line into row, without its line break.
+	 * @return false at the end of the file
+	 */
+	private boolean readLine() throws IOException {
+		rowLength = 0;
+		boolean read = false;
+		while(true){
+			if(position == limit){
+				limit = in.read(buffer, 0, buffer.length);
+				position = 0;
+				if(limit <= 0){
+					limit = 0;
+					if(read) lineNumber++;
+					return read;
+				}
+			}
+			read = true;
+			char c = buffer[position++];
+			if(c == '\n'){
+				lineNumber++;
+				if(rowLength > 0 && row[rowLength - 1] == '\r') rowLength--;
+				return true;
+			}
+			if(rowLength == row.length) row = Arrays.copyOf(row, rowLength * 2);
+			row[rowLength++] = c;
+		}
+	}
+
+	private static boolean isSpace(char c){
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	/**
+	 * Returns the name of an attribute from the rest of its @attribute line
+	 */
+	private static String attributeName(String declaration){
+		String d = declaration.trim();
+		if(d.isEmpty()) return d;
+		char quote = d.charAt(0);
+		if(quote != '\'' && quote != '"'){
+			int k = 0;
+			while(k < d.length() && !Character.isWhitespace(d.charAt(k))) k++;
+			return d.substring(0, k);
+		}
+		StringBuilder name = new StringBuilder();
+		for(int k = 1; k < d.length() && d.charAt(k) != quote; k++){
+			char c = d.charAt(k);
+			if(c == '\\' && k + 1 < d.length()) c = d.charAt(++k);
+			name.append(c);
+		}
+		return name.toString();
+	}
+}
@@ -0,0 +1,107 @@
+package DTCleaner;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+import weka.core.Instances;
+
+/**
+ * Content addressed store of the datasets the models are trained and tested on.
+ *
+ * A dataset is written once as <hash>.arff, where hash is the SHA-1 of its ARFF content, and every setting file
+ * refers to it by that name. The hash is computed while the dataset is written, so a dataset is serialized once,
+ * and a dataset that didn't change since the last run keeps its file.
+ * Files of the store that the run didn't use are removed by removeStale() when the run is over.
+ */
+public class ArtifactStore {
+
+	private File directory;
+	// names of the files used during this run
+	private Set<String> used = new HashSet<String>();
+
+	/**
+	 * @param directory: folder holding the datasets, e.g. "exp/artifacts/"
+	 */
+	public ArtifactStore(String directory){
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * Stores a dataset.
+	 * @param i
+	 * @return path of the ARFF file holding i
+	 * @throws IOException
+	 */
+	public synchronized String put(Instances i) throws IOException{
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Couldn't create " + directory);
+
+		File tmp = File.createTempFile("artifact", ".tmp", directory);
+		MessageDigest digest = sha1();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), digest), "UTF-8"));
+		try {
+			// the same content as weka's ArffSaver: the header followed by one line per instance
+			writer.write(new Instances(i, 0).toString());
+			for(int j = 0; j < i.numInstances(); j++){
+				writer.write(i.instance(j).toString());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+
+		String name = toHex(digest.digest()) + ".arff";
+		File file = new File(directory, name);
+		if(file.exists()){
+			System.out.println("\nReusing arff file: " + file.getPath());
+			if(!tmp.delete()) tmp.deleteOnExit();
+		}else if(!tmp.renameTo(file)){
+			if(!tmp.delete()) tmp.deleteOnExit();
+			throw new IOException("Couldn't move " + tmp + " to " + file);
+		}else System.out.println("\nSaved arff file: " + file.getPath());
+
+		used.add(name);
+		return file.getPath();
+	}
+
+	/**
+	 * Removes the files of the store that weren't used during this run, e.g. the datasets of earlier runs.
+	 * @return number of files removed
+	 */
+	public synchronized int removeStale(){
+		File[] files = directory.listFiles();
+		if(files == null) return 0;
+
+		int removed = 0;
+		for(File file : files){
+			if(used.contains(file.getName())) continue;
+			if(file.isFile() && file.delete()) removed++;
+		}
+		if(removed > 0) System.out.println("\nRemoved " + removed + " stale files from " + directory.getPath());
+		return removed;
+	}
+
+	private static MessageDigest sha1(){
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform provides SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes){
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+}
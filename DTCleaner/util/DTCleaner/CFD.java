@@ -8,8 +8,13 @@ import java.util.AbstractMap.SimpleImmutableEntry;
  */
 public class CFD {
 	
+	// value of a pattern tableau cell that matches any value, e.g. 5=_->3=_
+	public static final String WILDCARD = "_";
+	
 	private LinkedList<SimpleImmutableEntry<Integer,String>> premise;
 	private SimpleImmutableEntry<Integer,String> RHS;
+	// rendered by toString() the first time it's needed
+	private String description;
 	
 	/**
 	 * CFD Constructor.
@@ -34,6 +39,18 @@ public class CFD {
 	 */
 	public SimpleImmutableEntry<Integer,String> getRHS(){	return RHS; } 
 	
+	/**
+	 * Returns true if none of the values of the CFD is a wildcard.
+	 * @return boolean
+	 */
+	public boolean isConstant(){
+		if(RHS.getValue().equals(WILDCARD)) return false;
+		for(SimpleImmutableEntry<Integer, String> lhs : premise){
+			if(lhs.getValue().equals(WILDCARD)) return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Return a string description of the CFD.
 	 * @return String str
@@ -51,4 +68,13 @@ public class CFD {
 		
 		return str.toString();
 	}
+	
+	/**
+	 * Returns the description of the CFD, rendered once.
+	 * @return String description
+	 */
+	public String toString(){
+		if(description == null) description = CFDToString();
+		return description;
+	}
 }
@@ -0,0 +1,262 @@
+package DTCleaner;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Index of constant CFDs by premise attribute set and premise value tuple.
+ *
+ * Every distinct premise attribute set is probed once per row with the row's values on those
+ * attributes, and only the RHS of the CFDs whose premise matches is checked. Detection is therefore
+ * O(rows x distinct premise attribute sets) instead of O(rows x CFDs).
+ * CFDs with wildcards are left out of the index, they are evaluated by PatternTableau.
+ */
+public class CFDIndex {
+
+	// premise attribute sets, in the order they were first seen in the CFDs
+	private List<PremiseGroup> groups;
+	// all CFDs, in the order of the CFDs. The order of a rule is its index in this list.
+	private List<CFD> cfds;
+	// number of CFDs in the index
+	private int size;
+
+	/**
+	 * A single CFD as stored in the index.
+	 */
+	static class Rule {
+		// position of the CFD when iterating the CFDs, i.e. its rule index in a ViolationSet
+		final int order;
+		final int rhsAttribute;
+		final String rhsValue;
+		final CFD cfd;
+
+		Rule(int order, CFD cfd){
+			this.order = order;
+			this.rhsAttribute = cfd.getRHS().getKey();
+			this.rhsValue = cfd.getRHS().getValue();
+			this.cfd = cfd;
+		}
+	}
+
+	/**
+	 * CFDs sharing the same premise attributes, keyed by their premise values.
+	 * With a single premise attribute the key is the value itself, otherwise a List of the values
+	 * ordered by attribute index.
+	 */
+	static class PremiseGroup {
+		final int[] attributes;
+		final HashMap<Object, List<Rule>> rules = new HashMap<Object, List<Rule>>();
+
+		PremiseGroup(int[] attributes){
+			this.attributes = attributes;
+		}
+
+		/**
+		 * Returns the rules whose premise matches the instance, or null if none.
+		 */
+		List<Rule> lookup(Instance inst){
+			if(attributes.length == 1) return rules.get(inst.stringValue(attributes[0]));
+
+			List<String> key = new ArrayList<String>(attributes.length);
+			for(int attribute : attributes) key.add(inst.stringValue(attribute));
+			return rules.get(key);
+		}
+
+		/**
+		 * Returns the rules whose premise matches the row values, or null if none.
+		 */
+		List<Rule> lookup(String[] values){
+			if(attributes.length == 1) return rules.get(values[attributes[0]]);
+
+			List<String> key = new ArrayList<String>(attributes.length);
+			for(int attribute : attributes) key.add(values[attribute]);
+			return rules.get(key);
+		}
+	}
+
+	private static final Comparator<Rule> BY_ORDER = new Comparator<Rule>() {
+		public int compare(Rule a, Rule b) {
+			return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Builds the index.
+	 * @param CFDs
+	 */
+	public CFDIndex(Multiset<CFD> CFDs){
+		LinkedHashMap<List<Integer>, PremiseGroup> byAttributes = new LinkedHashMap<List<Integer>, PremiseGroup>();
+		cfds = new ArrayList<CFD>(CFDs);
+
+		int order = 0;
+		for(CFD cfd : CFDs){
+			if(!cfd.isConstant()){
+				order++;
+				continue;
+			}
+			
+			// sort the premise by attribute index so that the same attribute set always gives the same key
+			List<SimpleImmutableEntry<Integer, String>> premise = new ArrayList<SimpleImmutableEntry<Integer, String>>(cfd.getPremise());
+			Collections.sort(premise, new Comparator<SimpleImmutableEntry<Integer, String>>() {
+				public int compare(SimpleImmutableEntry<Integer, String> a, SimpleImmutableEntry<Integer, String> b) {
+					return a.getKey().compareTo(b.getKey());
+				}
+			});
+
+			List<Integer> attributes = new ArrayList<Integer>(premise.size());
+			List<String> values = new ArrayList<String>(premise.size());
+			for(SimpleImmutableEntry<Integer, String> lhs : premise){
+				attributes.add(lhs.getKey());
+				values.add(lhs.getValue());
+			}
+
+			PremiseGroup group = byAttributes.get(attributes);
+			if(group == null){
+				group = new PremiseGroup(Util.convertIntegers(attributes));
+				byAttributes.put(attributes, group);
+			}
+
+			Object key = values.size() == 1 ? values.get(0) : values;
+			List<Rule> rules = group.rules.get(key);
+			if(rules == null){
+				rules = new ArrayList<Rule>(1);
+				group.rules.put(key, rules);
+			}
+			rules.add(new Rule(order++, cfd));
+			size++;
+		}
+
+		groups = new ArrayList<PremiseGroup>(byAttributes.values());
+	}
+
+	/**
+	 * Returns the number of distinct premise attribute sets, i.e. the number of lookups made per row.
+	 * @return number of premise attribute sets
+	 */
+	public int numPremiseGroups(){
+		return groups.size();
+	}
+
+	/**
+	 * Returns the premise groups of the index.
+	 */
+	List<PremiseGroup> groups(){
+		return groups;
+	}
+
+	/**
+	 * Returns all CFDs the index was built from, constant or not, in the order used to report violations.
+	 * @return CFDs
+	 */
+	public List<CFD> getCFDs(){
+		return cfds;
+	}
+
+	/**
+	 * Returns the number of constant CFDs in the index.
+	 * @return size
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Returns the descriptions of the CFDs violated by the instance, in the order of the CFDs.
+	 * @param inst
+	 * @return list of violated CFDs, or null if the instance doesn't violate any CFD
+	 */
+	public List<String> violations(Instance inst){
+		return describe(violatedRules(inst));
+	}
+
+	private List<Rule> violatedRules(Instance inst){
+		List<Rule> violated = null;
+
+		for(PremiseGroup group : groups){
+			List<Rule> rules = group.lookup(inst);
+			if(rules == null) continue;
+
+			for(Rule rule : rules){
+				if(!inst.stringValue(rule.rhsAttribute).equals(rule.rhsValue)){
+					if(violated == null) violated = new ArrayList<Rule>(2);
+					violated.add(rule);
+				}
+			}
+		}
+
+		return violated;
+	}
+
+	/**
+	 * Returns the descriptions of the CFDs violated by a row given as the values of all its attributes,
+	 * in the order of the CFDs.
+	 * @param values: value of every attribute of the row
+	 * @return list of violated CFDs, or null if the row doesn't violate any CFD
+	 */
+	public List<String> violations(String[] values){
+		List<Rule> violated = null;
+
+		for(PremiseGroup group : groups){
+			List<Rule> rules = group.lookup(values);
+			if(rules == null) continue;
+
+			for(Rule rule : rules){
+				if(!values[rule.rhsAttribute].equals(rule.rhsValue)){
+					if(violated == null) violated = new ArrayList<Rule>(2);
+					violated.add(rule);
+				}
+			}
+		}
+
+		return describe(violated);
+	}
+
+	private static List<String> describe(List<Rule> violated){
+		if(violated == null) return null;
+		if(violated.size() > 1) Collections.sort(violated, BY_ORDER);
+
+		List<String> descriptions = new LinkedList<String>();
+		for(Rule rule : violated) descriptions.add(rule.cfd.toString());
+		return descriptions;
+	}
+
+	/**
+	 * Finds and returns a list of tuples that violates the CFDs in the index.
+	 * Gives the same result as scanning every CFD for every tuple.
+	 * @param i
+	 * @return v, violations: Violated instances in weka instances format, and the tuples violating every CFD
+	 */
+	public violatedTuples returnViolatedTuples(Instances i){
+		Instances v = new Instances(i,0);
+
+		//Holds the tuple indexes violating every CFD
+		ViolationSet violations = new ViolationSet(cfds);
+		Report report = Report.get();
+
+		for(int j = 0; j < i.numInstances(); j++){
+			List<Rule> vCFDs = violatedRules(i.instance(j));
+
+			// found violating tuple
+			if(vCFDs != null){
+				for(Rule rule : vCFDs) violations.add(rule.order, j);
+				v.add(i.instance(j));
+				if(report.sample(Report.VIOLATION)) report.write(Report.VIOLATION, Report.VIOLATION_FIELDS, new Object[]{j, Report.rules(describe(vCFDs)), i.instance(j).toString()});
+			}
+		}
+
+		System.out.println("Found: "+ v.numInstances() + " violating tuples.");
+
+		return new violatedTuples(v, violations);
+	}
+}
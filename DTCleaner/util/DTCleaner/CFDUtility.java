@@ -3,9 +3,7 @@ package DTCleaner;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Scanner;
 
 import weka.core.Instances;
@@ -22,6 +20,8 @@ public class CFDUtility {
 	 * 	5="16801"->3="State College"
 	 * 	5="16801"->4="PA"
 	 *  ...
+	 * An unquoted _ is a wildcard matching any value, so the variable CFD 5=_->3=_ (ZIPCode determines City)
+	 * stands for all of the constant CFDs on ZIPCode and City.
 	 * @param filename, e.g "data/CFDslist.txt"
 	 * @return HashMap of CFDs
 	 * @throws FileNotFoundException 
@@ -54,7 +54,7 @@ public class CFDUtility {
 						continue;
 					}
 					
-					premises.add(new SimpleImmutableEntry<Integer,String>(Integer.parseInt(w[0]),Util.removeFirstAndLastChars(w[1])));
+					premises.add(new SimpleImmutableEntry<Integer,String>(Integer.parseInt(w[0]),patternValue(w[1])));
 					
 				}
 				
@@ -67,7 +67,7 @@ public class CFDUtility {
 				}
 				
 				SimpleImmutableEntry<Integer, String> rhsValue = 
-						new SimpleImmutableEntry<Integer,String>(Integer.parseInt(rhs[0]),Util.removeFirstAndLastChars(rhs[1]));
+						new SimpleImmutableEntry<Integer,String>(Integer.parseInt(rhs[0]),patternValue(rhs[1]));
 				
 				CFD newCFD = new CFD(premises, rhsValue);
 				CFDs.add(newCFD);
@@ -82,6 +82,16 @@ public class CFDUtility {
 		return CFDs;
 	}
 	
+	/**
+	 * Returns the value of a CFD cell: the wildcard as is, or a constant without its quotes.
+	 * @param cell
+	 * @return value
+	 */
+	private static String patternValue(String cell){
+		if(cell.equals(CFD.WILDCARD)) return CFD.WILDCARD;
+		return Util.removeFirstAndLastChars(cell);
+	}
+	
 	/**
 	 * Prints a summary of CFDs
 	 * @param CFDs
@@ -122,83 +132,22 @@ public class CFDUtility {
 	 * Finds and returns a list of tuples that violates the CFDs
 	 * @param i
 	 * @param CFDs
-	 * @return v, tupleIDs: Violated instances in weka instances format, and a list of tupleIDs and their FDs that they violate
+	 * @return v, violations: Violated instances in weka instances format, and the tuples violating every CFD
 	 */
 	public static violatedTuples returnViolatedTuples(Instances i, Multiset<CFD> CFDs){
-		Instances v = new Instances(i,0);
+		// index the CFDs by premise so that each tuple is only checked against the CFDs whose premise it matches
+		CFDIndex index = new CFDIndex(CFDs);
+		if(index.size() == CFDs.size()) return index.returnViolatedTuples(i);
 		
-		//Holds tuple index of violated tuples, and the CFD it violates
-		HashMap<Integer, List<String>> tupleID = new HashMap<Integer, List<String>>();
-
-		for(int j = 0; j < i.numInstances(); j++){
-			for(CFD currentCFD : CFDs){
-				//parsing CFD description to String
-				String cfdDesc = currentCFD.CFDToString();
-				
-				LinkedList<SimpleImmutableEntry<Integer, String>> row = new LinkedList<SimpleImmutableEntry<Integer, String>>();
-				for(SimpleImmutableEntry<Integer, String> LHSEntry : currentCFD.getPremise()){
-					row.add(new SimpleImmutableEntry<Integer, String>(LHSEntry.getKey(), i.instance(j).stringValue((LHSEntry.getKey()))));
-				}
-				
-				SimpleImmutableEntry<Integer, String> rowRHSValue = new SimpleImmutableEntry<Integer, String>(currentCFD.getRHS().getKey(), i.instance(j).stringValue(currentCFD.getRHS().getKey()));
-								
-				// found violating tuple
-				if(row.equals(currentCFD.getPremise()) && !rowRHSValue.equals(currentCFD.getRHS())){
-					if(!tupleID.containsKey(j)){
-						List<String> vCFDs = new LinkedList<String>();
-						vCFDs.add(cfdDesc);
-						tupleID.put(j, vCFDs);
-						v.add(i.instance(j));
-						System.out.println(i.instance(j));
-					}else{
-						tupleID.get(j).add(cfdDesc);
-					}
-				}
-			}
-		}
+		// CFDs with wildcards are evaluated on the dictionary encoded table, with one grouping pass per embedded FD
+		EncodedTable table = EncodedTable.fromInstances(i);
+		ViolationSet violations = new EncodedCFDIndex(index, table).returnViolatedTupleIDs();
+		new PatternTableau(CFDs, table).returnViolatedTupleIDs(violations);
 		
-		System.out.println("Found: "+ v.numInstances() + " violating tuples.");
-
-		violatedTuples pair = new violatedTuples(v, tupleID);
-		return pair;
-		/*
-		for(CFD currentCFD : CFDs){
-			SimpleImmutableEntry<Integer, String> CFDRHSValue = currentCFD.getRHS();
-			
-			//parsing CFD to String
-			String cfd = currentCFD.CFDToString();
-			
-			for(int j = 0; j < i.numInstances(); j++){
-				// holds the lhs values from the dataset that match the CFDs premise (lhs)
-				LinkedList<SimpleImmutableEntry<Integer, String>> row = new LinkedList<SimpleImmutableEntry<Integer, String>>();
-				for(SimpleImmutableEntry<Integer, String> entry : currentCFD.getPremise()){
-					row.add(new SimpleImmutableEntry<Integer, String>(entry.getKey(), i.instance(j).stringValue((entry.getKey()))));
-				}
-				
-				SimpleImmutableEntry<Integer, String> rowRHSValue = new SimpleImmutableEntry<Integer, String>(CFDRHSValue.getKey(), i.instance(j).stringValue(CFDRHSValue.getKey()));
-				System.out.println("row lhs: " + row + "  rhs: "+CFDRHSValue);
-				// found violating tuple
-				if(row.equals(currentCFD.getPremise()) && !rowRHSValue.equals(CFDRHSValue)){
-					
-					if(!tupleID.containsKey(j)){
-						List<String> vCFDs = new LinkedList<String>();
-						vCFDs.add(cfd);
-						tupleID.put(j, vCFDs);
-						v.add(i.instance(j));
-
-					}else{
-						tupleID.get(j).add(cfd);
-					} 
-
-				}
-			}		
-		}
-
-		System.out.println("Found: "+ v.numInstances() + " violating tuples.");
-
-		violatedTuples pair = new violatedTuples(v, tupleID);
-		return pair;
-		*/
+		Instances v = new Instances(i,0);
+		for(int j : violations.violatingRows().toArray()) v.add(i.instance(j));
+		
+		return new violatedTuples(v, violations);
 	}
 	
 	/**
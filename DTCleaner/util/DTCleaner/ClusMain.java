@@ -0,0 +1,38 @@
+package DTCleaner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Runs Clus like java -jar lib/Clus.jar <settingFile> does, and prints the peak heap usage of the JVM when it exits
+ * (see ProcessTrainer.setMeasureMemory).
+ */
+public class ClusMain {
+
+	// prefix of the line holding the peak heap usage, in bytes
+	public static final String PEAK_HEAP = "Peak heap usage: ";
+
+	public static void main(String[] args) throws Exception {
+		// Clus calls System.exit on some errors, so the peak is printed on the way out
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				System.out.println(PEAK_HEAP + peakHeapUsage());
+				System.out.flush();
+			}
+		});
+		clus.Clus.main(args);
+	}
+
+	/**
+	 * Returns the highest heap usage of this JVM so far, the sum of the peaks of the heap memory pools
+	 * @return bytes
+	 */
+	public static long peakHeapUsage(){
+		long peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,169 @@
+package DTCleaner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.security.Permission;
+import java.util.Date;
+
+import jeans.util.cmdline.CMDLineArgs;
+import clus.Clus;
+import clus.algo.tdidt.ClusDecisionTree;
+import clus.main.Settings;
+import clus.util.ClusException;
+import clus.util.DebugFile;
+
+/**
+ * Runs Clus through its Java API inside this JVM, the same way as java -jar lib/Clus.jar <settingFile> does,
+ * so that the models after the first don't pay the JVM startup, class loading and JIT warm-up again.
+ *
+ * Clus keeps static state and prints to System.out, so models are built one at a time. While a model is built,
+ * what the building thread prints goes to memory; the other threads keep printing to the console.
+ *
+ * Clus calls System.exit on some errors, which would end the whole run. While a model is built, a SecurityManager
+ * turns an exit of the building thread into an IOException. On a JVM that doesn't allow a SecurityManager to be
+ * set, a warning is printed instead and such an error still ends the run; use a ProcessTrainer there.
+ */
+public class ClusTrainer implements ModelTrainer {
+
+	// guards the static state of Clus and System.out
+	private static final Object LOCK = new Object();
+	private static boolean warned;
+
+	/**
+	 * Thrown in place of System.exit by the thread building a model.
+	 */
+	private static class ExitTrapped extends SecurityException {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		ExitTrapped(int status){
+			super("Clus called System.exit(" + status + ")");
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Traps the exits of a thread, and leaves everything else to the previous SecurityManager, if any.
+	 */
+	private static class ExitGuard extends SecurityManager {
+		private final Thread guarded;
+		private final SecurityManager previous;
+
+		ExitGuard(Thread guarded, SecurityManager previous){
+			this.guarded = guarded;
+			this.previous = previous;
+		}
+
+		public void checkExit(int status){
+			if(Thread.currentThread() == guarded) throw new ExitTrapped(status);
+			if(previous != null) previous.checkExit(status);
+		}
+
+		public void checkPermission(Permission perm){
+			if(previous != null) previous.checkPermission(perm);
+		}
+
+		public void checkPermission(Permission perm, Object context){
+			if(previous != null) previous.checkPermission(perm, context);
+		}
+	}
+
+	/**
+	 * Writes what a thread prints to its own stream, and what the other threads print to the console.
+	 */
+	private static class ThreadOutput extends OutputStream {
+		private final PrintStream console;
+		private final Thread thread;
+		private final OutputStream captured;
+
+		ThreadOutput(PrintStream console, Thread thread, OutputStream captured){
+			this.console = console;
+			this.thread = thread;
+			this.captured = captured;
+		}
+
+		private OutputStream target(){
+			return Thread.currentThread() == thread ? captured : console;
+		}
+
+		public void write(int b) throws IOException {
+			target().write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			target().write(b, off, len);
+		}
+
+		public void flush() throws IOException {
+			target().flush();
+		}
+	}
+
+	public String train(String settingFile) throws IOException {
+		synchronized(LOCK){
+			PrintStream console = System.out;
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			System.setOut(new PrintStream(new ThreadOutput(console, Thread.currentThread(), output), true, "UTF-8"));
+			SecurityManager previous = System.getSecurityManager();
+			boolean guarded = guard(previous);
+			try {
+				run(settingFile);
+			} catch (ClusException e) {
+				throw new IOException("Clus failed on " + settingFile + ": " + e.getMessage() + "\n" + toString(output), e);
+			} catch (ExitTrapped e) {
+				throw new IOException("Clus exited with code " + e.status + " on " + settingFile + ":\n" + toString(output), e);
+			} finally {
+				if(guarded) System.setSecurityManager(previous);
+				System.setOut(console);
+				DebugFile.close();
+			}
+			return toString(output);
+		}
+	}
+
+	/**
+	 * Sets an ExitGuard for the current thread.
+	 * @return false if the JVM doesn't allow it
+	 */
+	private static boolean guard(SecurityManager previous){
+		try {
+			System.setSecurityManager(new ExitGuard(Thread.currentThread(), previous));
+			return true;
+		} catch (UnsupportedOperationException e) {
+			// the JVM was started without -Djava.security.manager=allow
+		} catch (SecurityException e) {
+			// the previous SecurityManager doesn't allow it
+		}
+		if(!warned){
+			System.out.println("Warning: Clus can't be kept from calling System.exit in this JVM, an error in Clus would end the run.");
+			warned = true;
+		}
+		return false;
+	}
+
+	/**
+	 * Same steps as Clus.main for a decision tree without command line options.
+	 */
+	private static void run(String settingFile) throws IOException, ClusException {
+		Clus clus = new Clus();
+		Settings sett = clus.getSettings();
+		CMDLineArgs cargs = new CMDLineArgs(clus);
+		cargs.process(new String[]{settingFile});
+		if(!cargs.allOK()) throw new IOException("Clus couldn't read the arguments: " + settingFile);
+
+		sett.setDate(new Date());
+		sett.setAppName(cargs.getMainArg(0));
+		clus.initSettings(cargs);
+
+		ClusDecisionTree clss = new ClusDecisionTree(clus);
+		clus.initialize(cargs, clss);
+		clus.singleRun(clss);
+	}
+
+	private static String toString(ByteArrayOutputStream output) throws UnsupportedEncodingException {
+		return output.toString("UTF-8");
+	}
+}
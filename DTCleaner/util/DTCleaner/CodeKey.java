@@ -0,0 +1,65 @@
+package DTCleaner;
+
+import java.util.Arrays;
+
+/**
+ * Hash key over a tuple of dictionary codes, e.g. the premise values of a CFD or a whole row.
+ */
+public class CodeKey {
+
+	private int[] codes;
+	private int hash;
+
+	/**
+	 * @param codes the codes of the key. The array is not copied and must not be modified afterwards.
+	 */
+	public CodeKey(int[] codes){
+		this.codes = codes;
+		this.hash = Arrays.hashCode(codes);
+	}
+
+	/**
+	 * Makes an empty key of the given length to be used as a lookup probe through set() and rehash().
+	 * @param length
+	 */
+	CodeKey(int length){
+		this.codes = new int[length];
+	}
+
+	void set(int k, int code){
+		codes[k] = code;
+	}
+
+	void rehash(){
+		hash = Arrays.hashCode(codes);
+	}
+
+	/**
+	 * Returns the code at position k
+	 */
+	public int get(int k){
+		return codes[k];
+	}
+
+	/**
+	 * Returns the number of codes in the key
+	 */
+	public int length(){
+		return codes.length;
+	}
+
+	public int hashCode(){
+		return hash;
+	}
+
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(!(o instanceof CodeKey)) return false;
+		CodeKey other = (CodeKey) o;
+		return hash == other.hash && Arrays.equals(codes, other.codes);
+	}
+
+	public String toString(){
+		return Arrays.toString(codes);
+	}
+}
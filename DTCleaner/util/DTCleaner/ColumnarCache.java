@@ -0,0 +1,351 @@
+package DTCleaner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+/**
+ * Binary, column oriented copy of the datasets, so that a dataset is parsed from ARFF once and then read back in
+ * a few milliseconds.
+ *
+ * The first load() of a dataset parses it and writes its cache file: for every attribute its dictionary and the
+ * codes of its cells, 1, 2 or 4 bytes each depending on the size of the dictionary, followed by a footer holding
+ * the structure of the dataset, the offsets of the columns, the distinct and missing values of every attribute,
+ * and the length and CRC-32 of the ARFF file. Later loads memory-map the cache file, so the columns are copied
+ * from the page cache without going through the heap, and reparse the dataset only if the ARFF file changed.
+ *
+ * Cache files are named after the dataset file: <name>-<hash of its path>.cols. Datasets with attributes other
+ * than numeric, nominal or string, or larger than 2GB, are not cached.
+ */
+public class ColumnarCache {
+
+	private static final int MAGIC = 0x44544343; // "DTCC"
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte NUMERIC = 0;
+	private static final byte NOMINAL = 1;
+	private static final byte STRING = 2;
+
+	private File directory;
+
+	/**
+	 * @param directory: folder holding the cache files, e.g. "exp/datasets/"
+	 */
+	public ColumnarCache(String directory){
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * Reads a dataset from its cache file, or parses it and writes its cache file.
+	 * @param dataInput: The input data set location, e.g. data/hospital.arff
+	 * @return table
+	 * @throws Exception if the dataset couldn't be read
+	 */
+	public EncodedTable load(String dataInput) throws Exception{
+		return load(dataInput, null);
+	}
+
+	/**
+	 * Reads a dataset that shares the dictionaries of reference from its cache file, or parses it and writes its
+	 * cache file.
+	 * @param dataInput: The input data set location, e.g. data/hospital.arff
+	 * @param reference: table to share dictionaries with, or null
+	 * @return table
+	 * @throws Exception if the dataset couldn't be read
+	 */
+	public EncodedTable load(String dataInput, EncodedTable reference) throws Exception{
+		File source = new File(dataInput);
+		File cache = cacheFile(source);
+		long length = source.length();
+		long checksum = length <= Integer.MAX_VALUE ? checksum(source) : -1;
+
+		if(checksum >= 0 && cache.isFile()){
+			try {
+				EncodedTable table = read(cache, length, checksum, reference);
+				if(table != null){
+					System.out.println("Read " + table.numRows() + " tuples from the cache file " + cache.getPath());
+					return table;
+				}
+				System.out.println(dataInput + " changed since it was cached, reading it again..");
+			} catch (IOException e) {
+				System.out.println("Couldn't read the cache file " + cache.getPath() + ", reading " + dataInput + " again: " + e.getMessage());
+			}
+		}
+
+		EncodedTable table = EncodedTable.load(dataInput, reference);
+		if(checksum >= 0){
+			try {
+				if(write(table, cache, length, checksum)) System.out.println("Saved cache file: " + cache.getPath());
+			} catch (IOException e) {
+				System.out.println("Couldn't write the cache file " + cache.getPath() + ": " + e.getMessage());
+			}
+		}
+		return table;
+	}
+
+	private File cacheFile(File source){
+		String path = source.getAbsolutePath();
+		return new File(directory, source.getName() + "-" + Integer.toHexString(path.hashCode()) + ".cols");
+	}
+
+	/**
+	 * Returns the CRC-32 of a file, read through a mapping of the file.
+	 */
+	private static long checksum(File file) throws IOException{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			CRC32 crc = new CRC32();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			byte[] block = new byte[1 << 16];
+			while(buffer.hasRemaining()){
+				int n = Math.min(block.length, buffer.remaining());
+				buffer.get(block, 0, n);
+				crc.update(block, 0, n);
+			}
+			return crc.getValue();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of a code of a dictionary of the given size. Codes are stored plus one, so that a
+	 * missing value is 0, except in 4 bytes.
+	 */
+	private static int width(int size){
+		if(size < 0xFF) return 1;
+		if(size < 0xFFFF) return 2;
+		return 4;
+	}
+
+	/**
+	 * Writes the cache file of a table.
+	 * @return false if the table can't be cached
+	 */
+	private boolean write(EncodedTable table, File cache, long length, long checksum) throws IOException{
+		Instances header = table.getHeader();
+		int numAttributes = table.numAttributes();
+		int numRows = table.numRows();
+		byte[] types = new byte[numAttributes];
+		for(int att = 0; att < numAttributes; att++){
+			Attribute attribute = header.attribute(att);
+			if(attribute.isNominal()){
+				// the first codes of a nominal attribute are the values of the header, see EncodedTable
+				for(int k = 0; k < attribute.numValues(); k++) if(!attribute.value(k).equals(table.dictionary(att).label(k))) return false;
+				types[att] = NOMINAL;
+			}
+			else if(attribute.isString()) types[att] = STRING;
+			else if(attribute.type() == Attribute.NUMERIC) types[att] = NUMERIC;
+			else return false;
+		}
+
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Couldn't create " + directory);
+		File tmp = File.createTempFile("cache", ".tmp", directory);
+		long[] dictionaryOffsets = new long[numAttributes];
+		long[] codeOffsets = new long[numAttributes];
+		int[] sizes = new int[numAttributes];
+		int[] missing = new int[numAttributes];
+
+		// DataOutputStream counts in an int that stops at 2GB, past which the file couldn't be mapped anyway
+		boolean fits = true;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			for(int att = 0; att < numAttributes; att++){
+				ValueDictionary dictionary = table.dictionary(att);
+				sizes[att] = dictionary.size();
+				dictionaryOffsets[att] = out.size();
+				for(int code = 0; code < sizes[att]; code++) writeString(out, dictionary.label(code));
+
+				codeOffsets[att] = out.size();
+				int[] column = table.column(att);
+				int width = width(sizes[att]);
+				for(int row = 0; row < numRows; row++){
+					int code = column[row];
+					if(code == EncodedTable.MISSING) missing[att]++;
+					if(width == 1) out.writeByte(code + 1);
+					else if(width == 2) out.writeShort(code + 1);
+					else out.writeInt(code);
+				}
+				fits &= out.size() < Integer.MAX_VALUE;
+			}
+
+			long footer = out.size();
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeLong(checksum);
+			writeString(out, header.relationName());
+			out.writeInt(numRows);
+			out.writeInt(numAttributes);
+			for(int att = 0; att < numAttributes; att++){
+				Attribute attribute = header.attribute(att);
+				writeString(out, attribute.name());
+				out.writeByte(types[att]);
+				out.writeInt(types[att] == NOMINAL ? attribute.numValues() : 0);
+				out.writeInt(sizes[att]);
+				out.writeInt(missing[att]);
+				out.writeLong(dictionaryOffsets[att]);
+				out.writeLong(codeOffsets[att]);
+			}
+			out.writeLong(footer);
+			out.writeInt(MAGIC);
+			fits &= out.size() < Integer.MAX_VALUE;
+		} finally {
+			out.close();
+		}
+		if(!fits){
+			if(!tmp.delete()) tmp.deleteOnExit();
+			return false;
+		}
+
+		if(cache.exists() && !cache.delete()){
+			if(!tmp.delete()) tmp.deleteOnExit();
+			throw new IOException("Couldn't replace " + cache);
+		}
+		if(!tmp.renameTo(cache)){
+			if(!tmp.delete()) tmp.deleteOnExit();
+			throw new IOException("Couldn't move " + tmp + " to " + cache);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a table from its cache file.
+	 * @return table, or null if the dataset file changed since the cache file was written
+	 * @throws IOException if the cache file couldn't be read or is corrupt
+	 */
+	private EncodedTable read(File cache, long length, long checksum, EncodedTable reference) throws IOException{
+		RandomAccessFile in = new RandomAccessFile(cache, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			if(channel.size() < 12 || channel.size() > Integer.MAX_VALUE) throw new IOException("Not a cache file");
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int end = buffer.limit();
+			if(buffer.getInt(end - 4) != MAGIC) throw new IOException("Not a cache file");
+			long footer = buffer.getLong(end - 12);
+			if(footer < 0 || footer > end - 12) throw new IOException("Corrupt footer");
+
+			buffer.position((int) footer);
+			if(buffer.getInt() != VERSION) return null;
+			if(buffer.getLong() != length || buffer.getLong() != checksum) return null;
+
+			String relation = readString(buffer);
+			int numRows = buffer.getInt();
+			int numAttributes = buffer.getInt();
+			if(numRows < 0 || numAttributes < 0) throw new IOException("Corrupt footer");
+			String[] names = new String[numAttributes];
+			byte[] types = new byte[numAttributes];
+			int[] numValues = new int[numAttributes];
+			int[] sizes = new int[numAttributes];
+			int[] missing = new int[numAttributes];
+			long[] dictionaryOffsets = new long[numAttributes];
+			long[] codeOffsets = new long[numAttributes];
+			for(int att = 0; att < numAttributes; att++){
+				names[att] = readString(buffer);
+				types[att] = buffer.get();
+				numValues[att] = buffer.getInt();
+				sizes[att] = buffer.getInt();
+				missing[att] = buffer.getInt();
+				dictionaryOffsets[att] = buffer.getLong();
+				codeOffsets[att] = buffer.getLong();
+				if(codeOffsets[att] < 0 || codeOffsets[att] + (long) numRows * width(sizes[att]) > footer) throw new IOException("Corrupt footer");
+			}
+
+			// the dictionaries, and the structure of the dataset built from the values of the nominal attributes
+			String[][] labels = new String[numAttributes][];
+			FastVector attributes = new FastVector(numAttributes);
+			for(int att = 0; att < numAttributes; att++){
+				buffer.position((int) dictionaryOffsets[att]);
+				labels[att] = new String[sizes[att]];
+				for(int code = 0; code < sizes[att]; code++) labels[att][code] = readString(buffer);
+
+				if(types[att] == NOMINAL){
+					FastVector values = new FastVector(numValues[att]);
+					for(int k = 0; k < numValues[att]; k++) values.addElement(labels[att][k]);
+					attributes.addElement(new Attribute(names[att], values));
+				}
+				else if(types[att] == STRING) attributes.addElement(new Attribute(names[att], (FastVector) null));
+				else attributes.addElement(new Attribute(names[att]));
+			}
+			EncodedTable table = new EncodedTable(new Instances(relation, attributes, 0), reference);
+
+			int[][] columns = new int[numAttributes][];
+			for(int att = 0; att < numAttributes; att++){
+				// codes of the cache file to codes of the table, the same unless the dictionaries are shared
+				int[] codes = new int[sizes[att]];
+				boolean same = true;
+				for(int code = 0; code < codes.length; code++){
+					codes[code] = table.dictionary(att).intern(labels[att][code]);
+					same &= codes[code] == code;
+				}
+				columns[att] = readColumn(buffer, (int) codeOffsets[att], numRows, sizes[att], codes, same, missing[att]);
+			}
+			table.setColumns(columns, numRows);
+			return table;
+		} catch (RuntimeException e) {
+			// an offset or a length out of the file
+			throw new IOException("Corrupt cache file", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes the codes of a column.
+	 * @param codes: code in the table of every code of the cache file
+	 * @param same: true if codes maps every code to itself
+	 * @param missing: number of missing values of the column, checked against the codes
+	 */
+	private static int[] readColumn(ByteBuffer buffer, int offset, int numRows, int size, int[] codes, boolean same, int missing) throws IOException{
+		int[] column = new int[numRows];
+		int width = width(size);
+		buffer.position(offset);
+		if(width == 4) buffer.asIntBuffer().get(column);
+		else if(width == 2){
+			for(int row = 0; row < numRows; row++) column[row] = (buffer.getShort(offset + 2 * row) & 0xFFFF) - 1;
+		}
+		else{
+			for(int row = 0; row < numRows; row++) column[row] = (buffer.get(offset + row) & 0xFF) - 1;
+		}
+
+		int found = 0;
+		for(int row = 0; row < numRows; row++){
+			int code = column[row];
+			if(code == EncodedTable.MISSING){
+				found++;
+				continue;
+			}
+			if(code < 0 || code >= size) throw new IOException("Code " + code + " out of the dictionary");
+			if(!same) column[row] = codes[code];
+		}
+		if(found != missing) throw new IOException("Expected " + missing + " missing values, found " + found);
+		return column;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException{
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException{
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining()) throw new IOException("Corrupt string");
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
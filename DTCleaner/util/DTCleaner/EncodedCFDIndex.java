@@ -0,0 +1,244 @@
+package DTCleaner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CFD index bound to the dictionaries of an EncodedTable.
+ * The CFD constants are turned into codes once when the index is built, so detection only compares ints.
+ * Premises over a single attribute are looked up directly by code in an array, premises over several
+ * attributes through a CodeKey.
+ */
+public class EncodedCFDIndex {
+
+	private EncodedTable table;
+	private List<Group> groups;
+	// all CFDs, the order of a rule is its index in this list
+	private List<CFD> cfds;
+
+	/**
+	 * A single CFD with its RHS constant encoded.
+	 */
+	static class Rule {
+		final int order;
+		final int rhsAttribute;
+		final int rhsCode;
+		final CFD cfd;
+
+		Rule(CFDIndex.Rule rule, int rhsCode){
+			this.order = rule.order;
+			this.rhsAttribute = rule.rhsAttribute;
+			this.rhsCode = rhsCode;
+			this.cfd = rule.cfd;
+		}
+	}
+
+	/**
+	 * CFDs sharing the same premise attributes, keyed by their encoded premise values.
+	 */
+	static class Group {
+		final int[] attributes;
+		// used when there is a single premise attribute: rules by premise code
+		ArrayList<List<Rule>> byCode;
+		// used when there are several premise attributes
+		HashMap<CodeKey, List<Rule>> byKey;
+
+		Group(int[] attributes){
+			this.attributes = attributes;
+		}
+
+		/**
+		 * Returns the rules whose premise matches the row, or null if none.
+		 * @param probe: scratch key of the same length as attributes, only used for several premise attributes
+		 */
+		List<Rule> lookup(EncodedTable t, int row, CodeKey probe){
+			if(byCode != null){
+				int code = t.code(row, attributes[0]);
+				return code >= 0 && code < byCode.size() ? byCode.get(code) : null;
+			}
+
+			for(int k = 0; k < attributes.length; k++) probe.set(k, t.code(row, attributes[k]));
+			probe.rehash();
+			return byKey.get(probe);
+		}
+	}
+
+	private static final Comparator<Rule> BY_ORDER = new Comparator<Rule>() {
+		public int compare(Rule a, Rule b) {
+			return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Encodes the CFDs of index against the dictionaries of table.
+	 * Constants that don't occur in the table are added to its dictionaries.
+	 * @param index
+	 * @param table
+	 */
+	public EncodedCFDIndex(CFDIndex index, EncodedTable table){
+		this.table = table;
+		this.groups = new ArrayList<Group>();
+		this.cfds = index.getCFDs();
+
+		for(CFDIndex.PremiseGroup premiseGroup : index.groups()){
+			int[] attributes = premiseGroup.attributes;
+			Group group = new Group(attributes);
+
+			HashMap<CodeKey, List<Rule>> byKey = new HashMap<CodeKey, List<Rule>>();
+			for(Map.Entry<Object, List<CFDIndex.Rule>> entry : premiseGroup.rules.entrySet()){
+				int[] premise = new int[attributes.length];
+				if(attributes.length == 1){
+					premise[0] = table.dictionary(attributes[0]).intern((String) entry.getKey());
+				}else{
+					@SuppressWarnings("unchecked")
+					List<String> values = (List<String>) entry.getKey();
+					for(int k = 0; k < attributes.length; k++) premise[k] = table.dictionary(attributes[k]).intern(values.get(k));
+				}
+
+				List<Rule> rules = new ArrayList<Rule>(entry.getValue().size());
+				for(CFDIndex.Rule rule : entry.getValue()){
+					rules.add(new Rule(rule, table.dictionary(rule.rhsAttribute).intern(rule.rhsValue)));
+				}
+				byKey.put(new CodeKey(premise), rules);
+			}
+
+			if(attributes.length == 1){
+				int size = table.dictionary(attributes[0]).size();
+				group.byCode = new ArrayList<List<Rule>>(Collections.<List<Rule>>nCopies(size, null));
+				for(Map.Entry<CodeKey, List<Rule>> entry : byKey.entrySet()){
+					int code = entry.getKey().get(0);
+					if(code >= 0) group.byCode.set(code, entry.getValue());
+				}
+			}else{
+				group.byKey = byKey;
+			}
+
+			groups.add(group);
+		}
+	}
+
+	/**
+	 * Returns the table the index is bound to.
+	 */
+	public EncodedTable getTable(){
+		return table;
+	}
+
+	/**
+	 * Returns an empty ViolationSet over the CFDs of the index.
+	 */
+	public ViolationSet newViolationSet(){
+		return new ViolationSet(cfds);
+	}
+
+	/**
+	 * Returns the descriptions of the CFDs violated by a row, in the order of the CFDs.
+	 * @param row
+	 * @return list of violated CFDs, or null if the row doesn't violate any CFD
+	 */
+	public List<String> violations(int row){
+		return violations(table, row, probes());
+	}
+
+	/**
+	 * Same as violations(row) for a row of another table sharing the dictionaries of the bound table.
+	 * @param t: table sharing the dictionaries of the bound table
+	 * @param row
+	 * @param probes: scratch keys from probes()
+	 */
+	List<String> violations(EncodedTable t, int row, CodeKey[] probes){
+		return describe(violatedRules(t, row, probes));
+	}
+
+	private static List<String> describe(List<Rule> violated){
+		if(violated == null) return null;
+
+		List<String> descriptions = new LinkedList<String>();
+		for(Rule rule : violated) descriptions.add(rule.cfd.toString());
+		return descriptions;
+	}
+
+	/**
+	 * Adds the CFDs violated by a row to violations.
+	 * @param t: table sharing the dictionaries of the bound table
+	 * @param row
+	 * @param probes: scratch keys from probes()
+	 * @param violations: from newViolationSet()
+	 * @return true if the row violates a CFD
+	 */
+	boolean addViolations(EncodedTable t, int row, CodeKey[] probes, ViolationSet violations){
+		List<Rule> violated = violatedRules(t, row, probes);
+		if(violated == null) return false;
+
+		for(Rule rule : violated) violations.add(rule.order, row);
+		return true;
+	}
+
+	private List<Rule> violatedRules(EncodedTable t, int row, CodeKey[] probes){
+		List<Rule> violated = null;
+
+		for(int g = 0; g < groups.size(); g++){
+			List<Rule> rules = groups.get(g).lookup(t, row, probes[g]);
+			if(rules == null) continue;
+
+			for(Rule rule : rules){
+				if(t.code(row, rule.rhsAttribute) != rule.rhsCode){
+					if(violated == null) violated = new ArrayList<Rule>(2);
+					violated.add(rule);
+				}
+			}
+		}
+
+		if(violated != null && violated.size() > 1) Collections.sort(violated, BY_ORDER);
+		return violated;
+	}
+
+	/**
+	 * Returns one scratch lookup key per group. Each thread scanning the table needs its own.
+	 */
+	CodeKey[] probes(){
+		CodeKey[] probes = new CodeKey[groups.size()];
+		for(int g = 0; g < probes.length; g++){
+			if(groups.get(g).byKey != null) probes[g] = new CodeKey(groups.get(g).attributes.length);
+		}
+		return probes;
+	}
+
+	/**
+	 * Finds the tuples of the bound table that violate the CFDs.
+	 * @return the tuples violating every CFD
+	 */
+	public ViolationSet returnViolatedTupleIDs(){
+		ViolationSet violations = newViolationSet();
+		CodeKey[] probes = probes();
+		Report report = Report.get();
+		int count = 0;
+
+		for(int j = 0; j < table.numRows(); j++){
+			List<Rule> violated = violatedRules(table, j, probes);
+			// found violating tuple
+			if(violated != null){
+				for(Rule rule : violated) violations.add(rule.order, j);
+				count++;
+				if(report.sample(Report.VIOLATION)) report.write(Report.VIOLATION, Report.VIOLATION_FIELDS, new Object[]{j, Report.rules(describe(violated)), table.rowToString(j)});
+			}
+		}
+
+		System.out.println("Found: "+ count + " violating tuples.");
+		return violations;
+	}
+
+	/**
+	 * Finds the tuples of the bound table that violate the CFDs.
+	 * @return v, violations: Violated instances in weka instances format, and the tuples violating every CFD
+	 */
+	public violatedTuples returnViolatedTuples(){
+		ViolationSet violations = returnViolatedTupleIDs();
+		return new violatedTuples(table.toInstances(violations.violatingRows().toArray()), violations);
+	}
+}
@@ -0,0 +1,382 @@
+package DTCleaner;
+
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Dictionary encoded, column oriented table.
+ * Every cell is stored as an int code into the dictionary of its column, so comparing cells
+ * is an int comparison and a cell takes 4 bytes instead of a boxed double plus string lookups.
+ * The table is converted back to weka Instances only where Weka/Clus need it, see toInstances().
+ */
+public class EncodedTable {
+
+	// code of a missing value
+	public static final int MISSING = -1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// structure of the dataset (no instances)
+	private Instances header;
+	// one dictionary per attribute
+	private ValueDictionary[] dictionaries;
+	// for nominal attributes, maps the index of a value in the header to its code. null for other attributes.
+	private int[][] nominalCodes;
+	// columns[att][row] holds the code of the cell
+	private int[][] columns;
+	private int numRows;
+	// an instance of the dataset, copied when converting rows back to weka instances
+	private Instance template;
+
+	/**
+	 * Makes an empty table with its own dictionaries.
+	 * @param header: structure of the dataset
+	 */
+	public EncodedTable(Instances header){
+		this(header, null);
+	}
+
+	/**
+	 * Makes an empty table. If reference is given the table shares its dictionaries, so equal values
+	 * have equal codes in both tables.
+	 * @param header: structure of the dataset
+	 * @param reference: table to share dictionaries with, or null
+	 */
+	public EncodedTable(Instances header, EncodedTable reference){
+		this.header = new Instances(header, 0);
+
+		int numAttributes = header.numAttributes();
+		if(reference != null && reference.numAttributes() != numAttributes)
+			throw new IllegalArgumentException("Reference table has " + reference.numAttributes() + " attributes, expected " + numAttributes);
+
+		dictionaries = new ValueDictionary[numAttributes];
+		nominalCodes = new int[numAttributes][];
+		columns = new int[numAttributes][INITIAL_CAPACITY];
+
+		for(int att = 0; att < numAttributes; att++){
+			Attribute attribute = header.attribute(att);
+			dictionaries[att] = reference != null ? reference.dictionaries[att] : new ValueDictionary(attribute.isNumeric());
+
+			if(attribute.isNominal()){
+				// with its own dictionary, the codes of a nominal attribute are the indexes of the values in the header
+				nominalCodes[att] = new int[attribute.numValues()];
+				for(int k = 0; k < attribute.numValues(); k++) nominalCodes[att][k] = dictionaries[att].intern(attribute.value(k));
+			}
+		}
+	}
+
+	/**
+	 * Makes an empty table with the same structure and dictionaries as table.
+	 */
+	private EncodedTable(EncodedTable table, int capacity){
+		header = table.header;
+		dictionaries = table.dictionaries;
+		nominalCodes = table.nominalCodes;
+		template = table.template;
+		columns = new int[dictionaries.length][Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Reads a dataset row by row into a new table. The whole dataset is never held as weka Instances.
+	 * @param dataInput: The input data set location, e.g. data/hospital.arff
+	 * @return table
+	 * @throws Exception
+	 */
+	public static EncodedTable load(String dataInput) throws Exception{
+		return load(dataInput, null);
+	}
+
+	/**
+	 * Reads a dataset row by row into a new table that shares the dictionaries of reference.
+	 * @param dataInput: The input data set location, e.g. data/hospital.arff
+	 * @param reference: table to share dictionaries with, or null
+	 * @return table
+	 * @throws Exception
+	 */
+	public static EncodedTable load(String dataInput, EncodedTable reference) throws Exception{
+		DataSource source = new DataSource(dataInput);
+		Instances structure = source.getStructure();
+
+		EncodedTable table = new EncodedTable(structure, reference);
+		while(source.hasMoreElements(structure)){
+			table.add(source.nextElement(structure));
+		}
+		return table;
+	}
+
+	/**
+	 * Encodes weka instances into a new table.
+	 * @param i
+	 * @return table
+	 */
+	public static EncodedTable fromInstances(Instances i){
+		EncodedTable table = new EncodedTable(i);
+		for(int j = 0; j < i.numInstances(); j++) table.add(i.instance(j));
+		return table;
+	}
+
+	/**
+	 * Appends an instance to the table.
+	 * @param inst
+	 * @return index of the new row
+	 */
+	public int add(Instance inst){
+		ensureCapacity(numRows + 1);
+		if(template == null) template = (Instance) inst.copy();
+
+		for(int att = 0; att < columns.length; att++){
+			columns[att][numRows] = encode(inst, att);
+		}
+		return numRows++;
+	}
+
+	/**
+	 * Appends a row of codes to the table.
+	 * @param codes
+	 * @return index of the new row
+	 */
+	public int add(int[] codes){
+		ensureCapacity(numRows + 1);
+		for(int att = 0; att < columns.length; att++) columns[att][numRows] = codes[att];
+		return numRows++;
+	}
+
+	private int encode(Instance inst, int att){
+		if(inst.isMissing(att)) return MISSING;
+
+		Attribute attribute = header.attribute(att);
+		if(attribute.isNominal()) return nominalCodes[att][(int) inst.value(att)];
+		if(attribute.isNumeric()) return dictionaries[att].intern(inst.value(att));
+		return dictionaries[att].intern(inst.stringValue(att));
+	}
+
+	private void ensureCapacity(int capacity){
+		if(columns.length == 0 || capacity <= columns[0].length) return;
+
+		int newCapacity = Math.max(capacity, columns[0].length + (columns[0].length >> 1));
+		for(int att = 0; att < columns.length; att++) columns[att] = Arrays.copyOf(columns[att], newCapacity);
+	}
+
+	/**
+	 * Replaces the rows of the table by whole columns, e.g. read from a ColumnarCache file.
+	 * @param columns: codes of every attribute into the dictionaries of the table
+	 * @param numRows: number of rows, the length of the columns at least
+	 */
+	void setColumns(int[][] columns, int numRows){
+		if(columns.length != this.columns.length) throw new IllegalArgumentException("Expected " + this.columns.length + " columns");
+		for(int[] column : columns) if(column.length < numRows) throw new IllegalArgumentException("Expected " + numRows + " rows");
+		this.columns = columns;
+		this.numRows = numRows;
+	}
+
+	/**
+	 * Removes every row, keeping the dictionaries and the allocated columns.
+	 */
+	public void clear(){
+		numRows = 0;
+	}
+
+	/**
+	 * Returns the number of rows
+	 */
+	public int numRows(){
+		return numRows;
+	}
+
+	/**
+	 * Returns the number of attributes
+	 */
+	public int numAttributes(){
+		return columns.length;
+	}
+
+	/**
+	 * Returns the structure of the dataset (no instances)
+	 */
+	public Instances getHeader(){
+		return header;
+	}
+
+	/**
+	 * Returns the dictionary of an attribute
+	 */
+	public ValueDictionary dictionary(int att){
+		return dictionaries[att];
+	}
+
+	/**
+	 * Returns the code of a cell
+	 */
+	public int code(int row, int att){
+		return columns[att][row];
+	}
+
+	/**
+	 * Returns the backing array of a column. Only the first numRows() entries are valid.
+	 * Meant for tight loops over a single attribute, the array must not be modified.
+	 */
+	public int[] column(int att){
+		return columns[att];
+	}
+
+	/**
+	 * Sets the code of a cell
+	 */
+	public void setCode(int row, int att, int code){
+		columns[att][row] = code;
+	}
+
+	/**
+	 * Sets a cell to be "missing".
+	 */
+	public void setMissing(int row, int att){
+		columns[att][row] = MISSING;
+	}
+
+	/**
+	 * Returns the value of a cell, "?" if missing.
+	 */
+	public String label(int row, int att){
+		return dictionaries[att].label(columns[att][row]);
+	}
+
+	/**
+	 * Returns the codes of a row as a new array.
+	 */
+	public int[] row(int row){
+		int[] codes = new int[columns.length];
+		for(int att = 0; att < columns.length; att++) codes[att] = columns[att][row];
+		return codes;
+	}
+
+	/**
+	 * Makes a new table holding the given rows, in the given order.
+	 * The new table shares the dictionaries of this table.
+	 * @param rows: indexes of the rows
+	 * @return table
+	 */
+	public EncodedTable select(int[] rows){
+		EncodedTable selected = new EncodedTable(this, rows.length);
+		for(int att = 0; att < columns.length; att++){
+			int[] from = columns[att];
+			int[] to = selected.columns[att];
+			for(int k = 0; k < rows.length; k++) to[k] = from[rows[k]];
+		}
+		selected.numRows = rows.length;
+		return selected;
+	}
+
+	/**
+	 * Makes a new table from parts of a table, the inverse of select(): row k of parts[p] becomes row ids[p][k].
+	 * The new table shares the dictionaries of the parts.
+	 * @param parts: tables sharing their dictionaries
+	 * @param ids: row of the new table of every row of every part. Together they must cover every row once.
+	 * @return table
+	 */
+	public static EncodedTable merge(EncodedTable[] parts, int[][] ids){
+		int numRows = 0;
+		for(int p = 0; p < parts.length; p++){
+			if(parts[p].dictionaries != parts[0].dictionaries && !Arrays.equals(parts[p].dictionaries, parts[0].dictionaries))
+				throw new IllegalArgumentException("The parts don't share their dictionaries");
+			if(ids[p].length != parts[p].numRows) throw new IllegalArgumentException("Expected an id per row of part " + p);
+			numRows += ids[p].length;
+		}
+
+		EncodedTable merged = new EncodedTable(parts[0], numRows);
+		for(int att = 0; att < merged.columns.length; att++){
+			int[] to = merged.columns[att];
+			for(int p = 0; p < parts.length; p++){
+				int[] from = parts[p].columns[att];
+				int[] rows = ids[p];
+				for(int k = 0; k < rows.length; k++) to[rows[k]] = from[k];
+			}
+		}
+		merged.numRows = numRows;
+		return merged;
+	}
+
+	/**
+	 * Converts the whole table to weka instances.
+	 * @return instances
+	 */
+	public Instances toInstances(){
+		int[] rows = new int[numRows];
+		for(int j = 0; j < numRows; j++) rows[j] = j;
+		return toInstances(rows);
+	}
+
+	/**
+	 * Converts the given rows to weka instances.
+	 * @param rows: indexes of the rows
+	 * @return instances
+	 */
+	public Instances toInstances(int[] rows){
+		Instances i = new Instances(header, rows.length);
+
+		for(int row : rows){
+			// a table read from a cache file has no instance to copy
+			Instance inst = template != null ? (Instance) template.copy() : new Instance(columns.length);
+			inst.setDataset(i);
+
+			for(int att = 0; att < columns.length; att++){
+				int code = columns[att][row];
+				if(code == MISSING){
+					inst.setMissing(att);
+					continue;
+				}
+
+				Attribute attribute = header.attribute(att);
+				if(attribute.isNumeric()) inst.setValue(att, Double.parseDouble(dictionaries[att].label(code)));
+				else if(attribute.isNominal() && code < nominalCodes[att].length && nominalCodes[att][code] == code) inst.setValue(att, code);
+				else inst.setValue(att, dictionaries[att].label(code));
+			}
+			i.add(inst);
+		}
+		return i;
+	}
+
+	/**
+	 * Returns a row in the same format as weka's Instance.toString()
+	 */
+	public String rowToString(int row){
+		StringBuilder str = new StringBuilder();
+		for(int att = 0; att < columns.length; att++){
+			int code = columns[att][row];
+			if(code == MISSING) str.append("?");
+			else if(dictionaries[att].isNumeric()) str.append(dictionaries[att].label(code));
+			else str.append(Utils.quote(dictionaries[att].label(code)));
+			str.append(",");
+		}
+		// delete last ","
+		if(str.length() > 0) str.deleteCharAt(str.length()-1);
+		return str.toString();
+	}
+
+	/**
+	 * Returns a summary of the table
+	 * @return String summary
+	 */
+	public String toSummaryString(){
+		StringBuilder summary = new StringBuilder();
+		summary.append("Relation Name:  " + header.relationName() + "\n");
+		summary.append("Num Instances:  " + numRows + "\n");
+		summary.append("Num Attributes: " + columns.length + "\n\n");
+
+		summary.append(Utils.padLeft("", 5) + Utils.padRight("Name", 25) + Utils.padLeft("Distinct", 10) + Utils.padLeft("Missing", 10) + "\n");
+		for(int att = 0; att < columns.length; att++){
+			int missing = 0;
+			for(int j = 0; j < numRows; j++) if(columns[att][j] == MISSING) missing++;
+
+			summary.append(Utils.padLeft("" + (att + 1), 4) + " ");
+			summary.append(Utils.padRight(header.attribute(att).name(), 25));
+			summary.append(Utils.padLeft("" + dictionaries[att].size(), 10));
+			summary.append(Utils.padLeft("" + missing, 10) + "\n");
+		}
+		return summary.toString();
+	}
+}
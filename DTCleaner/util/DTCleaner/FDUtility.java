@@ -3,10 +3,8 @@ import weka.core.Utils;
 
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +37,7 @@ public class FDUtility {
 	 * Syntax of file:
 	 * 	1->2,3,4
 	 *  5->7
+	 *  0,5->6
 	 *  ...
 	 * @param filename, e.g "data/FDslist.txt"
 	 * @return HashMap of FDs
@@ -86,7 +85,7 @@ public class FDUtility {
 		for(String premise : FDs.keySet()){
 			StringBuilder fd = new StringBuilder();
 			fd.append(Utils.padLeft("" + (counter++), 4)+"   ");
-			fd.append(i.attribute(Integer.parseInt(premise)).name());
+			fd.append(attributeNames(i, premise));
 			fd.append(" -> ");
 			for(String RHS : FDs.get(premise)){
 				fd.append(i.attribute(Integer.parseInt(RHS)).name()+", ");
@@ -113,115 +112,127 @@ public class FDUtility {
 	 * @return true if dataset satisfies all FDs, otherwise false.
 	 */
 	public static boolean checkFDSatisfaction(Instances i,	HashMap<String, String[]> FDs) {		
-		HashMap<Object, List<Object>> map = new HashMap<Object,List<Object>>();
-		
-		System.out.println("\nChecking FD sataisfactian...\n");
-		
-		for(String premiseID : FDs.keySet()){
-			String [] rhsIDs = FDs.get(premiseID);
-			for(int j = 0; j < i.numInstances(); j++){
-				List<Object> rhsValues = new LinkedList<Object>();
-				for(int k = 0; k < rhsIDs.length; k++) rhsValues.add(i.instance(j).toString(Integer.parseInt(rhsIDs[k])));
-				String premise = i.instance(j).toString(Integer.parseInt(premiseID));
-				
-				if(map.containsKey(premise) && !map.get(premise).equals(rhsValues)){
-					
-					System.out.println("The following pair violate an FD:");
-					System.out.println(premise + " " + rhsValues.toString());
-					System.out.println(premise + " " + map.get(premise).toString()+ "\n");
-					
-					return false;
-				}
-				else{
-					map.put(premise, Collections.unmodifiableList(rhsValues));
-				}
-			}
+		ParallelDetector detector = new ParallelDetector(1);
+		try {
+			return detector.checkFDSatisfaction(EncodedTable.fromInstances(i), FDs);
+		} finally {
+			detector.shutdown();
 		}
-		return true;
 	}
 	
 	/**
 	 * Finds and returns a list of tuples that violates the FDs
 	 * @param i
 	 * @param FDs
-	 * @return v, tupleIDs: Violated instances in weka instances format, and a list of tupleIDs and their FDs that they violate
+	 * @return v, violations: Violated instances in weka instances format, and the tuples violating every FD
 	 */
 	public static violatedTuples returnViolatedTuples(Instances i, HashMap<String, String[]> FDs){
-		Instances v = new Instances(i,0);
+		return returnViolatedTuples(EncodedTable.fromInstances(i), FDs);
+	}
+	
+	/**
+	 * Finds and returns a list of tuples that violates the FDs.
+	 * The rows are partitioned by premise value (see StrippedPartition), and every tuple of a class whose tuples
+	 * disagree on the RHS values violates the FD.
+	 * @param t
+	 * @param FDs
+	 * @return v, violations: Violated instances in weka instances format, and the tuples violating every FD
+	 */
+	public static violatedTuples returnViolatedTuples(EncodedTable t, HashMap<String, String[]> FDs){
+		//Holds the tuple indexes violating every FD
+		ViolationSet violations = new ViolationSet(FDRules(t.getHeader(), FDs));
+		
+		// partitions by a single attribute, shared by the FDs with that attribute in their premise
+		HashMap<Integer, StrippedPartition> partitions = new HashMap<Integer, StrippedPartition>();
 		
-		// Key is the premiseValue, and the value is an Entry containing tupleID values and RHS values.
-		HashMap<String, SimpleImmutableEntry<List<Integer>,List<Object>>> map = new HashMap<String, SimpleImmutableEntry<List<Integer>,List<Object>>>();
-
-		//Holds tuple index of violated tuples, and the FD it violates
-		HashMap<Integer, List<String>> tupleID = new HashMap<Integer, List<String>>();
-				
 		System.out.println("\nFinding violated tuples...\n");
 		
+		int rule = 0;
 		for(String premiseID : FDs.keySet()){
-			String [] rhsIDs = FDs.get(premiseID);
-			
-			// processing FD
-			String fd = premiseID+"->";
-			String rhs = "";
-			for(String r : rhsIDs) rhs = r + ",";
-			rhs = rhs.substring(0, rhs.length()-1); // delete last ','
-			fd = fd+rhs; // merge
-			fd = FDtoString(i, fd);
-			
-			for(int j = 0; j < i.numInstances(); j++){
-				
-				// get RHS values
-				List<Object> rhsValues = new LinkedList<Object>();
-				for(int k = 0; k < rhsIDs.length; k++) rhsValues.add(i.instance(j).toString(Integer.parseInt(rhsIDs[k])));
-				
-				// premiseValue
-				String premiseValue = i.instance(j).toString(Integer.parseInt(premiseID));
-				
-				if(map.containsKey(premiseValue) && !map.get(premiseValue).getValue().equals(rhsValues)){
-					List<Integer> tupleIndexes = map.get(premiseValue).getKey();
-
-					// Add index to list of violated tuples and the FD it violated
-					// and add the tuple to the list of violated tuples
-					
-					// Here we take care of the ones already in the map
-					for(int index : tupleIndexes){
-						if(!tupleID.containsKey(index)){
-							List<String> vFDs = new LinkedList<String>();
-							vFDs.add(fd);
-							tupleID.put(index, vFDs);
-						}else{
-							tupleID.get(index).add(fd);
-						}
-						
-						v.add(i.instance(index));
-					}
-					
-					// Here we take care of the tuple we are currently processing
-					if(!tupleID.containsKey(j)){
-						List<String> vFDs = new LinkedList<String>();
-						vFDs.add(fd);
-						tupleID.put(j,vFDs);
-					}else{
-						tupleID.get(j).add(fd);
-					}
-					
-					v.add(i.instance(j));
-
-				}else if(map.containsKey(premiseValue) && !map.get(premiseValue).getKey().contains(j)){
-					map.get(premiseValue).getKey().add(j);
-				}else{
-					List<Integer> newIDsList = new LinkedList<Integer>();
-					newIDsList.add(j);
-					map.put(premiseValue, new SimpleImmutableEntry<List<Integer>,List<Object>>(newIDsList,rhsValues));
+			StrippedPartition partition = null;
+			for(int att : parseAttributes(premiseID)){
+				StrippedPartition p = partitions.get(att);
+				if(p == null){
+					p = StrippedPartition.of(t, att);
+					partitions.put(att, p);
 				}
+				partition = partition == null ? p : partition.product(p);
 			}
+			
+			violations.add(rule++, partition.violatingRows(t, parseAttributes(FDs.get(premiseID))));
 		}
+		
+		RowBitmap rows = violations.violatingRows();
+		Report.get().violatingRows(t, violations, rows);
+		System.out.println("Found: "+ rows.cardinality() + " violating tuples.");
+		
+		return new violatedTuples(t.toInstances(rows.toArray()), violations);
+	}
 	
-		System.out.println("Found: "+ v.numInstances() + " violating tuples.");
+	/**
+	 * An FD as a rule of a ViolationSet, named as in FDName() when it's reported.
+	 */
+	static class FDRule {
+		private Instances header;
+		private String premiseID;
+		private String[] rhsIDs;
 		
-		violatedTuples pair = new violatedTuples(v, tupleID);
-		return pair;
+		FDRule(Instances header, String premiseID, String[] rhsIDs){
+			this.header = header;
+			this.premiseID = premiseID;
+			this.rhsIDs = rhsIDs;
+		}
 		
+		public String toString(){
+			return FDName(header, premiseID, rhsIDs);
+		}
+	}
+	
+	/**
+	 * Returns the FDs as rules of a ViolationSet, in the order of FDs.keySet()
+	 * @param header
+	 * @param FDs
+	 * @return rules
+	 */
+	static List<FDRule> FDRules(Instances header, HashMap<String, String[]> FDs){
+		List<FDRule> rules = new ArrayList<FDRule>(FDs.size());
+		for(String premiseID : FDs.keySet()) rules.add(new FDRule(header, premiseID, FDs.get(premiseID)));
+		return rules;
+	}
+	
+	/**
+	 * Returns the attribute indexes of an FD side, e.g. given "0,1" return {0, 1}
+	 * @param attributes
+	 * @return indexes
+	 */
+	public static int[] parseAttributes(String attributes){
+		return parseAttributes(attributes.split(","));
+	}
+	
+	/**
+	 * Returns the attribute indexes of an FD side, e.g. given {"2", "3"} return {2, 3}
+	 * @param attributes
+	 * @return indexes
+	 */
+	public static int[] parseAttributes(String[] attributes){
+		int[] indexes = new int[attributes.length];
+		for(int k = 0; k < attributes.length; k++) indexes[k] = Integer.parseInt(attributes[k].trim());
+		return indexes;
+	}
+	
+	/**
+	 * Returns the name of an FD as it's reported in the list of FDs that a tuple violates.
+	 * @param i, premiseID, rhsIDs
+	 * @return
+	 */
+	public static String FDName(Instances i, String premiseID, String[] rhsIDs){
+		// processing FD
+		String fd = premiseID+"->";
+		String rhs = "";
+		for(String r : rhsIDs) rhs += r + ",";
+		rhs = rhs.substring(0, rhs.length()-1); // delete last ','
+		fd = fd+rhs; // merge
+		return FDtoString(i, fd);
 	}
 	
 	/**
@@ -235,7 +246,7 @@ public class FDUtility {
 		String rhs = fd[1];
 		
 		StringBuilder result = new StringBuilder();
-		result.append(i.attribute(Integer.parseInt(premise)).name());
+		result.append(attributeNames(i, premise));
 		result.append("->");
 		if(rhs.contains(",")){
 			String[] rhsList = rhs.split(",");
@@ -252,4 +263,17 @@ public class FDUtility {
 		
 	}
 
+	/**
+	 * Returns the names of a list of attributes, e.g. given "0,1" return "ProviderNumber, HospitalName"
+	 * @param i, attributes
+	 * @return
+	 */
+	public static String attributeNames(Instances i, String attributes){
+		StringBuilder result = new StringBuilder();
+		for(int att : parseAttributes(attributes)) result.append(i.attribute(att).name()+", ");
+		//remove the last ", "
+		result.delete(result.length()-2, result.length());
+		return result.toString();
+	}
+
 }
@@ -0,0 +1,290 @@
+package DTCleaner;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+import weka.core.Utils;
+
+/**
+ * Evaluates repaired tuples against the ground truth, cell by cell.
+ *
+ * The ground truth is kept as a 64-bit fingerprint of every cell and of every row, not as values, and the tuples are
+ * aligned with it by their original id: their row index in the dataset, which must be the row index of the same
+ * tuple in the ground truth. Two values are taken as equal when their fingerprints are.
+ *
+ * For every attribute, a cell is an error when its dirty value differs from the ground truth, and a repair when its
+ * repaired value differs from its dirty value. Precision is the share of repairs that set the ground truth value,
+ * recall the share of errors that were repaired to the ground truth value.
+ */
+public class GroundTruthEvaluator {
+
+	// fingerprint of a missing value
+	private static final long MISSING = 0x9E3779B97F4A7C15L;
+
+	private String[] attributes;
+	// cells[att][id] is the fingerprint of a cell of the ground truth
+	private long[][] cells;
+	private long[] rows;
+
+	/**
+	 * The cell counts of an evaluation, per attribute.
+	 */
+	public static class Evaluation {
+		public final String[] attributes;
+		// cells whose dirty value isn't the ground truth
+		public final int[] errors;
+		// cells whose repaired value isn't the dirty value
+		public final int[] repairs;
+		// repairs to the ground truth value
+		public final int[] correctRepairs;
+		// tuples evaluated, and those equal to the ground truth after the repair
+		public final int numRows;
+		public final int correctRows;
+		// rows of the evaluated tables that differ from the ground truth after the repair
+		public final BitSet wrongRows;
+
+		Evaluation(String[] attributes, int[] errors, int[] repairs, int[] correctRepairs, int numRows, int correctRows, BitSet wrongRows){
+			this.attributes = attributes;
+			this.errors = errors;
+			this.repairs = repairs;
+			this.correctRepairs = correctRepairs;
+			this.numRows = numRows;
+			this.correctRows = correctRows;
+			this.wrongRows = wrongRows;
+		}
+
+		/**
+		 * Returns the percentage of tuples equal to the ground truth after the repair
+		 */
+		public float rowAccuracy(){
+			return numRows == 0 ? 0 : (correctRows * 100.0f) / numRows;
+		}
+
+		/**
+		 * Returns the number of errors of an attribute, or of all attributes if att is -1
+		 */
+		public int errors(int att){
+			return sum(errors, att);
+		}
+
+		/**
+		 * Returns the number of repairs of an attribute, or of all attributes if att is -1
+		 */
+		public int repairs(int att){
+			return sum(repairs, att);
+		}
+
+		/**
+		 * Returns the number of correct repairs of an attribute, or of all attributes if att is -1
+		 */
+		public int correctRepairs(int att){
+			return sum(correctRepairs, att);
+		}
+
+		/**
+		 * Returns the precision of the repairs of an attribute, or of all attributes if att is -1
+		 */
+		public double precision(int att){
+			return ratio(correctRepairs(att), repairs(att));
+		}
+
+		/**
+		 * Returns the recall of the repairs of an attribute, or of all attributes if att is -1
+		 */
+		public double recall(int att){
+			return ratio(correctRepairs(att), errors(att));
+		}
+
+		/**
+		 * Returns the F1 score of the repairs of an attribute, or of all attributes if att is -1
+		 */
+		public double f1(int att){
+			double p = precision(att);
+			double r = recall(att);
+			return p + r == 0 ? 0 : 2 * p * r / (p + r);
+		}
+
+		private static int sum(int[] counts, int att){
+			if(att >= 0) return counts[att];
+			int sum = 0;
+			for(int count : counts) sum += count;
+			return sum;
+		}
+
+		private static double ratio(int a, int b){
+			return b == 0 ? 0 : (double) a / b;
+		}
+
+		/**
+		 * Returns one line per attribute with errors or repairs, and the total over all attributes.
+		 * @return table
+		 */
+		public String toSummaryString(){
+			StringBuilder table = new StringBuilder();
+			table.append(Utils.padRight("Attribute", 20)).append(Utils.padLeft("Errors", 8)).append(Utils.padLeft("Repairs", 9))
+					.append(Utils.padLeft("Correct", 9)).append(Utils.padLeft("Precision", 11)).append(Utils.padLeft("Recall", 8))
+					.append(Utils.padLeft("F1", 7)).append("\n");
+			for(int att = 0; att < attributes.length; att++){
+				if(errors[att] > 0 || repairs[att] > 0) appendLine(table, attributes[att], att);
+			}
+			appendLine(table, "All", -1);
+			return table.toString();
+		}
+
+		private void appendLine(StringBuilder table, String name, int att){
+			table.append(Utils.padRight(name, 20))
+					.append(Utils.padLeft("" + errors(att), 8))
+					.append(Utils.padLeft("" + repairs(att), 9))
+					.append(Utils.padLeft("" + correctRepairs(att), 9))
+					.append(Utils.padLeft(String.format("%.3f", precision(att)), 11))
+					.append(Utils.padLeft(String.format("%.3f", recall(att)), 8))
+					.append(Utils.padLeft(String.format("%.3f", f1(att)), 7)).append("\n");
+		}
+	}
+
+	/**
+	 * Fingerprints the ground truth. Its values are only held while it's read.
+	 * @param groundTruthInput: the ground truth location, e.g. data/hospitalFewerAttr.arff
+	 * @throws Exception if it couldn't be read
+	 */
+	public GroundTruthEvaluator(String groundTruthInput) throws Exception{
+		this(EncodedTable.load(groundTruthInput));
+	}
+
+	/**
+	 * Fingerprints the ground truth. The table isn't held afterwards.
+	 * @param truth: the ground truth, e.g. read with ColumnarCache.load()
+	 */
+	public GroundTruthEvaluator(EncodedTable truth){
+		attributes = new String[truth.numAttributes()];
+		cells = new long[attributes.length][];
+		rows = new long[truth.numRows()];
+		for(int att = 0; att < attributes.length; att++){
+			attributes[att] = truth.getHeader().attribute(att).name();
+			long[] codes = fingerprints(truth.dictionary(att));
+			int[] column = truth.column(att);
+			cells[att] = new long[truth.numRows()];
+			for(int id = 0; id < rows.length; id++){
+				cells[att][id] = column[id] < 0 ? MISSING : codes[column[id]];
+				rows[id] = combine(rows[id], cells[att][id]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of tuples of the ground truth
+	 */
+	public int numRows(){
+		return rows.length;
+	}
+
+	/**
+	 * Checks that a dataset can be evaluated against the ground truth: the same attributes, in the same order, and
+	 * a tuple of the ground truth for every tuple of the dataset.
+	 * @param table: the dataset
+	 * @return why it can't be evaluated, or null if it can
+	 */
+	public String mismatch(EncodedTable table){
+		if(table.numAttributes() != attributes.length)
+			return "the ground truth has " + attributes.length + " attributes, the dataset " + table.numAttributes();
+		for(int att = 0; att < attributes.length; att++){
+			String name = table.getHeader().attribute(att).name();
+			if(!name.equals(attributes[att])) return "attribute " + (att + 1) + " is " + attributes[att] + " in the ground truth, " + name + " in the dataset";
+		}
+		if(table.numRows() != rows.length)
+			return "the ground truth has " + rows.length + " tuples, the dataset " + table.numRows();
+		return null;
+	}
+
+	/**
+	 * Counts the errors, repairs and correct repairs of every attribute in a single pass over the tuples.
+	 * @param dirty: the tuples before the repair
+	 * @param repaired: the same tuples after the repair, in the same order
+	 * @param ids: original id of every tuple
+	 * @return evaluation
+	 */
+	public Evaluation evaluate(EncodedTable dirty, EncodedTable repaired, int[] ids){
+		if(dirty.numAttributes() != attributes.length || repaired.numAttributes() != attributes.length)
+			throw new IllegalArgumentException("Expected " + attributes.length + " attributes as in the ground truth");
+		if(dirty.numRows() != ids.length || repaired.numRows() != ids.length)
+			throw new IllegalArgumentException("Expected " + ids.length + " dirty and repaired tuples");
+
+		int[] errors = new int[attributes.length];
+		int[] repairs = new int[attributes.length];
+		int[] correctRepairs = new int[attributes.length];
+		int correctRows = 0;
+		BitSet wrongRows = new BitSet();
+
+		// the fingerprint of every code, once per dictionary
+		IdentityHashMap<ValueDictionary, long[]> byDictionary = new IdentityHashMap<ValueDictionary, long[]>();
+		long[][] dirtyCodes = new long[attributes.length][];
+		long[][] repairedCodes = new long[attributes.length][];
+		for(int att = 0; att < attributes.length; att++){
+			dirtyCodes[att] = fingerprints(dirty.dictionary(att), byDictionary);
+			repairedCodes[att] = fingerprints(repaired.dictionary(att), byDictionary);
+		}
+
+		for(int row = 0; row < ids.length; row++){
+			int id = ids[row];
+			if(id < 0 || id >= rows.length) throw new IllegalArgumentException("No tuple " + id + " in the ground truth");
+			long fingerprint = 0;
+			for(int att = 0; att < attributes.length; att++){
+				int dirtyCode = dirty.code(row, att);
+				int repairedCode = repaired.code(row, att);
+				long before = dirtyCode < 0 ? MISSING : dirtyCodes[att][dirtyCode];
+				long after = repairedCode < 0 ? MISSING : repairedCodes[att][repairedCode];
+				long truth = cells[att][id];
+
+				if(before != truth) errors[att]++;
+				if(after != before){
+					repairs[att]++;
+					if(after == truth) correctRepairs[att]++;
+				}
+				fingerprint = combine(fingerprint, after);
+			}
+			if(fingerprint == rows[id]) correctRows++;
+			else wrongRows.set(row);
+		}
+		return new Evaluation(attributes, errors, repairs, correctRepairs, ids.length, correctRows, wrongRows);
+	}
+
+	private static long[] fingerprints(ValueDictionary dictionary, IdentityHashMap<ValueDictionary, long[]> byDictionary){
+		long[] codes = byDictionary.get(dictionary);
+		if(codes == null){
+			codes = fingerprints(dictionary);
+			byDictionary.put(dictionary, codes);
+		}
+		return codes;
+	}
+
+	private static long[] fingerprints(ValueDictionary dictionary){
+		long[] codes = new long[dictionary.size()];
+		for(int code = 0; code < codes.length; code++) codes[code] = fingerprint(dictionary.label(code));
+		return codes;
+	}
+
+	/**
+	 * Returns the 64-bit fingerprint of a value: FNV-1a over its chars, then mixed.
+	 */
+	private static long fingerprint(String value){
+		long h = 0xcbf29ce484222325L;
+		for(int k = 0; k < value.length(); k++){
+			h ^= value.charAt(k);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Adds the fingerprint of the next cell to the fingerprint of a row.
+	 */
+	private static long combine(long row, long cell){
+		return mix(row * 31 + cell);
+	}
+
+	private static long mix(long h){
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb93fe53ec4e9L;
+		return h ^ (h >>> 33);
+	}
+}
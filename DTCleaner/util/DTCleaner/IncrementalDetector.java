@@ -0,0 +1,311 @@
+package DTCleaner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Keeps the CFD/FD violations of a table up to date while tuples are inserted, updated and deleted.
+ *
+ * Violations of constant CFDs, and of CFDs with wildcards in the premise only, depend on the tuple itself. For FDs
+ * the tuples are kept in groups by premise value, and within a group by RHS value; a group violates its FD when it
+ * holds more than one RHS value. A CFD with a wildcard RHS, e.g. 5=_->3=_, is kept the same way over the tuples
+ * matching its premise pattern, as in PatternTableau. A change only touches the groups of the changed tuple, and
+ * only re-evaluates the tuples of a group when the group starts or stops violating its rule, so its cost is
+ * proportional to the affected premise groups, not to the table.
+ *
+ * Tuples are identified by their row index in the table. Deleted rows keep their index, which is not reused.
+ */
+public class IncrementalDetector {
+
+	private EncodedTable table;
+	private EncodedCFDIndex cfdIndex;
+	private CodeKey[] probes;
+	private List<FDState> FDs;
+	// CFDs with wildcards and a constant RHS
+	private List<RowPattern> patterns;
+	// rows that have been deleted
+	private BitSet deleted = new BitSet();
+	// holds index of violated tuples and the list of CFDs they violate
+	private HashMap<Integer, List<String>> CFDViolations = new HashMap<Integer, List<String>>();
+	// holds index of violated tuples and the list of CFDs and FDs they violate
+	private HashMap<Integer, List<String>> violatedTuplesMap = new HashMap<Integer, List<String>>();
+
+	/**
+	 * State of a single FD, or CFD with a wildcard RHS: its tuples grouped by premise value.
+	 */
+	private static class FDState {
+		final String name;
+		final int[] premise;
+		final int[] rhs;
+		// premise codes a tuple must hold to be grouped, PatternTableau.ANY for any value. null for an FD.
+		final int[] pattern;
+		final HashMap<CodeKey, Group> groups = new HashMap<CodeKey, Group>();
+
+		FDState(String name, int[] premise, int[] rhs, int[] pattern){
+			this.name = name;
+			this.premise = premise;
+			this.rhs = rhs;
+			this.pattern = pattern;
+		}
+
+		boolean involves(int att){
+			for(int a : premise) if(a == att) return true;
+			for(int a : rhs) if(a == att) return true;
+			return false;
+		}
+	}
+
+	/**
+	 * Tuples sharing a premise value, by RHS value.
+	 */
+	private static class Group {
+		final HashMap<CodeKey, Set<Integer>> rowsByRHS = new HashMap<CodeKey, Set<Integer>>(2);
+
+		boolean isViolated(){
+			return rowsByRHS.size() > 1;
+		}
+	}
+
+	/**
+	 * Builds the violation state of all rows of table.
+	 * @param table
+	 * @param CFDs
+	 * @param FDs: FDs as read by FDUtility.readFDs, may be null
+	 */
+	public IncrementalDetector(EncodedTable table, Multiset<CFD> CFDs, HashMap<String, String[]> FDs){
+		this.table = table;
+		this.cfdIndex = new EncodedCFDIndex(new CFDIndex(CFDs), table);
+		this.probes = cfdIndex.probes();
+		this.FDs = new ArrayList<FDState>();
+
+		if(FDs != null){
+			for(String premiseID : FDs.keySet()){
+				String[] rhsIDs = FDs.get(premiseID);
+				this.FDs.add(new FDState(FDUtility.FDName(table.getHeader(), premiseID, rhsIDs), FDUtility.parseAttributes(premiseID), FDUtility.parseAttributes(rhsIDs), null));
+			}
+		}
+
+		// CFDs with wildcards, which the CFD index leaves out
+		patterns = RowPattern.of(CFDs, table);
+		for(CFD cfd : CFDs.elementSet()){
+			if(!cfd.getRHS().getValue().equals(CFD.WILDCARD)) continue;
+			this.FDs.add(new FDState(cfd.toString(), RowPattern.premise(cfd), new int[]{cfd.getRHS().getKey()}, RowPattern.codes(cfd, table)));
+		}
+
+		for(int row = 0; row < table.numRows(); row++) addRow(row);
+	}
+
+	/**
+	 * Returns the table holding the tuples
+	 */
+	public EncodedTable getTable(){
+		return table;
+	}
+
+	/**
+	 * Returns the map of violating tuple indexes to the CFDs and FDs they violate.
+	 * The map is updated in place by insert(), update() and delete().
+	 */
+	public HashMap<Integer, List<String>> getViolatedTuplesMap(){
+		return violatedTuplesMap;
+	}
+
+	/**
+	 * Returns true if the row has been deleted
+	 */
+	public boolean isDeleted(int row){
+		return deleted.get(row);
+	}
+
+	/**
+	 * Inserts a tuple.
+	 * @param values: value of every attribute, null for missing
+	 * @return index of the new tuple
+	 */
+	public int insert(String[] values){
+		if(values.length != table.numAttributes())
+			throw new IllegalArgumentException("Expected " + table.numAttributes() + " values, got " + values.length);
+
+		int[] codes = new int[values.length];
+		for(int att = 0; att < values.length; att++) codes[att] = encode(att, values[att]);
+
+		int row = table.add(codes);
+		addRow(row);
+		return row;
+	}
+
+	/**
+	 * Changes the value of a single attribute of a tuple.
+	 * @param row: index of the tuple
+	 * @param att: index of the attribute
+	 * @param value: new value, null for missing
+	 */
+	public void update(int row, int att, String value){
+		updateCode(row, att, encode(att, value));
+	}
+
+	/**
+	 * Changes the code of a single attribute of a tuple.
+	 * @param row: index of the tuple
+	 * @param att: index of the attribute
+	 * @param code: new code in the dictionary of the table, EncodedTable.MISSING for missing
+	 */
+	public void updateCode(int row, int att, int code){
+		checkRow(row);
+		if(table.code(row, att) == code) return;
+
+		// only the FDs on att are affected
+		List<FDState> affected = new ArrayList<FDState>();
+		for(FDState fd : FDs) if(fd.involves(att)) affected.add(fd);
+
+		for(FDState fd : affected) removeFromFD(fd, row);
+		table.setCode(row, att, code);
+		for(FDState fd : affected) addToFD(fd, row);
+
+		updateCFDViolations(row);
+		refresh(row);
+	}
+
+	/**
+	 * Deletes a tuple.
+	 * @param row: index of the tuple
+	 */
+	public void delete(int row){
+		checkRow(row);
+
+		for(FDState fd : FDs) removeFromFD(fd, row);
+		CFDViolations.remove(row);
+		violatedTuplesMap.remove(row);
+		deleted.set(row);
+	}
+
+	private void checkRow(int row){
+		if(row < 0 || row >= table.numRows() || deleted.get(row))
+			throw new IllegalArgumentException("No such tuple: " + row);
+	}
+
+	/**
+	 * Returns true if the premise of row holds the codes of pattern, see RowPattern.matches().
+	 */
+	private boolean matches(int row, int[] premise, int[] pattern){
+		return RowPattern.matches(table, row, premise, pattern);
+	}
+
+	private int encode(int att, String value){
+		if(value == null || value.equals("?")) return EncodedTable.MISSING;
+		return table.dictionary(att).intern(value);
+	}
+
+	private void addRow(int row){
+		for(FDState fd : FDs) addToFD(fd, row);
+		updateCFDViolations(row);
+		refresh(row);
+	}
+
+	private void updateCFDViolations(int row){
+		List<String> vCFDs = cfdIndex.violations(table, row, probes);
+		for(RowPattern pattern : patterns){
+			if(!pattern.isViolatedBy(table, row)) continue;
+			if(vCFDs == null) vCFDs = new LinkedList<String>();
+			vCFDs.add(pattern.name);
+		}
+		if(vCFDs == null) CFDViolations.remove(row);
+		else CFDViolations.put(row, vCFDs);
+	}
+
+	private CodeKey key(int row, int[] attributes){
+		int[] codes = new int[attributes.length];
+		for(int k = 0; k < attributes.length; k++) codes[k] = table.code(row, attributes[k]);
+		return new CodeKey(codes);
+	}
+
+	/**
+	 * Adds a row to the group of its premise value.
+	 */
+	private void addToFD(FDState fd, int row){
+		if(fd.pattern != null && !matches(row, fd.premise, fd.pattern)) return;
+		CodeKey premise = key(row, fd.premise);
+		Group group = fd.groups.get(premise);
+		if(group == null){
+			group = new Group();
+			fd.groups.put(premise, group);
+		}
+
+		boolean wasViolated = group.isViolated();
+
+		CodeKey rhs = key(row, fd.rhs);
+		Set<Integer> rows = group.rowsByRHS.get(rhs);
+		if(rows == null){
+			rows = new HashSet<Integer>();
+			group.rowsByRHS.put(rhs, rows);
+		}
+		rows.add(row);
+
+		// the group started violating the FD: every tuple in it is now a violating tuple
+		if(!wasViolated && group.isViolated()) refreshGroup(group, row);
+	}
+
+	/**
+	 * Removes a row from the group of its premise value.
+	 */
+	private void removeFromFD(FDState fd, int row){
+		if(fd.pattern != null && !matches(row, fd.premise, fd.pattern)) return;
+		CodeKey premise = key(row, fd.premise);
+		Group group = fd.groups.get(premise);
+		if(group == null) return;
+
+		boolean wasViolated = group.isViolated();
+
+		CodeKey rhs = key(row, fd.rhs);
+		Set<Integer> rows = group.rowsByRHS.get(rhs);
+		if(rows == null) return;
+		rows.remove(row);
+		if(rows.isEmpty()) group.rowsByRHS.remove(rhs);
+		if(group.rowsByRHS.isEmpty()) fd.groups.remove(premise);
+
+		// the group stopped violating the FD: no tuple in it violates the FD anymore
+		if(wasViolated && !group.isViolated()) refreshGroup(group, row);
+	}
+
+	/**
+	 * Refreshes every row of group except skip, which the caller refreshes itself.
+	 */
+	private void refreshGroup(Group group, int skip){
+		for(Set<Integer> rows : group.rowsByRHS.values()){
+			for(int other : rows) if(other != skip) refresh(other);
+		}
+	}
+
+	/**
+	 * Recomputes the entry of row in violatedTuplesMap: the CFDs it violates, followed by the FDs whose group
+	 * of the row holds more than one RHS value.
+	 */
+	private void refresh(int row){
+		if(deleted.get(row)) return;
+
+		List<String> violations = null;
+
+		List<String> vCFDs = CFDViolations.get(row);
+		if(vCFDs != null) violations = new LinkedList<String>(vCFDs);
+
+		for(FDState fd : FDs){
+			if(fd.pattern != null && !matches(row, fd.premise, fd.pattern)) continue;
+			Group group = fd.groups.get(key(row, fd.premise));
+			if(group != null && group.isViolated()){
+				if(violations == null) violations = new LinkedList<String>();
+				violations.add(fd.name);
+			}
+		}
+
+		if(violations == null) violatedTuplesMap.remove(row);
+		else violatedTuplesMap.put(row, violations);
+	}
+
+}
@@ -0,0 +1,84 @@
+package DTCleaner;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies of requests and reports their percentiles.
+ *
+ * Only the latencies of the last window requests are kept, in a ring, so that memory stays flat in a long-running
+ * service and the percentiles follow the recent load.
+ */
+public class LatencyRecorder {
+
+	private long[] window;
+	// number of latencies recorded so far, the next one goes to window[count % window.length]
+	private long count;
+	private long max;
+
+	/**
+	 * @param window: number of recent latencies kept
+	 */
+	public LatencyRecorder(int window){
+		this.window = new long[Math.max(1, window)];
+	}
+
+	/**
+	 * Records the latency of a request.
+	 * @param nanos
+	 */
+	public synchronized void record(long nanos){
+		window[(int) (count % window.length)] = nanos;
+		count++;
+		max = Math.max(max, nanos);
+	}
+
+	/**
+	 * Returns the number of latencies recorded so far
+	 */
+	public synchronized long count(){
+		return count;
+	}
+
+	/**
+	 * Returns the highest latency recorded so far, in nanoseconds
+	 */
+	public synchronized long max(){
+		return max;
+	}
+
+	/**
+	 * Returns the latencies of the recent requests at the given percentiles, by the nearest-rank method.
+	 * @param percentiles: e.g. 50, 95, 99
+	 * @return latency in nanoseconds at every percentile, 0 if nothing was recorded
+	 */
+	public long[] percentiles(double... percentiles){
+		long[] sorted;
+		synchronized(this){
+			sorted = Arrays.copyOf(window, (int) Math.min(count, window.length));
+		}
+		Arrays.sort(sorted);
+
+		long[] latencies = new long[percentiles.length];
+		if(sorted.length == 0) return latencies;
+		for(int k = 0; k < percentiles.length; k++){
+			int rank = (int) Math.ceil(percentiles[k] / 100 * sorted.length);
+			latencies[k] = sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+		}
+		return latencies;
+	}
+
+	/**
+	 * Returns the number of requests and the p50, p95, p99 and max latencies in milliseconds.
+	 * @return summary
+	 */
+	public String toSummaryString(){
+		long[] p = percentiles(50, 95, 99);
+		long recorded = count();
+		return "Requests: " + recorded + ", latency p50 " + millis(p[0]) + " ms, p95 " + millis(p[1]) + " ms, p99 " + millis(p[2])
+				+ " ms, max " + millis(max()) + " ms" + (recorded > window.length ? " (percentiles over the last " + window.length + " requests)" : "");
+	}
+
+	private static String millis(long nanos){
+		return String.format("%.3f", nanos / 1e6);
+	}
+}
@@ -0,0 +1,153 @@
+package DTCleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of trained models, in front of another ModelTrainer.
+ *
+ * A model is keyed by the SHA-1 of its setting file. The setting file holds the targets, the heuristic and the
+ * other Clus settings, and names the train and test sets by their content hash (see ArtifactStore), so equal keys
+ * mean equal models and equal predictions. On a hit, the files Clus wrote (model, output and test predictions)
+ * are copied next to the setting file and training is skipped.
+ *
+ * Clus can't predict with a saved model (its -test option fails on decision trees), so the test set is part of
+ * the key and the predictions are cached with the model.
+ *
+ * The cache holds at most maxBytes: when it's over, the least recently used models are evicted.
+ */
+public class ModelCache implements ModelTrainer {
+
+	// files written by Clus next to <name>.s
+	private static final String[] OUTPUTS = {".model", ".out", ".test.pred.arff"};
+	private static final String CONSOLE = "console.txt";
+
+	private ModelTrainer trainer;
+	private File directory;
+	private long maxBytes;
+
+	/**
+	 * @param trainer: builds the models that aren't in the cache
+	 * @param directory: folder of the cache, e.g. "exp/cache/"
+	 * @param maxBytes: size of the cache
+	 */
+	public ModelCache(ModelTrainer trainer, String directory, long maxBytes){
+		this.trainer = trainer;
+		this.directory = new File(directory);
+		this.maxBytes = maxBytes;
+	}
+
+	public String train(String settingFile) throws IOException, InterruptedException {
+		File setting = new File(settingFile);
+		String key = fingerprint(setting);
+		File entry = new File(directory, key);
+		String base = settingFile.substring(0, settingFile.length() - (settingFile.endsWith(".s") ? 2 : 0));
+
+		if(entry.isDirectory()){
+			File console = new File(entry, CONSOLE);
+			if(console.isFile()){
+				for(String suffix : OUTPUTS){
+					File cached = new File(entry, suffix.substring(1));
+					if(cached.isFile()) Files.copy(cached.toPath(), new File(base + suffix).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				// most recently used
+				entry.setLastModified(System.currentTimeMillis());
+				System.out.println("Model of " + settingFile + " found in cache: " + key);
+				return new String(Files.readAllBytes(console.toPath()), Charset.forName("UTF-8"));
+			}
+		}
+
+		String output = trainer.train(settingFile);
+		store(entry, base, output);
+		return output;
+	}
+
+	/**
+	 * Copies the files of a model into the cache and evicts the least recently used models when it's full.
+	 */
+	private void store(File entry, String base, String output) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Couldn't create " + directory);
+
+		// fill a temporary folder so that an entry is always complete
+		File tmp = new File(directory, entry.getName() + ".tmp" + Thread.currentThread().getId());
+		if(!tmp.isDirectory() && !tmp.mkdirs()) throw new IOException("Couldn't create " + tmp);
+		for(String suffix : OUTPUTS){
+			File file = new File(base + suffix);
+			if(file.isFile()) Files.copy(file.toPath(), new File(tmp, suffix.substring(1)).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.write(new File(tmp, CONSOLE).toPath(), output.getBytes(Charset.forName("UTF-8")));
+
+		// another thread may have stored the same model meanwhile
+		if(!tmp.renameTo(entry)) delete(tmp);
+		evict(entry);
+	}
+
+	private synchronized void evict(File keep){
+		File[] entries = directory.listFiles();
+		if(entries == null) return;
+
+		long size = 0;
+		final long[] lastUsed = new long[entries.length];
+		final long[] sizes = new long[entries.length];
+		Integer[] order = new Integer[entries.length];
+		for(int k = 0; k < entries.length; k++){
+			lastUsed[k] = entries[k].lastModified();
+			sizes[k] = size(entries[k]);
+			size += sizes[k];
+			order[k] = k;
+		}
+		if(size <= maxBytes) return;
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(lastUsed[a], lastUsed[b]);
+			}
+		});
+		for(int k : order){
+			if(size <= maxBytes) break;
+			if(entries[k].equals(keep) || entries[k].getName().contains(".tmp")) continue;
+			delete(entries[k]);
+			size -= sizes[k];
+			System.out.println("Evicted model from cache: " + entries[k].getName());
+		}
+	}
+
+	/**
+	 * Returns the key of the model of a setting file
+	 * @param setting
+	 * @return SHA-1 of the setting file
+	 * @throws IOException
+	 */
+	public static String fingerprint(File setting) throws IOException {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(Files.readAllBytes(setting.toPath()));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for(byte b : digest) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform provides SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static long size(File file){
+		if(file.isFile()) return file.length();
+		long size = 0;
+		File[] files = file.listFiles();
+		if(files != null) for(File f : files) size += size(f);
+		return size;
+	}
+
+	private static void delete(File file){
+		File[] files = file.listFiles();
+		if(files != null) for(File f : files) delete(f);
+		file.delete();
+	}
+}
@@ -0,0 +1,19 @@
+package DTCleaner;
+
+import java.io.IOException;
+
+/**
+ * Builds the decision tree described by a Clus setting file (see Util.makeSettingFile) and writes its predictions
+ * for the test set next to the setting file, e.g. exp/1/setting.s gives exp/1/setting.test.pred.arff.
+ */
+public interface ModelTrainer {
+
+	/**
+	 * Trains the model of a setting file.
+	 * @param settingFile, e.g. "exp/1/setting.s"
+	 * @return the console output of Clus
+	 * @throws IOException if the model couldn't be built
+	 * @throws InterruptedException
+	 */
+	String train(String settingFile) throws IOException, InterruptedException;
+}
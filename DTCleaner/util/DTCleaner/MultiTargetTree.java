@@ -0,0 +1,692 @@
+package DTCleaner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Multi-target classification tree learned directly on the int columns of an EncodedTable.
+ *
+ * Every node splits on the values of a nominal feature, one branch per value (missing values form a branch of
+ * their own), or on a threshold of a numeric feature, as Clus does: a branch for the values up to the threshold, one
+ * for the values above it, and one for missing values. Every leaf predicts the most frequent value of each target.
+ * A split is scored by the sum over
+ * the targets of the reduction of impurity, with the impurity given by the heuristic:
+ * 		Gain (and Default): entropy
+ * 		GainRatio: entropy, divided by the entropy of the branch sizes
+ * 		VarianceReduction: Gini index, the variance of a nominal target
+ * 		ReducedError: number of rows not holding the most frequent value
+ * Missing target values are left out of the impurity of their target.
+ *
+ * Split finding groups the rows of a node by feature value with a counting pass over the feature column, and
+ * counts the target values of every group into histograms; no per-node objects are allocated. The rows of a numeric
+ * feature are grouped in the order of their values, and every threshold between two values is scored in a forward
+ * and a backward sweep over the groups, adding one row at a time to the histograms. Large nodes score
+ * their features in parallel, and subtrees are built in parallel, on a ForkJoinPool.
+ */
+public class MultiTargetTree {
+
+	// a branch needs at least this many rows, and a split at least two such branches
+	public static final int MIN_LEAF_SIZE = 2;
+	// nodes holding fewer rows are built on a single thread, their subtrees recursively
+	private static final int PARALLEL_THRESHOLD = 4096;
+	// depth of the deepest leaf unless given, keeping the recursion of the small subtrees well within the stack
+	public static final int DEFAULT_MAX_DEPTH = 64;
+	private static final double EPSILON = 1e-9;
+
+	private enum Impurity { ENTROPY, GINI, ERROR }
+
+	/**
+	 * A node of the tree, a leaf when feature is -1.
+	 */
+	private static class Node {
+		int feature = -1;
+		// codes of the branches, increasing (MISSING first). null for a threshold split, whose branches are the values
+		// up to threshold, those above it, and the missing values if there were any
+		int[] values;
+		double threshold;
+		Node[] children;
+		// most frequent code of every target
+		int[] prediction;
+		int size;
+	}
+
+	/**
+	 * Scratch arrays of a worker thread, so that split finding doesn't allocate. There are at most as many as
+	 * threads working on the tree at the same time.
+	 */
+	private class Scratch {
+		// feature slots (code+1) of a node: number of rows, and the next position when grouping
+		final int[] count = new int[maxFeatureSlots];
+		final int[] next = new int[maxFeatureSlots];
+		final int[] touched = new int[maxFeatureSlots];
+		// rows grouped by feature value
+		final int[] buffer = new int[rows.length];
+		// histograms of the target values
+		final int[][] targetCount = new int[targets.length][];
+		final int[] targetTouched = new int[maxTargetDomain];
+		// state of the sweeps over a numeric feature: rows with a value of every target, sum of the impurity, most
+		// frequent count, and the impurity of the rows left of every threshold
+		final int[] sweepRows = new int[targets.length];
+		final double[] sweepSum = new double[targets.length];
+		final int[] sweepMax = new int[targets.length];
+		final double[] leftTerms = new double[maxFeatureSlots + 1];
+
+		Scratch(){
+			for(int t = 0; t < targets.length; t++) targetCount[t] = new int[targetDomain[t]];
+		}
+	}
+
+	private int[] targets;
+	private int[] features;
+	private HeuristicType heuristic;
+	private Impurity impurity;
+	private int maxDepth;
+
+	// training data, only held while the tree is built
+	private int[][] featureColumns;
+	// value and rank of every code of a numeric feature, null for a nominal one
+	private double[][] featureValues;
+	private int[][] featureRanks;
+	private int[][] targetColumns;
+	private int[] targetDomain;
+	private int maxFeatureSlots;
+	private int maxTargetDomain;
+	private int[] rows;
+	// scratch arrays not in use
+	private ConcurrentLinkedQueue<Scratch> scratch;
+
+	private Node root;
+
+	/**
+	 * Learns a tree of depth at most DEFAULT_MAX_DEPTH.
+	 * @param t: training data
+	 * @param targets: attributes to predict
+	 * @param features: attributes to split on
+	 * @param heuristic: Default, Gain, GainRatio, VarianceReduction or ReducedError
+	 * @param pool: threads used to learn the tree
+	 */
+	public MultiTargetTree(EncodedTable t, int[] targets, int[] features, HeuristicType heuristic, ForkJoinPool pool){
+		this(t, targets, features, heuristic, DEFAULT_MAX_DEPTH, pool);
+	}
+
+	/**
+	 * Learns a tree.
+	 * @param t: training data
+	 * @param targets: attributes to predict
+	 * @param features: attributes to split on
+	 * @param heuristic: Default, Gain, GainRatio, VarianceReduction or ReducedError
+	 * @param maxDepth: depth of the deepest leaf, the root having depth 0. Subtrees are built recursively, so a deep
+	 * 		tree needs a deep stack
+	 * @param pool: threads used to learn the tree
+	 */
+	public MultiTargetTree(EncodedTable t, int[] targets, int[] features, HeuristicType heuristic, int maxDepth, ForkJoinPool pool){
+		this.targets = targets.clone();
+		this.features = features.clone();
+		this.heuristic = heuristic;
+		this.impurity = impurity(heuristic);
+		this.maxDepth = maxDepth;
+
+		featureColumns = new int[features.length][];
+		featureValues = new double[features.length][];
+		featureRanks = new int[features.length][];
+		for(int f = 0; f < features.length; f++){
+			featureColumns[f] = t.column(features[f]);
+			maxFeatureSlots = Math.max(maxFeatureSlots, t.dictionary(features[f]).size() + 1);
+			if(t.dictionary(features[f]).isNumeric()) rank(f, t.dictionary(features[f]));
+		}
+		targetColumns = new int[targets.length][];
+		targetDomain = new int[targets.length];
+		for(int k = 0; k < targets.length; k++){
+			targetColumns[k] = t.column(targets[k]);
+			targetDomain[k] = Math.max(1, t.dictionary(targets[k]).size());
+			maxTargetDomain = Math.max(maxTargetDomain, targetDomain[k]);
+		}
+
+		rows = new int[t.numRows()];
+		for(int j = 0; j < rows.length; j++) rows[j] = j;
+		scratch = new ConcurrentLinkedQueue<Scratch>();
+
+		int[] noPrediction = new int[targets.length];
+		Arrays.fill(noPrediction, EncodedTable.MISSING);
+		root = pool.invoke(new BuildTask(0, rows.length, 0, noPrediction));
+
+		// let go of the training data
+		featureColumns = null;
+		featureValues = null;
+		featureRanks = null;
+		targetColumns = null;
+		rows = null;
+		scratch = null;
+	}
+
+	/**
+	 * Sets the value and rank of every code of a numeric feature.
+	 */
+	private void rank(int f, ValueDictionary dictionary){
+		final double[] values = new double[dictionary.size()];
+		Integer[] byValue = new Integer[values.length];
+		for(int code = 0; code < values.length; code++){
+			values[code] = Double.parseDouble(dictionary.label(code));
+			byValue[code] = code;
+		}
+		Arrays.sort(byValue, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(values[a], values[b]);
+			}
+		});
+
+		int[] ranks = new int[values.length];
+		for(int r = 0; r < ranks.length; r++) ranks[byValue[r]] = r;
+		featureValues[f] = values;
+		featureRanks[f] = ranks;
+	}
+
+	/**
+	 * Returns the slot of a code of feature f: 0 for missing values, then the codes, or the ranks of a numeric feature.
+	 */
+	private int slot(int f, int code){
+		if(code == EncodedTable.MISSING) return 0;
+		return featureRanks[f] == null ? code + 1 : featureRanks[f][code] + 1;
+	}
+
+	private Scratch borrow(){
+		Scratch s = scratch.poll();
+		return s != null ? s : new Scratch();
+	}
+
+	private void release(Scratch s){
+		scratch.add(s);
+	}
+
+	private static Impurity impurity(HeuristicType heuristic){
+		switch(heuristic){
+		case Default:
+		case Gain:
+		case GainRatio:
+			return Impurity.ENTROPY;
+		case VarianceReduction:
+			return Impurity.GINI;
+		case ReducedError:
+			return Impurity.ERROR;
+		default:
+			throw new IllegalArgumentException("Heuristic " + heuristic + " isn't supported by MultiTargetTree, use Clus instead");
+		}
+	}
+
+	/**
+	 * Builds the subtree of the rows [from, to).
+	 */
+	private class BuildTask extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+		private int to;
+		private int depth;
+		private int[] parentPrediction;
+
+		BuildTask(int from, int to, int depth, int[] parentPrediction){
+			this.from = from;
+			this.to = to;
+			this.depth = depth;
+			this.parentPrediction = parentPrediction;
+		}
+
+		protected Node compute() {
+			Node node = new Node();
+			node.size = to - from;
+
+			// impurity of every target at this node, and the prediction
+			double[] parentTerms = new double[targets.length];
+			node.prediction = new int[targets.length];
+			boolean pure = true;
+			Scratch s = borrow();
+			for(int t = 0; t < targets.length; t++){
+				parentTerms[t] = targetTerm(t, rows, from, to, s, node.prediction, parentPrediction);
+				if(parentTerms[t] > EPSILON) pure = false;
+			}
+			release(s);
+
+			if(pure || depth >= maxDepth || node.size < 2 * MIN_LEAF_SIZE) return node;
+
+			// score every feature
+			double[] scores = new double[features.length];
+			// best threshold of every numeric feature
+			double[] thresholds = new double[features.length];
+			if(node.size >= PARALLEL_THRESHOLD && features.length > 1){
+				List<ScoreTask> tasks = new ArrayList<ScoreTask>(features.length);
+				for(int f = 0; f < features.length; f++) tasks.add(new ScoreTask(f, from, to, parentTerms, scores, thresholds));
+				invokeAll(tasks);
+			}else{
+				s = borrow();
+				for(int f = 0; f < features.length; f++) scores[f] = score(f, from, to, parentTerms, s, thresholds);
+				release(s);
+			}
+
+			int best = -1;
+			for(int f = 0; f < features.length; f++){
+				if(scores[f] > EPSILON && (best < 0 || scores[f] > scores[best])) best = f;
+			}
+			if(best < 0) return node;
+
+			// group the rows of the node by the values of the best feature, and build a subtree per branch
+			s = borrow();
+			int[] starts = group(best, from, to, s);
+			release(s);
+			node.feature = features[best];
+			List<BuildTask> tasks = new ArrayList<BuildTask>(starts.length - 1);
+			if(featureRanks[best] != null){
+				// the rows are in the order of their values, missing ones first
+				int[] column = featureColumns[best];
+				int missingEnd = column[rows[from]] == EncodedTable.MISSING ? starts[1] : from;
+				int cut = missingEnd;
+				while(featureValues[best][column[rows[cut]]] <= thresholds[best]) cut++;
+				node.threshold = thresholds[best];
+				tasks.add(new BuildTask(missingEnd, cut, depth + 1, node.prediction));
+				tasks.add(new BuildTask(cut, to, depth + 1, node.prediction));
+				if(missingEnd > from) tasks.add(new BuildTask(from, missingEnd, depth + 1, node.prediction));
+			}else{
+				node.values = new int[starts.length - 1];
+				for(int b = 0; b < node.values.length; b++){
+					node.values[b] = featureColumns[best][rows[starts[b]]];
+					tasks.add(new BuildTask(starts[b], starts[b + 1], depth + 1, node.prediction));
+				}
+			}
+			int numBranches = tasks.size();
+
+			node.children = new Node[numBranches];
+			if(node.size >= PARALLEL_THRESHOLD){
+				invokeAll(tasks);
+				for(int b = 0; b < numBranches; b++) node.children[b] = tasks.get(b).join();
+			}
+			else for(int b = 0; b < numBranches; b++) node.children[b] = tasks.get(b).compute();
+			return node;
+		}
+	}
+
+	/**
+	 * Scores a single feature, for nodes whose features are scored in parallel.
+	 */
+	private class ScoreTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int f;
+		private int from;
+		private int to;
+		private double[] parentTerms;
+		private double[] scores;
+		private double[] thresholds;
+
+		ScoreTask(int f, int from, int to, double[] parentTerms, double[] scores, double[] thresholds){
+			this.f = f;
+			this.from = from;
+			this.to = to;
+			this.parentTerms = parentTerms;
+			this.scores = scores;
+			this.thresholds = thresholds;
+		}
+
+		protected void compute() {
+			Scratch s = borrow();
+			scores[f] = score(f, from, to, parentTerms, s, thresholds);
+			release(s);
+		}
+	}
+
+	/**
+	 * Returns the impurity term of target t over rows[from, to), i.e. the impurity times the number of rows with a
+	 * value for t. If prediction is given, its entry t is set to the most frequent value, or the one of
+	 * parentPrediction if no row has a value.
+	 */
+	private double targetTerm(int t, int[] rows, int from, int to, Scratch s, int[] prediction, int[] parentPrediction){
+		int[] column = targetColumns[t];
+		int[] count = s.targetCount[t];
+		int[] touched = s.targetTouched;
+		int numTouched = 0;
+		int m = 0;
+
+		for(int k = from; k < to; k++){
+			int code = column[rows[k]];
+			if(code == EncodedTable.MISSING) continue;
+			if(count[code]++ == 0) touched[numTouched++] = code;
+			m++;
+		}
+
+		double term = 0;
+		int max = 0;
+		int argmax = EncodedTable.MISSING;
+		switch(impurity){
+		case ENTROPY:
+			double sum = 0;
+			for(int k = 0; k < numTouched; k++){
+				int c = count[touched[k]];
+				sum += c * log2(c);
+			}
+			term = m * log2(m) - sum;
+			break;
+		case GINI:
+			double squares = 0;
+			for(int k = 0; k < numTouched; k++){
+				double c = count[touched[k]];
+				squares += c * c;
+			}
+			term = m == 0 ? 0 : m - squares / m;
+			break;
+		case ERROR:
+			break;
+		}
+
+		for(int k = 0; k < numTouched; k++){
+			int code = touched[k];
+			int c = count[code];
+			// ties go to the smallest code, so that the prediction doesn't depend on the order of the rows
+			if(c > max || (c == max && code < argmax)){
+				max = c;
+				argmax = code;
+			}
+			count[code] = 0;
+		}
+		if(impurity == Impurity.ERROR) term = m - max;
+
+		if(prediction != null) prediction[t] = argmax != EncodedTable.MISSING ? argmax : parentPrediction[t];
+		return term;
+	}
+
+	/**
+	 * Returns the score of splitting rows[from, to) on feature f, or a negative score if the rows can't be split.
+	 * @param thresholds: entry f is set to the best threshold of a numeric feature
+	 */
+	private double score(int f, int from, int to, double[] parentTerms, Scratch s, double[] thresholds){
+		if(featureRanks[f] != null) return scoreThresholds(f, from, to, parentTerms, s, thresholds);
+
+		int[] column = featureColumns[f];
+		int numTouched = 0;
+		for(int k = from; k < to; k++){
+			int slot = column[rows[k]] + 1;
+			if(s.count[slot]++ == 0) s.touched[numTouched++] = slot;
+		}
+
+		int largeBranches = 0;
+		for(int k = 0; k < numTouched; k++) if(s.count[s.touched[k]] >= MIN_LEAF_SIZE) largeBranches++;
+		if(largeBranches < 2){
+			for(int k = 0; k < numTouched; k++) s.count[s.touched[k]] = 0;
+			return -1;
+		}
+
+		// group the rows in the buffer, in the order the values were first seen
+		int position = from;
+		for(int k = 0; k < numTouched; k++){
+			int slot = s.touched[k];
+			s.next[slot] = position;
+			position += s.count[slot];
+		}
+		for(int k = from; k < to; k++){
+			int row = rows[k];
+			s.buffer[s.next[column[row] + 1]++] = row;
+		}
+
+		double n = to - from;
+		double childTerms = 0;
+		double splitInfo = 0;
+		int start = from;
+		for(int k = 0; k < numTouched; k++){
+			int slot = s.touched[k];
+			int size = s.count[slot];
+			for(int t = 0; t < targets.length; t++) childTerms += targetTerm(t, s.buffer, start, start + size, s, null, null);
+			splitInfo -= (size / n) * log2(size / n);
+			start += size;
+			s.count[slot] = 0;
+		}
+
+		double parentTerm = 0;
+		for(double term : parentTerms) parentTerm += term;
+		double score = (parentTerm - childTerms) / n;
+		if(heuristic == HeuristicType.GainRatio) score = splitInfo > EPSILON ? score / splitInfo : -1;
+		return score;
+	}
+
+	/**
+	 * Returns the score of the best threshold of numeric feature f over rows[from, to), and sets it in thresholds.
+	 * The rows left and right of every threshold are scored in a forward and a backward sweep over the values.
+	 */
+	private double scoreThresholds(int f, int from, int to, double[] parentTerms, Scratch s, double[] thresholds){
+		// the rows in s.buffer in the order of their values, missing ones first
+		int[] starts = groupInto(f, from, to, s);
+		int[] column = featureColumns[f];
+		int first = column[s.buffer[from]] == EncodedTable.MISSING ? 1 : 0;
+		int numGroups = starts.length - 1;
+		if(numGroups - first < 2) return -1;
+		int missingEnd = starts[first];
+
+		// impurity of the values left of every threshold, the threshold before group g
+		clearSweep(s);
+		for(int g = first; g < numGroups - 1; g++){
+			for(int k = starts[g]; k < starts[g + 1]; k++) add(s.buffer[k], s);
+			s.leftTerms[g + 1] = sweepTerm(s);
+		}
+		clearCounts(s.buffer, missingEnd, to, s);
+
+		double missingTerm = 0;
+		for(int t = 0; t < targets.length && missingEnd > from; t++) missingTerm += targetTerm(t, s.buffer, from, missingEnd, s, null, null);
+		double parentTerm = 0;
+		for(double term : parentTerms) parentTerm += term;
+
+		double n = to - from;
+		double best = -1;
+		clearSweep(s);
+		for(int g = numGroups - 1; g > first; g--){
+			for(int k = starts[g]; k < starts[g + 1]; k++) add(s.buffer[k], s);
+			int left = starts[g] - missingEnd;
+			int right = to - starts[g];
+			if(left < MIN_LEAF_SIZE || right < MIN_LEAF_SIZE) continue;
+
+			double score = (parentTerm - (s.leftTerms[g] + sweepTerm(s) + missingTerm)) / n;
+			if(heuristic == HeuristicType.GainRatio){
+				double splitInfo = -(left / n) * log2(left / n) - (right / n) * log2(right / n) - ((missingEnd - from) / n) * log2((missingEnd - from) / n);
+				score = splitInfo > EPSILON ? score / splitInfo : -1;
+			}
+			if(score > best){
+				best = score;
+				// halfway between the largest value on the left and the smallest on the right
+				thresholds[f] = (featureValues[f][column[s.buffer[starts[g] - 1]]] + featureValues[f][column[s.buffer[starts[g]]]]) / 2;
+			}
+		}
+		clearCounts(s.buffer, missingEnd, to, s);
+		return best;
+	}
+
+	private void clearSweep(Scratch s){
+		Arrays.fill(s.sweepRows, 0);
+		Arrays.fill(s.sweepSum, 0);
+		Arrays.fill(s.sweepMax, 0);
+	}
+
+	/**
+	 * Adds a row to the target histograms of a sweep, updating the impurity of every target.
+	 */
+	private void add(int row, Scratch s){
+		for(int t = 0; t < targets.length; t++){
+			int code = targetColumns[t][row];
+			if(code == EncodedTable.MISSING) continue;
+			int c = s.targetCount[t][code]++;
+			s.sweepRows[t]++;
+			switch(impurity){
+			case ENTROPY:
+				s.sweepSum[t] += (c + 1) * log2(c + 1) - c * log2(c);
+				break;
+			case GINI:
+				s.sweepSum[t] += 2 * c + 1;
+				break;
+			case ERROR:
+				s.sweepMax[t] = Math.max(s.sweepMax[t], c + 1);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the impurity term of the rows added to a sweep, as targetTerm() over the same rows.
+	 */
+	private double sweepTerm(Scratch s){
+		double term = 0;
+		for(int t = 0; t < targets.length; t++){
+			int m = s.sweepRows[t];
+			switch(impurity){
+			case ENTROPY:
+				term += m * log2(m) - s.sweepSum[t];
+				break;
+			case GINI:
+				term += m == 0 ? 0 : m - s.sweepSum[t] / m;
+				break;
+			case ERROR:
+				term += m - s.sweepMax[t];
+				break;
+			}
+		}
+		return term;
+	}
+
+	/**
+	 * Zeroes the target histograms of the rows[from, to) added to a sweep.
+	 */
+	private void clearCounts(int[] rows, int from, int to, Scratch s){
+		for(int t = 0; t < targets.length; t++){
+			int[] column = targetColumns[t];
+			int[] count = s.targetCount[t];
+			for(int k = from; k < to; k++) if(column[rows[k]] != EncodedTable.MISSING) count[column[rows[k]]] = 0;
+		}
+	}
+
+	/**
+	 * Reorders rows[from, to) by the values of feature f, in increasing code order, or value order for a numeric
+	 * feature, missing values first.
+	 * @return the start of every group, followed by to
+	 */
+	private int[] group(int f, int from, int to, Scratch s){
+		int[] starts = groupInto(f, from, to, s);
+		System.arraycopy(s.buffer, from, rows, from, to - from);
+		return starts;
+	}
+
+	/**
+	 * Same as group(), into s.buffer.
+	 */
+	private int[] groupInto(int f, int from, int to, Scratch s){
+		int[] column = featureColumns[f];
+		int numTouched = 0;
+		for(int k = from; k < to; k++){
+			int slot = slot(f, column[rows[k]]);
+			if(s.count[slot]++ == 0) s.touched[numTouched++] = slot;
+		}
+		Arrays.sort(s.touched, 0, numTouched);
+
+		int[] starts = new int[numTouched + 1];
+		int position = from;
+		for(int k = 0; k < numTouched; k++){
+			int slot = s.touched[k];
+			starts[k] = position;
+			s.next[slot] = position;
+			position += s.count[slot];
+			s.count[slot] = 0;
+		}
+		starts[numTouched] = to;
+
+		for(int k = from; k < to; k++){
+			int row = rows[k];
+			s.buffer[s.next[slot(f, column[row])]++] = row;
+		}
+		return starts;
+	}
+
+	private static double log2(double x){
+		return x <= 0 ? 0 : Math.log(x) / Math.log(2);
+	}
+
+	/**
+	 * Predicts the targets of a row. The table must share the dictionaries of the training data,
+	 * e.g. loaded with EncodedTable.load(dataInput, training).
+	 * @param t
+	 * @param row
+	 * @return predicted code of every target, in the order of getTargets()
+	 */
+	public int[] predict(EncodedTable t, int row){
+		Node node = root;
+		while(node.feature >= 0){
+			int code = t.code(row, node.feature);
+			int b;
+			if(node.values != null) b = Arrays.binarySearch(node.values, code);
+			else if(code != EncodedTable.MISSING) b = Double.parseDouble(t.dictionary(node.feature).label(code)) <= node.threshold ? 0 : 1;
+			else b = node.children.length > 2 ? 2 : -1;
+			// a value not seen while training stops at the node
+			if(b < 0) break;
+			node = node.children[b];
+		}
+		return node.prediction;
+	}
+
+	/**
+	 * Returns the attributes the tree predicts
+	 */
+	public int[] getTargets(){
+		return targets.clone();
+	}
+
+	/**
+	 * Returns the number of nodes
+	 */
+	public int numNodes(){
+		return numNodes(root);
+	}
+
+	/**
+	 * Returns the number of leaves
+	 */
+	public int numLeaves(){
+		return numLeaves(root);
+	}
+
+	/**
+	 * Returns the depth of the deepest leaf, the root having depth 0
+	 */
+	public int depth(){
+		return depth(root);
+	}
+
+	private static int numNodes(Node node){
+		int n = 1;
+		if(node.children != null) for(Node child : node.children) n += numNodes(child);
+		return n;
+	}
+
+	private static int numLeaves(Node node){
+		if(node.children == null) return 1;
+		int n = 0;
+		for(Node child : node.children) n += numLeaves(child);
+		return n;
+	}
+
+	private static int depth(Node node){
+		int depth = 0;
+		if(node.children != null) for(Node child : node.children) depth = Math.max(depth, 1 + depth(child));
+		return depth;
+	}
+
+	/**
+	 * Returns a summary of the tree
+	 */
+	public String toSummaryString(EncodedTable t){
+		StringBuilder summary = new StringBuilder();
+		summary.append("Targets: ");
+		for(int att : targets) summary.append(t.getHeader().attribute(att).name()).append(", ");
+		summary.delete(summary.length() - 2, summary.length());
+		summary.append("\nHeuristic: ").append(heuristic);
+		summary.append("\nNodes: ").append(numNodes()).append(", leaves: ").append(numLeaves()).append(", depth: ").append(depth());
+		if(root.feature >= 0) summary.append("\nRoot split: ").append(t.getHeader().attribute(root.feature).name()).append(" (").append(root.children.length).append(" branches)");
+		return summary.append("\n").toString();
+	}
+}
@@ -0,0 +1,167 @@
+package DTCleaner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import weka.core.Utils;
+
+/**
+ * Builds the model of a Clus setting file with MultiTargetTree instead of Clus, and writes the predictions for the
+ * test set in the layout of Clus (<name>.test.pred.arff: the actual target values, then the predicted ones), so that
+ * it can replace Clus in DTCleaner.makeModel and replaceByPredictions.
+ *
+ * The [Data] File, TestSet, [Attributes] Target and [Tree] Heuristic settings are used; every other attribute is a
+ * feature. Datasets are read once per trainer, since the models of a run share them (see ArtifactStore).
+ */
+public class NativeTrainer implements ModelTrainer {
+
+	private ForkJoinPool pool;
+	// datasets read so far, by file name
+	private ConcurrentHashMap<String, EncodedTable> tables = new ConcurrentHashMap<String, EncodedTable>();
+
+	/**
+	 * @param parallelism: number of threads used to learn a tree
+	 */
+	public NativeTrainer(int parallelism){
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Stops the worker threads. The trainer can't be used afterwards.
+	 */
+	public void shutdown(){
+		pool.shutdown();
+	}
+
+	public String train(String settingFile) throws IOException {
+		String trainFile = null;
+		String testFile = null;
+		String targetList = null;
+		HeuristicType heuristic = HeuristicType.Default;
+
+		BufferedReader br = new BufferedReader(new FileReader(settingFile));
+		try {
+			String line;
+			while((line = br.readLine()) != null){
+				int eq = line.indexOf('=');
+				if(eq < 0 || line.startsWith("%")) continue;
+				String key = line.substring(0, eq).trim();
+				String value = line.substring(eq + 1).trim();
+				if(key.equals("File")) trainFile = value;
+				else if(key.equals("TestSet")) testFile = value;
+				else if(key.equals("Target")) targetList = value;
+				else if(key.equals("Heuristic")) heuristic = HeuristicType.valueOf(value);
+			}
+		} finally {
+			br.close();
+		}
+		if(trainFile == null || testFile == null || targetList == null) throw new IOException("File, TestSet and Target must be set in " + settingFile);
+
+		long start = System.nanoTime();
+		EncodedTable train = table(trainFile, null);
+		// the test set shares the dictionaries of the train set, so that the tree can compare their codes
+		EncodedTable test = table(testFile, trainFile);
+
+		// targets are numbered from 1 in the setting file
+		TreeSet<Integer> targetSet = new TreeSet<Integer>();
+		for(int att : FDUtility.parseAttributes(targetList)) targetSet.add(att - 1);
+		int[] targets = Util.convertIntegers(new ArrayList<Integer>(targetSet));
+		int[] features = new int[train.numAttributes() - targets.length];
+		int f = 0;
+		for(int att = 0; att < train.numAttributes(); att++) if(!targetSet.contains(att)) features[f++] = att;
+
+		MultiTargetTree tree;
+		try {
+			tree = new MultiTargetTree(train, targets, features, heuristic, pool);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		long elapsedTime = System.nanoTime() - start;
+
+		String base = settingFile.endsWith(".s") ? settingFile.substring(0, settingFile.length() - 2) : settingFile;
+		writePredictions(tree, test, base + ".test.pred.arff");
+
+		String output = "Native multi-target tree for " + settingFile + "\n" + tree.toSummaryString(train)
+				+ "Train set: " + trainFile + " (" + train.numRows() + " rows), test set: " + testFile + " (" + test.numRows() + " rows)\n"
+				+ "Induction time: " + elapsedTime / 1000000 + " ms\n";
+		Writer out = new BufferedWriter(new FileWriter(base + ".out"));
+		try {
+			out.write(output);
+		} finally {
+			out.close();
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the dataset of a file, reading it the first time.
+	 * @param file
+	 * @param referenceFile: dataset to share dictionaries with, or null
+	 */
+	private EncodedTable table(String file, String referenceFile) throws IOException {
+		String key = referenceFile == null ? file : file + "\n" + referenceFile;
+		EncodedTable t = tables.get(key);
+		if(t != null) return t;
+		try {
+			t = EncodedTable.load(file, referenceFile == null ? null : table(referenceFile, null));
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Couldn't read " + file, e);
+		}
+		EncodedTable previous = tables.putIfAbsent(key, t);
+		return previous != null ? previous : t;
+	}
+
+	/**
+	 * Writes the actual and predicted target values of every row of test, in the layout of Clus.
+	 * @param tree
+	 * @param test
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void writePredictions(MultiTargetTree tree, EncodedTable test, String filename) throws IOException {
+		int[] targets = tree.getTargets();
+		Writer out = new BufferedWriter(new FileWriter(filename));
+		try {
+			out.write("@RELATION " + Utils.quote(test.getHeader().relationName()) + "\n\n");
+			for(String prefix : new String[]{"", "Original-p-"}){
+				for(int att : targets) out.write("@ATTRIBUTE " + Utils.quote(prefix + test.getHeader().attribute(att).name()) + " " + type(test.dictionary(att)) + "\n");
+			}
+			out.write("@ATTRIBUTE Original-models string\n\n@DATA\n");
+
+			StringBuilder line = new StringBuilder();
+			for(int row = 0; row < test.numRows(); row++){
+				line.setLength(0);
+				int[] prediction = tree.predict(test, row);
+				for(int k = 0; k < targets.length; k++) line.append(label(test.dictionary(targets[k]), test.code(row, targets[k]))).append(',');
+				for(int k = 0; k < targets.length; k++) line.append(label(test.dictionary(targets[k]), prediction[k])).append(',');
+				line.append("?\n");
+				out.write(line.toString());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String type(ValueDictionary dictionary){
+		if(dictionary.isNumeric()) return "numeric";
+		StringBuilder values = new StringBuilder("{");
+		for(int code = 0; code < dictionary.size(); code++) values.append(Utils.quote(dictionary.label(code))).append(',');
+		if(values.length() > 1) values.deleteCharAt(values.length() - 1);
+		return values.append('}').toString();
+	}
+
+	private static String label(ValueDictionary dictionary, int code){
+		if(code == EncodedTable.MISSING) return "?";
+		return dictionary.isNumeric() ? dictionary.label(code) : Utils.quote(dictionary.label(code));
+	}
+}
@@ -0,0 +1,433 @@
+package DTCleaner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Multi-core CFD and FD violation detection, and FD satisfaction checking.
+ *
+ * The rows of the table are split into chunks that are scanned on a ForkJoinPool, and the per-chunk
+ * results are merged. The result is the same violatedTuples as the sequential detection
+ * (CFDUtility.returnViolatedTuples and FDUtility.returnViolatedTuples).
+ */
+public class ParallelDetector {
+
+	// default number of rows scanned by a single task
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	private ForkJoinPool pool;
+	private int chunkSize;
+
+	/**
+	 * @param parallelism: number of worker threads, e.g. Runtime.getRuntime().availableProcessors()
+	 */
+	public ParallelDetector(int parallelism){
+		this(parallelism, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param parallelism: number of worker threads
+	 * @param chunkSize: number of rows scanned by a single task
+	 */
+	public ParallelDetector(int parallelism, int chunkSize){
+		if(chunkSize < 1) throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+		this.pool = new ForkJoinPool(parallelism);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the number of worker threads
+	 */
+	public int getParallelism(){
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Stops the worker threads. The detector can't be used afterwards.
+	 */
+	public void shutdown(){
+		pool.shutdown();
+	}
+
+	/**
+	 * Finds and returns a list of tuples that violates the CFDs
+	 * @param t
+	 * @param CFDs
+	 * @return v, violations: Violated instances in weka instances format, and the tuples violating every CFD
+	 */
+	public violatedTuples returnViolatedTuples(EncodedTable t, Multiset<CFD> CFDs){
+		ViolationSet violations = returnViolatedTupleIDs(new EncodedCFDIndex(new CFDIndex(CFDs), t));
+		return new violatedTuples(t.toInstances(violations.violatingRows().toArray()), violations);
+	}
+
+	/**
+	 * Finds the tuples of the table bound to index that violate its CFDs.
+	 * @param index
+	 * @return the tuples violating every CFD
+	 */
+	public ViolationSet returnViolatedTupleIDs(EncodedCFDIndex index){
+		EncodedTable t = index.getTable();
+		ViolationSet violations = pool.invoke(new CFDTask(index, 0, t.numRows()));
+
+		// report in row order, the same as the sequential detection
+		RowBitmap rows = violations.violatingRows();
+		Report.get().violatingRows(t, violations, rows);
+		System.out.println("Found: "+ rows.cardinality() + " violating tuples.");
+
+		return violations;
+	}
+
+	/**
+	 * Scans the rows [from, to) of the table bound to index, splitting the range until it's no larger than a chunk.
+	 */
+	private class CFDTask extends RecursiveTask<ViolationSet> {
+		private static final long serialVersionUID = 1L;
+
+		private EncodedCFDIndex index;
+		private int from;
+		private int to;
+
+		CFDTask(EncodedCFDIndex index, int from, int to){
+			this.index = index;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected ViolationSet compute(){
+			if(to - from <= chunkSize){
+				ViolationSet violations = index.newViolationSet();
+				EncodedTable t = index.getTable();
+				CodeKey[] probes = index.probes();
+				for(int j = from; j < to; j++) index.addViolations(t, j, probes, violations);
+				return violations;
+			}
+
+			int middle = (from + to) >>> 1;
+			CFDTask left = new CFDTask(index, from, middle);
+			CFDTask right = new CFDTask(index, middle, to);
+			right.fork();
+			ViolationSet merged = left.compute();
+
+			// chunks hold disjoint rows, the bitmaps of every CFD are merged block by block
+			merged.addAll(right.join());
+			return merged;
+		}
+	}
+
+	/**
+	 * Finds and returns a list of tuples that violates the FDs.
+	 *
+	 * The partition of every premise attribute is built in parallel: every chunk counts its rows per value, the
+	 * counts are reconciled across chunks, and every chunk then places its rows into the slot of their value.
+	 * The FDs are then checked at the same time, one task per FD, against the product of their premise partitions.
+	 * The result is the same as FDUtility.returnViolatedTuples.
+	 * @param t
+	 * @param FDs
+	 * @return v, violations: Violated instances in weka instances format, and the tuples violating every FD
+	 */
+	public violatedTuples returnViolatedTuples(EncodedTable t, HashMap<String, String[]> FDs){
+		//Holds the tuple indexes violating every FD
+		ViolationSet violations = new ViolationSet(FDUtility.FDRules(t.getHeader(), FDs));
+
+		System.out.println("\nFinding violated tuples...\n");
+
+		// partitions by a single attribute, shared by the FDs with that attribute in their premise
+		HashMap<Integer, StrippedPartition> partitions = new HashMap<Integer, StrippedPartition>();
+		List<FDTask> tasks = new ArrayList<FDTask>(FDs.size());
+		for(String premiseID : FDs.keySet()){
+			int[] premise = FDUtility.parseAttributes(premiseID);
+			StrippedPartition[] premisePartitions = new StrippedPartition[premise.length];
+			for(int k = 0; k < premise.length; k++){
+				StrippedPartition p = partitions.get(premise[k]);
+				if(p == null){
+					p = groupByPremise(t, premise[k]);
+					partitions.put(premise[k], p);
+				}
+				premisePartitions[k] = p;
+			}
+
+			tasks.add(new FDTask(t, premisePartitions, FDUtility.parseAttributes(FDs.get(premiseID))));
+		}
+		pool.invoke(new InvokeAll(new ArrayList<ForkJoinTask<?>>(tasks)));
+
+		for(int rule = 0; rule < tasks.size(); rule++) violations.add(rule, tasks.get(rule).getRawResult());
+
+		RowBitmap rows = violations.violatingRows();
+		Report.get().violatingRows(t, violations, rows);
+		System.out.println("Found: "+ rows.cardinality() + " violating tuples.");
+
+		return new violatedTuples(t.toInstances(rows.toArray()), violations);
+	}
+
+	/**
+	 * Finds the tuples violating a single FD.
+	 */
+	private static class FDTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private EncodedTable t;
+		private StrippedPartition[] premise;
+		private int[] rhs;
+
+		FDTask(EncodedTable t, StrippedPartition[] premise, int[] rhs){
+			this.t = t;
+			this.premise = premise;
+			this.rhs = rhs;
+		}
+
+		protected int[] compute(){
+			StrippedPartition partition = premise[0];
+			for(int k = 1; k < premise.length; k++) partition = partition.product(premise[k]);
+			return partition.violatingRows(t, rhs);
+		}
+	}
+
+	/**
+	 * Checks whether the table satisfies all FDs.
+	 *
+	 * All FDs are checked at the same time: every (FD, chunk) pair is a task, and the tasks of an FD share a
+	 * ConcurrentHashMap from the premise value, packed into a single key, to the first row seen with it.
+	 * As soon as any task finds two rows with the same premise value and different RHS values every task stops.
+	 * @param t
+	 * @param FDs
+	 * @return true if the table satisfies all FDs, otherwise false.
+	 */
+	public boolean checkFDSatisfaction(EncodedTable t, HashMap<String, String[]> FDs){
+		System.out.println("\nChecking FD satisfaction...\n");
+
+		int numRows = t.numRows();
+		AtomicReference<Counterexample> counterexample = new AtomicReference<Counterexample>();
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for(String premiseID : FDs.keySet()){
+			String [] rhsIDs = FDs.get(premiseID);
+			SatisfactionState state = new SatisfactionState(t, premiseID, FDUtility.parseAttributes(premiseID), FDUtility.parseAttributes(rhsIDs), rhsIDs);
+			for(int from = 0; from < numRows; from += chunkSize){
+				tasks.add(new SatisfactionTask(state, from, Math.min(numRows, from + chunkSize), counterexample));
+			}
+		}
+		pool.invoke(new InvokeAll(tasks));
+
+		Counterexample found = counterexample.get();
+		if(found == null) return true;
+
+		System.out.println("The following pair violate the FD " + FDUtility.FDName(t.getHeader(), found.state.premiseID, found.state.rhsIDs) + ":");
+		System.out.println(t.rowToString(found.row));
+		System.out.println(t.rowToString(found.other) + "\n");
+		return false;
+	}
+
+	/**
+	 * The rows seen so far by the tasks of a single FD, by premise value.
+	 * A premise over a single attribute is keyed by its code. A premise over several attributes is packed into a
+	 * Long when the product of the dictionary sizes fits, and into a CodeKey otherwise.
+	 */
+	private static class SatisfactionState {
+		final EncodedTable t;
+		final String premiseID;
+		final String[] rhsIDs;
+		final int[][] premise;
+		final int[][] rhs;
+		// radix of every premise attribute for packing into a Long, null if the values don't fit
+		final long[] radix;
+		final ConcurrentHashMap<Object, Integer> firstRows = new ConcurrentHashMap<Object, Integer>();
+
+		SatisfactionState(EncodedTable t, String premiseID, int[] premise, int[] rhs, String[] rhsIDs){
+			this.t = t;
+			this.premiseID = premiseID;
+			this.rhsIDs = rhsIDs;
+			this.premise = new int[premise.length][];
+			for(int k = 0; k < premise.length; k++) this.premise[k] = t.column(premise[k]);
+			this.rhs = new int[rhs.length][];
+			for(int k = 0; k < rhs.length; k++) this.rhs[k] = t.column(rhs[k]);
+
+			// codes range from MISSING (-1) to size-1, i.e. size+1 values per attribute
+			long[] radix = new long[premise.length];
+			long range = 1;
+			for(int k = 0; k < premise.length && radix != null; k++){
+				radix[k] = range;
+				long values = t.dictionary(premise[k]).size() + 1;
+				if(range > Long.MAX_VALUE / values) radix = null;
+				else range *= values;
+			}
+			this.radix = radix;
+		}
+
+		Object key(int row){
+			if(premise.length == 1) return premise[0][row];
+
+			if(radix != null){
+				long key = 0;
+				for(int k = 0; k < premise.length; k++) key += (premise[k][row] + 1) * radix[k];
+				return key;
+			}
+
+			int[] codes = new int[premise.length];
+			for(int k = 0; k < premise.length; k++) codes[k] = premise[k][row];
+			return new CodeKey(codes);
+		}
+
+		boolean sameRHS(int row, int other){
+			for(int[] column : rhs) if(column[row] != column[other]) return false;
+			return true;
+		}
+	}
+
+	/**
+	 * Two rows with the same premise value and different RHS values.
+	 */
+	private static class Counterexample {
+		final SatisfactionState state;
+		final int row;
+		final int other;
+
+		Counterexample(SatisfactionState state, int row, int other){
+			this.state = state;
+			this.row = row;
+			this.other = other;
+		}
+	}
+
+	/**
+	 * Checks the rows [from, to) against a single FD, until a counterexample is found by any task.
+	 */
+	private static class SatisfactionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private SatisfactionState state;
+		private int from, to;
+		private AtomicReference<Counterexample> counterexample;
+
+		SatisfactionTask(SatisfactionState state, int from, int to, AtomicReference<Counterexample> counterexample){
+			this.state = state;
+			this.from = from;
+			this.to = to;
+			this.counterexample = counterexample;
+		}
+
+		protected void compute(){
+			for(int j = from; j < to; j++){
+				if(counterexample.get() != null) return;
+
+				Integer first = state.firstRows.putIfAbsent(state.key(j), j);
+				if(first != null && !state.sameRHS(j, first)){
+					counterexample.compareAndSet(null, new Counterexample(state, j, first));
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Groups the rows of the table by their code on premise, in parallel, and strips the groups of a single row.
+	 *
+	 * Every chunk counts its rows per premise value in an array as large as the dictionary, so with many values the
+	 * chunks are made larger, keeping the counts within the size of the column. A premise with about as many values
+	 * as rows, e.g. a key, is grouped on a single thread.
+	 */
+	private StrippedPartition groupByPremise(EncodedTable t, int premise){
+		int numRows = t.numRows();
+		// slot 0 holds missing values, slot code+1 holds code
+		int numSlots = t.dictionary(premise).size() + 1;
+		int numChunks = Math.max(1, (numRows + chunkSize - 1) / chunkSize);
+		numChunks = (int) Math.min(numChunks, numRows / (long) numSlots);
+		if(numChunks <= 1) return StrippedPartition.of(t, premise);
+		int rowsPerChunk = (numRows + numChunks - 1) / numChunks;
+
+		final int[][] counts = new int[numChunks][];
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(numChunks);
+		for(int c = 0; c < numChunks; c++){
+			tasks.add(new CountTask(t.column(premise), c * rowsPerChunk, Math.min(numRows, (c + 1) * rowsPerChunk), numSlots, counts, c));
+		}
+		pool.invoke(new InvokeAll(tasks));
+
+		// reconcile the chunks: offsets[c][slot] is where chunk c writes its first row with that premise value
+		int[] starts = new int[numSlots + 1];
+		int[][] offsets = new int[numChunks][numSlots];
+		int position = 0;
+		for(int slot = 0; slot < numSlots; slot++){
+			starts[slot] = position;
+			for(int c = 0; c < numChunks; c++){
+				offsets[c][slot] = position;
+				position += counts[c][slot];
+			}
+		}
+		starts[numSlots] = position;
+
+		int[] rows = new int[numRows];
+		tasks.clear();
+		for(int c = 0; c < numChunks; c++){
+			tasks.add(new ScatterTask(t.column(premise), c * rowsPerChunk, Math.min(numRows, (c + 1) * rowsPerChunk), offsets[c], rows));
+		}
+		pool.invoke(new InvokeAll(tasks));
+
+		return StrippedPartition.strip(rows, starts, numRows);
+	}
+
+	private static class InvokeAll extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private List<ForkJoinTask<?>> tasks;
+
+		InvokeAll(List<ForkJoinTask<?>> tasks){
+			this.tasks = tasks;
+		}
+
+		protected void compute(){
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Counts the rows [from, to) per premise value.
+	 */
+	private static class CountTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int[] column;
+		private int from, to, numSlots, chunk;
+		private int[][] counts;
+
+		CountTask(int[] column, int from, int to, int numSlots, int[][] counts, int chunk){
+			this.column = column;
+			this.from = from;
+			this.to = to;
+			this.numSlots = numSlots;
+			this.counts = counts;
+			this.chunk = chunk;
+		}
+
+		protected void compute(){
+			int[] count = new int[numSlots];
+			for(int j = from; j < to; j++) count[column[j] + 1]++;
+			counts[chunk] = count;
+		}
+	}
+
+	/**
+	 * Writes the rows [from, to) into the slots of their premise values.
+	 */
+	private static class ScatterTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int[] column, offsets, rows;
+		private int from, to;
+
+		ScatterTask(int[] column, int from, int to, int[] offsets, int[] rows){
+			this.column = column;
+			this.from = from;
+			this.to = to;
+			this.offsets = offsets;
+			this.rows = rows;
+		}
+
+		protected void compute(){
+			int[] next = offsets.clone();
+			for(int j = from; j < to; j++) rows[next[column[j] + 1]++] = j;
+		}
+	}
+}
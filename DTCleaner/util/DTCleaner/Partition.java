@@ -0,0 +1,98 @@
+package DTCleaner;
+
+/**
+ * The split of a dataset into its clean and violating tuples.
+ *
+ * The ids of both parts are found in a single pass over the rows, keeping the order of the dataset: every row of a
+ * part keeps its original id, its row index in the dataset. The ids put repaired tuples back in their place with
+ * merge(), and align them with the ground truth (see GroundTruthEvaluator).
+ *
+ * Each part is only copied out of the dataset when it's first asked for, and the dataset is let go once both are,
+ * so the dataset and both of its copies aren't held at the same time until they're all needed.
+ */
+public class Partition {
+
+	private int numRows;
+	// the dataset, until both parts are made
+	private EncodedTable table;
+	private EncodedTable clean;
+	private EncodedTable violating;
+	// original id of every row of clean and violating, in ascending order
+	private int[] cleanIds;
+	private int[] violatingIds;
+
+	/**
+	 * Splits a dataset. The parts share the dictionaries of table, which isn't modified.
+	 * @param table: the dataset
+	 * @param rows: the violating rows of table
+	 */
+	public Partition(EncodedTable table, RowBitmap rows){
+		numRows = table.numRows();
+		violatingIds = rows.toArray();
+		cleanIds = new int[numRows - violatingIds.length];
+
+		// the clean rows are the gaps between the violating rows, which are sorted
+		int c = 0;
+		int next = 0;
+		for(int row = 0; row < numRows; row++){
+			if(next < violatingIds.length && violatingIds[next] == row) next++;
+			else cleanIds[c++] = row;
+		}
+		if(next != violatingIds.length) throw new IllegalArgumentException("Violating row " + violatingIds[next] + " out of the " + numRows + " rows of the table");
+		this.table = table;
+	}
+
+	/**
+	 * Returns the number of rows of the dataset
+	 */
+	public int numRows(){
+		return numRows;
+	}
+
+	/**
+	 * Returns the tuples satisfying the rules, in the order of the dataset
+	 */
+	public EncodedTable clean(){
+		if(clean == null){
+			clean = table.select(cleanIds);
+			if(violating != null) table = null;
+		}
+		return clean;
+	}
+
+	/**
+	 * Returns the violating tuples, in the order of the dataset
+	 */
+	public EncodedTable violating(){
+		if(violating == null){
+			violating = table.select(violatingIds);
+			if(clean != null) table = null;
+		}
+		return violating;
+	}
+
+	/**
+	 * Returns the original id of every clean tuple. Not to be modified.
+	 */
+	public int[] cleanIds(){
+		return cleanIds;
+	}
+
+	/**
+	 * Returns the original id of every violating tuple. Not to be modified.
+	 */
+	public int[] violatingIds(){
+		return violatingIds;
+	}
+
+	/**
+	 * Puts the violating tuples, e.g. after their repair, back in their place among the clean tuples.
+	 * @param repaired: the violating tuples in the order of violating(), sharing its dictionaries
+	 * @return the whole dataset
+	 */
+	public EncodedTable merge(EncodedTable repaired){
+		if(repaired.numRows() != violatingIds.length)
+			throw new IllegalArgumentException("Expected " + violatingIds.length + " violating tuples, got " + repaired.numRows());
+		return EncodedTable.merge(new EncodedTable[]{clean(), repaired}, new int[][]{cleanIds, violatingIds});
+	}
+}
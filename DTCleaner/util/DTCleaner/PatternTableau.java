@@ -0,0 +1,266 @@
+package DTCleaner;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Evaluates the CFDs holding wildcards, e.g. 5=_->3=_ (ZIPCode determines City), against an EncodedTable.
+ *
+ * The CFDs are grouped by embedded FD (premise attributes and RHS attribute) into pattern tableaux. The tuples are
+ * grouped by premise value in a single hash pass per tableau, and every pattern of the tableau is then checked
+ * against the groups it matches:
+ * 		a constant RHS is violated by the tuples of the group holding another RHS value,
+ * 		a wildcard RHS is violated by all tuples of a group holding more than one RHS value.
+ * Tuples with a missing premise value don't match any pattern.
+ */
+public class PatternTableau {
+
+	// code of a wildcard cell, never used by a dictionary
+	static final int ANY = -2;
+
+	private EncodedTable table;
+	// tableaux, in the order their embedded FD was first seen in the CFDs
+	private List<Tableau> tableaux;
+	// number of CFDs in the tableaux
+	private int size;
+	// all CFDs, the order of a pattern is its index in this list
+	private List<CFD> cfds;
+
+	/**
+	 * A single CFD with its constants encoded.
+	 */
+	private static class Pattern {
+		// position of the CFD when iterating the CFDs, i.e. its rule index in a ViolationSet
+		final int order;
+		// premise codes, ordered as the attributes of the tableau
+		final int[] premise;
+		final int rhs;
+		final boolean constantPremise;
+
+		Pattern(int order, int[] premise, int rhs){
+			this.order = order;
+			this.premise = premise;
+			this.rhs = rhs;
+
+			boolean constant = true;
+			for(int code : premise) if(code == ANY) constant = false;
+			this.constantPremise = constant;
+		}
+
+		boolean matches(CodeKey key){
+			for(int k = 0; k < premise.length; k++){
+				if(premise[k] != ANY && premise[k] != key.get(k)) return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The CFDs sharing an embedded FD.
+	 */
+	private static class Tableau {
+		final int[] premise;
+		final int rhs;
+		final List<Pattern> patterns = new ArrayList<Pattern>();
+
+		Tableau(int[] premise, int rhs){
+			this.premise = premise;
+			this.rhs = rhs;
+		}
+	}
+
+	/**
+	 * Tuples sharing a premise value.
+	 */
+	private static class Group {
+		int[] rows = new int[2];
+		int size;
+		int firstRHS;
+		// true if the tuples hold more than one RHS value
+		boolean mixed;
+
+		void add(int row, int rhs){
+			if(size == 0) firstRHS = rhs;
+			else if(rhs != firstRHS) mixed = true;
+
+			if(size == rows.length){
+				int[] grown = new int[rows.length * 2];
+				System.arraycopy(rows, 0, grown, 0, size);
+				rows = grown;
+			}
+			rows[size++] = row;
+		}
+	}
+
+	/**
+	 * Builds the tableaux of the CFDs holding wildcards. Constant CFDs are left to CFDIndex.
+	 * Constants that don't occur in the table are added to its dictionaries.
+	 * @param CFDs
+	 * @param table
+	 */
+	public PatternTableau(Multiset<CFD> CFDs, EncodedTable table){
+		this.table = table;
+		this.cfds = new ArrayList<CFD>(CFDs);
+		LinkedHashMap<List<Integer>, Tableau> byFD = new LinkedHashMap<List<Integer>, Tableau>();
+
+		int order = 0;
+		for(CFD cfd : CFDs){
+			if(cfd.isConstant()){
+				order++;
+				continue;
+			}
+
+			// sort the premise by attribute index so that the same embedded FD always gives the same key
+			List<SimpleImmutableEntry<Integer, String>> premise = new ArrayList<SimpleImmutableEntry<Integer, String>>(cfd.getPremise());
+			Collections.sort(premise, new Comparator<SimpleImmutableEntry<Integer, String>>() {
+				public int compare(SimpleImmutableEntry<Integer, String> a, SimpleImmutableEntry<Integer, String> b) {
+					return a.getKey().compareTo(b.getKey());
+				}
+			});
+
+			List<Integer> key = new ArrayList<Integer>(premise.size() + 1);
+			int[] codes = new int[premise.size()];
+			for(int k = 0; k < codes.length; k++){
+				SimpleImmutableEntry<Integer, String> lhs = premise.get(k);
+				key.add(lhs.getKey());
+				codes[k] = encode(lhs.getKey(), lhs.getValue());
+			}
+			int rhsAttribute = cfd.getRHS().getKey();
+			key.add(rhsAttribute);
+
+			Tableau tableau = byFD.get(key);
+			if(tableau == null){
+				tableau = new Tableau(Util.convertIntegers(key.subList(0, codes.length)), rhsAttribute);
+				byFD.put(key, tableau);
+			}
+			tableau.patterns.add(new Pattern(order++, codes, encode(rhsAttribute, cfd.getRHS().getValue())));
+			size++;
+		}
+
+		tableaux = new ArrayList<Tableau>(byFD.values());
+	}
+
+	private int encode(int attribute, String value){
+		if(value.equals(CFD.WILDCARD)) return ANY;
+		return table.dictionary(attribute).intern(value);
+	}
+
+	/**
+	 * Returns the number of tableaux, i.e. the number of passes over the table.
+	 * @return number of tableaux
+	 */
+	public int numTableaux(){
+		return tableaux.size();
+	}
+
+	/**
+	 * Returns the number of CFDs in the tableaux.
+	 * @return size
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Finds the tuples violating the CFDs of the tableaux.
+	 * @return the tuples violating every CFD, indexed as the CFDs
+	 */
+	public ViolationSet violations(){
+		ViolationSet violations = new ViolationSet(cfds);
+
+		for(Tableau tableau : tableaux){
+			HashMap<CodeKey, Group> groups = group(tableau);
+
+			for(Pattern pattern : tableau.patterns){
+				if(pattern.constantPremise){
+					Group group = groups.get(new CodeKey(pattern.premise));
+					if(group != null) check(tableau, pattern, group, violations);
+				}else{
+					for(Map.Entry<CodeKey, Group> entry : groups.entrySet()){
+						if(pattern.matches(entry.getKey())) check(tableau, pattern, entry.getValue(), violations);
+					}
+				}
+			}
+		}
+		return violations;
+	}
+
+	/**
+	 * Groups the tuples of the table by their premise value in a single pass.
+	 * When every pattern of the tableau has a constant premise only the groups of those premises are kept.
+	 */
+	private HashMap<CodeKey, Group> group(Tableau tableau){
+		HashSet<CodeKey> wanted = new HashSet<CodeKey>();
+		for(Pattern pattern : tableau.patterns){
+			if(!pattern.constantPremise){
+				wanted = null;
+				break;
+			}
+			wanted.add(new CodeKey(pattern.premise));
+		}
+
+		HashMap<CodeKey, Group> groups = new HashMap<CodeKey, Group>();
+		int[] premise = tableau.premise;
+		CodeKey probe = new CodeKey(premise.length);
+
+		rows:
+		for(int row = 0; row < table.numRows(); row++){
+			for(int k = 0; k < premise.length; k++){
+				int code = table.code(row, premise[k]);
+				if(code == EncodedTable.MISSING) continue rows;
+				probe.set(k, code);
+			}
+			probe.rehash();
+			if(wanted != null && !wanted.contains(probe)) continue;
+
+			Group group = groups.get(probe);
+			if(group == null){
+				int[] codes = new int[premise.length];
+				for(int k = 0; k < codes.length; k++) codes[k] = probe.get(k);
+				group = new Group();
+				groups.put(new CodeKey(codes), group);
+			}
+			group.add(row, table.code(row, tableau.rhs));
+		}
+		return groups;
+	}
+
+	private void check(Tableau tableau, Pattern pattern, Group group, ViolationSet violations){
+		if(pattern.rhs == ANY){
+			if(!group.mixed) return;
+			for(int k = 0; k < group.size; k++) violations.add(pattern.order, group.rows[k]);
+		}else{
+			for(int k = 0; k < group.size; k++){
+				int row = group.rows[k];
+				if(table.code(row, tableau.rhs) != pattern.rhs) violations.add(pattern.order, row);
+			}
+		}
+	}
+
+	/**
+	 * Adds the tuples violating the CFDs of the tableaux to violations, e.g. the result of EncodedCFDIndex.returnViolatedTupleIDs().
+	 * @param violations: made from the same CFDs
+	 * @return violations
+	 */
+	public ViolationSet returnViolatedTupleIDs(ViolationSet violations){
+		ViolationSet tableauViolations = violations();
+		RowBitmap rows = tableauViolations.violatingRows();
+
+		// report the tuples that only violate CFDs of the tableaux, the others were reported with the constant CFDs
+		RowBitmap newRows = rows.andNot(violations.violatingRows());
+		violations.addAll(tableauViolations);
+		Report.get().violatingRows(table, violations, newRows);
+
+		System.out.println("Found: "+ rows.cardinality() + " tuples violating " + size + " pattern CFDs in " + tableaux.size() + " tableaux.");
+		return violations;
+	}
+}
@@ -0,0 +1,186 @@
+package DTCleaner;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies the predictions of every model to the violating tuples in a single pass: the prediction files are read in
+ * lockstep, one row of each at a time, and the repaired values are set into a table holding the violating tuples.
+ *
+ * A cell may be a target of several models, e.g. the RHS of one group of CFDs and the premise of another. When the
+ * models disagree on such a cell, the value is chosen by the ConflictPolicy.
+ */
+public class PredictionCombiner {
+
+	/**
+	 * How the value of a cell is chosen when the models predicting it disagree.
+	 */
+	public enum ConflictPolicy {
+		// the model with the lowest number, i.e. whose premise comes first in the CFD file
+		FIRST_MODEL,
+		// the first model that has the attribute as RHS of a CFD rather than in its premise, else the first model
+		RHS_FIRST,
+		// the value most models predict, ties go to the lowest model
+		MAJORITY,
+		// the original value of the cell
+		KEEP_ORIGINAL
+	}
+
+	private ConflictPolicy policy;
+	private int conflicts;
+	private int changed;
+
+	public PredictionCombiner(ConflictPolicy policy){
+		this.policy = policy;
+	}
+
+	/**
+	 * Repairs the rows of a table with the predictions of every model.
+	 * @param t: the violating tuples, in the order of the test set of the models. Repaired in place.
+	 * @param predictionFiles: the predictions of every model, in the order of the models
+	 * @param premises: the premise attributes of every model, in the same order
+	 * @throws IOException if a file is malformed or doesn't have a row per row of t
+	 */
+	public void apply(EncodedTable t, List<String> predictionFiles, List<Set<Integer>> premises) throws IOException {
+		List<String> attributes = new ArrayList<String>(t.numAttributes());
+		for(int att = 0; att < t.numAttributes(); att++) attributes.add(t.getHeader().attribute(att).name());
+
+		int numModels = predictionFiles.size();
+		PredictionReader[] readers = new PredictionReader[numModels];
+		// candidate codes of every attribute in the current row, and the models they come from
+		int[][] candidates = new int[t.numAttributes()][numModels];
+		int[][] from = new int[t.numAttributes()][numModels];
+		int[] numCandidates = new int[t.numAttributes()];
+		// whether model m predicts attribute att as the RHS of a CFD
+		boolean[][] rhs = new boolean[numModels][t.numAttributes()];
+
+		try {
+			for(int m = 0; m < numModels; m++){
+				readers[m] = new PredictionReader(new FileReader(predictionFiles.get(m)), attributes);
+				for(int att : readers[m].getTargets()) rhs[m][att] = !premises.get(m).contains(att);
+			}
+
+			for(int row = 0; row < t.numRows(); row++){
+				for(int m = 0; m < numModels; m++){
+					if(!readers[m].next()) throw new IOException("Predictions of " + predictionFiles.get(m) + " end at row " + row + " out of " + t.numRows());
+					int[] targets = readers[m].getTargets();
+					for(int k = 0; k < targets.length; k++){
+						int att = targets[k];
+						String value = readers[m].predicted(k);
+						candidates[att][numCandidates[att]] = value == null ? EncodedTable.MISSING : t.dictionary(att).intern(value);
+						from[att][numCandidates[att]++] = m;
+					}
+				}
+
+				setRow(t, row, candidates, from, numCandidates, rhs);
+			}
+			for(int m = 0; m < numModels; m++){
+				if(readers[m].next()) throw new IOException("Predictions of " + predictionFiles.get(m) + " have more rows than the " + t.numRows() + " violating tuples");
+			}
+		} finally {
+			for(PredictionReader reader : readers) if(reader != null) reader.close();
+		}
+	}
+
+	/**
+	 * Repairs a row of a table with the predictions of models held in memory, e.g. MultiTargetTrees.
+	 * @param t: table sharing the dictionaries of the models' training data. Repaired in place.
+	 * @param row
+	 * @param targets: the attributes every model predicts
+	 * @param predictions: the predicted codes of every model for the row, in the order of its targets
+	 * @param rhs: whether model m predicts attribute att as the RHS of a CFD, see rhs()
+	 */
+	public void apply(EncodedTable t, int row, int[][] targets, int[][] predictions, boolean[][] rhs){
+		int numModels = targets.length;
+		int[][] candidates = new int[t.numAttributes()][numModels];
+		int[][] from = new int[t.numAttributes()][numModels];
+		int[] numCandidates = new int[t.numAttributes()];
+		for(int m = 0; m < numModels; m++){
+			for(int k = 0; k < targets[m].length; k++){
+				int att = targets[m][k];
+				candidates[att][numCandidates[att]] = predictions[m][k];
+				from[att][numCandidates[att]++] = m;
+			}
+		}
+		setRow(t, row, candidates, from, numCandidates, rhs);
+	}
+
+	/**
+	 * Returns whether model m predicts attribute att as the RHS of a CFD rather than as part of its premise.
+	 * @param targets: the attributes every model predicts
+	 * @param premises: the premise attributes of every model, in the same order
+	 * @param numAttributes
+	 * @return rhs[m][att]
+	 */
+	public static boolean[][] rhs(int[][] targets, List<Set<Integer>> premises, int numAttributes){
+		boolean[][] rhs = new boolean[targets.length][numAttributes];
+		for(int m = 0; m < targets.length; m++){
+			for(int att : targets[m]) rhs[m][att] = !premises.get(m).contains(att);
+		}
+		return rhs;
+	}
+
+	/**
+	 * Sets the chosen value of every predicted cell of a row, and clears the candidates.
+	 */
+	private void setRow(EncodedTable t, int row, int[][] candidates, int[][] from, int[] numCandidates, boolean[][] rhs){
+		for(int att = 0; att < t.numAttributes(); att++){
+			if(numCandidates[att] == 0) continue;
+			int code = resolve(candidates[att], from[att], numCandidates[att], t.code(row, att), rhs, att);
+			if(code != t.code(row, att)){
+				t.setCode(row, att, code);
+				changed++;
+			}
+			numCandidates[att] = 0;
+		}
+	}
+
+	/**
+	 * Chooses the value of a cell among the predictions of the models.
+	 */
+	private int resolve(int[] candidates, int[] from, int n, int original, boolean[][] rhs, int att){
+		boolean agree = true;
+		for(int k = 1; k < n; k++) if(candidates[k] != candidates[0]) agree = false;
+		if(agree) return candidates[0];
+
+		conflicts++;
+		switch(policy){
+		case RHS_FIRST:
+			for(int k = 0; k < n; k++) if(rhs[from[k]][att]) return candidates[k];
+			return candidates[0];
+		case MAJORITY:
+			int best = 0;
+			int bestCount = 0;
+			for(int k = 0; k < n; k++){
+				int count = 0;
+				for(int l = 0; l < n; l++) if(candidates[l] == candidates[k]) count++;
+				if(count > bestCount){
+					best = k;
+					bestCount = count;
+				}
+			}
+			return candidates[best];
+		case KEEP_ORIGINAL:
+			return original;
+		default:
+			return candidates[0];
+		}
+	}
+
+	/**
+	 * Returns the number of cells the models disagreed on
+	 */
+	public int getConflicts(){
+		return conflicts;
+	}
+
+	/**
+	 * Returns the number of cells whose value was changed
+	 */
+	public int getChanged(){
+		return changed;
+	}
+}
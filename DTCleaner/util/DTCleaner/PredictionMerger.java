@@ -0,0 +1,142 @@
+package DTCleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Reads the predictions of a model (<name>.test.pred.arff) and its test set in lockstep, and replaces the target
+ * values of every test row by the predicted ones (see PredictionReader for how the targets are found).
+ *
+ * A merged row is written field by field from the tokenizers, or set into an EncodedTable, without building the
+ * row as a String.
+ */
+public class PredictionMerger {
+
+	private PredictionReader predictions;
+	private ArffTokenizer test;
+	// attributes of the test set holding the targets, in the order of the predictions
+	private int[] targets;
+	// field of the test row replaced by prediction k, or -1
+	private int[] replacedBy;
+	private int row = -1;
+
+	/**
+	 * Reads the headers of both files.
+	 * @param predictions: the predictions written by Clus (or NativeTrainer)
+	 * @param test: the test set the predictions were made for
+	 * @throws IOException if a target isn't an attribute of the test set
+	 */
+	public PredictionMerger(Reader predictions, Reader test) throws IOException {
+		this.test = new ArffTokenizer(test);
+		this.predictions = new PredictionReader(predictions, this.test.getAttributes());
+
+		targets = this.predictions.getTargets();
+		replacedBy = new int[this.test.getAttributes().size()];
+		Arrays.fill(replacedBy, -1);
+		for(int k = 0; k < targets.length; k++) replacedBy[targets[k]] = k;
+	}
+
+	/**
+	 * Returns the attributes of the test set holding the targets, in the order of the predictions
+	 */
+	public int[] getTargets(){
+		return targets;
+	}
+
+	/**
+	 * Returns the header of the test set, up to and including the @data line
+	 */
+	public String getHeader(){
+		return test.getHeader();
+	}
+
+	/**
+	 * Reads the next test row and its predictions.
+	 * @return false when both files are over
+	 * @throws IOException if the files don't have the same number of rows
+	 */
+	public boolean next() throws IOException {
+		boolean hasPrediction = predictions.next();
+		boolean hasRow = test.next();
+		if(hasPrediction != hasRow) throw new IOException("The predictions and the test set don't have the same number of rows, row " + (row + 1));
+		if(!hasRow) return false;
+		row++;
+		if(test.numFields() != replacedBy.length) throw new IOException("Expected " + replacedBy.length + " values in the test set, line " + test.getLineNumber());
+		return true;
+	}
+
+	/**
+	 * Returns the number of the current row, from 0
+	 */
+	public int getRow(){
+		return row;
+	}
+
+	/**
+	 * Writes the current test row with its targets replaced by the predictions, followed by a line break.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeRow(Writer out) throws IOException {
+		for(int k = 0; k < replacedBy.length; k++){
+			if(k > 0) out.write(',');
+			if(replacedBy[k] >= 0) predictions.writePredicted(replacedBy[k], out);
+			else test.writeRaw(k, out);
+		}
+		out.write('\n');
+	}
+
+	/**
+	 * Sets the predictions of the current row into a row of a table with the attributes of the test set.
+	 * @param t
+	 * @param tableRow
+	 */
+	public void setRow(EncodedTable t, int tableRow){
+		for(int k = 0; k < targets.length; k++){
+			String value = predictions.predicted(k);
+			if(value == null) t.setMissing(tableRow, targets[k]);
+			else t.setCode(tableRow, targets[k], t.dictionary(targets[k]).intern(value));
+		}
+	}
+
+	/**
+	 * Returns the actual target values of the current row, as written in the predictions
+	 */
+	public String actualToString(){
+		return predictions.actualToString();
+	}
+
+	/**
+	 * Returns the predicted target values of the current row, as written in the predictions
+	 */
+	public String predictedToString(){
+		return predictions.predictedToString();
+	}
+
+	/**
+	 * Returns the current test row, as written in the test set
+	 */
+	public String rowToString(){
+		return test.rowToString();
+	}
+
+	/**
+	 * Returns the current test row with its targets replaced by the predictions
+	 */
+	public String mergedToString(){
+		StringBuilder merged = new StringBuilder();
+		for(int k = 0; k < replacedBy.length; k++){
+			if(k > 0) merged.append(',');
+			if(replacedBy[k] >= 0) predictions.appendPredicted(replacedBy[k], merged);
+			else test.appendRaw(k, merged);
+		}
+		return merged.toString();
+	}
+
+	public void close() throws IOException {
+		predictions.close();
+		test.close();
+	}
+}
@@ -0,0 +1,109 @@
+package DTCleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Reads the predictions of a model (<name>.test.pred.arff) one row at a time.
+ *
+ * The targets are recovered from the header: Clus writes the actual values of the targets first, then the predicted
+ * values as Original-p-<target>, so the targets are the attributes before the first Original-p- attribute, matched
+ * to the attributes of the test set by name.
+ */
+public class PredictionReader {
+
+	private static final String PREDICTED = "Original-p-";
+
+	private ArffTokenizer predictions;
+	// attributes of the test set holding the targets, in the order of the predictions
+	private int[] targets;
+
+	/**
+	 * Reads the header of the predictions.
+	 * @param predictions: the predictions written by Clus (or NativeTrainer)
+	 * @param attributes: names of the attributes of the test set
+	 * @throws IOException if a target isn't an attribute of the test set
+	 */
+	public PredictionReader(Reader predictions, List<String> attributes) throws IOException {
+		this.predictions = new ArffTokenizer(predictions);
+
+		List<String> names = this.predictions.getAttributes();
+		int numTargets = 0;
+		while(numTargets < names.size() && !names.get(numTargets).startsWith(PREDICTED)) numTargets++;
+		if(numTargets == names.size()) throw new IOException("No predicted attributes (" + PREDICTED + "...) in the predictions");
+
+		targets = new int[numTargets];
+		for(int k = 0; k < numTargets; k++){
+			targets[k] = attributes.indexOf(names.get(k));
+			if(targets[k] < 0) throw new IOException("Target " + names.get(k) + " isn't an attribute of the test set");
+		}
+	}
+
+	/**
+	 * Returns the attributes of the test set holding the targets, in the order of the predictions
+	 */
+	public int[] getTargets(){
+		return targets;
+	}
+
+	/**
+	 * Reads the predictions of the next row.
+	 * @return false at the end of the predictions
+	 * @throws IOException if the row is malformed
+	 */
+	public boolean next() throws IOException {
+		if(!predictions.next()) return false;
+		if(predictions.numFields() < 2 * targets.length) throw new IOException("Too few values in the predictions, line " + predictions.getLineNumber());
+		return true;
+	}
+
+	/**
+	 * Returns the predicted value of target k in the current row, unquoted
+	 * @param k
+	 * @return value, null if it's missing
+	 */
+	public String predicted(int k){
+		return predictions.value(targets.length + k);
+	}
+
+	/**
+	 * Writes the predicted value of target k in the current row as it's written in the predictions
+	 */
+	public void writePredicted(int k, Writer out) throws IOException {
+		predictions.writeRaw(targets.length + k, out);
+	}
+
+	/**
+	 * Appends the predicted value of target k in the current row as it's written in the predictions
+	 */
+	public void appendPredicted(int k, StringBuilder out){
+		predictions.appendRaw(targets.length + k, out);
+	}
+
+	/**
+	 * Returns the actual target values of the current row, as written in the predictions
+	 */
+	public String actualToString(){
+		return predictions.rawFields(0, targets.length);
+	}
+
+	/**
+	 * Returns the predicted target values of the current row, as written in the predictions
+	 */
+	public String predictedToString(){
+		return predictions.rawFields(targets.length, 2 * targets.length);
+	}
+
+	/**
+	 * Returns the number of the line of the current row, from 1
+	 */
+	public int getLineNumber(){
+		return predictions.getLineNumber();
+	}
+
+	public void close() throws IOException {
+		predictions.close();
+	}
+}
@@ -0,0 +1,129 @@
+package DTCleaner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Runs Clus in a separate JVM for every model: java -jar lib/Clus.jar <settingFile>.
+ * Every model pays the JVM startup, but a crash of Clus can't take DTCleaner down, models can be built
+ * concurrently, and every model can be given its own heap size and timeout.
+ */
+public class ProcessTrainer implements ModelTrainer {
+
+	// kills the processes running past their timeout
+	private static final Timer WATCHDOG = new Timer("DTCleaner-training-watchdog", true);
+
+	private String clusJar;
+	// heap size of every Clus JVM in MB, 0 for the JVM default
+	private int maxHeapMB;
+	// time a model may take in milliseconds, 0 for no limit
+	private long timeoutMillis;
+	// run Clus through ClusMain, which prints the peak heap usage of the JVM
+	private boolean measureMemory;
+
+	public ProcessTrainer(){
+		this("lib/Clus.jar");
+	}
+
+	/**
+	 * @param clusJar: location of Clus.jar
+	 */
+	public ProcessTrainer(String clusJar){
+		this(clusJar, 0, 0);
+	}
+
+	/**
+	 * @param clusJar: location of Clus.jar
+	 * @param maxHeapMB: heap size of every Clus JVM in MB (-Xmx), 0 for the JVM default
+	 * @param timeoutMillis: time a model may take, 0 for no limit. The process is killed when it's over.
+	 */
+	public ProcessTrainer(String clusJar, int maxHeapMB, long timeoutMillis){
+		this.clusJar = clusJar;
+		this.maxHeapMB = maxHeapMB;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Runs Clus through ClusMain, with the classpath of this JVM, so that its output ends with the peak heap usage
+	 * of the Clus JVM (see peakHeapUsage).
+	 * @param measureMemory
+	 */
+	public void setMeasureMemory(boolean measureMemory){
+		this.measureMemory = measureMemory;
+	}
+
+	public String train(String settingFile) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add("java");
+		if(maxHeapMB > 0) command.add("-Xmx" + maxHeapMB + "m");
+		if(measureMemory){
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path") + File.pathSeparator + clusJar);
+			command.add(ClusMain.class.getName());
+		}else{
+			command.add("-jar");
+			command.add(clusJar);
+		}
+		command.add(settingFile);
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		// a single stream to drain, so that the process never blocks on a full pipe
+		builder.redirectErrorStream(true);
+		final Process proc = builder.start();
+
+		final boolean[] timedOut = new boolean[1];
+		TimerTask kill = null;
+		if(timeoutMillis > 0){
+			kill = new TimerTask() {
+				public void run() {
+					synchronized(timedOut){
+						timedOut[0] = true;
+					}
+					proc.destroy();
+				}
+			};
+			WATCHDOG.schedule(kill, timeoutMillis);
+		}
+
+		StringBuilder output = new StringBuilder();
+		BufferedReader input = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+		int exitCode;
+		try {
+			String line;
+			while((line = input.readLine()) != null) output.append(line).append('\n');
+			exitCode = proc.waitFor();
+		} finally {
+			input.close();
+			if(kill != null) kill.cancel();
+			// don't leave Clus running when this thread is interrupted
+			proc.destroy();
+		}
+
+		synchronized(timedOut){
+			if(timedOut[0]) throw new IOException("Clus took more than " + timeoutMillis + " ms on " + settingFile + ", killed");
+		}
+		if(exitCode != 0) throw new IOException("Clus exited with code " + exitCode + " on " + settingFile + ":\n" + output);
+		return output.toString();
+	}
+
+	/**
+	 * Returns the peak heap usage printed by a Clus JVM run with setMeasureMemory(true)
+	 * @param output: console output returned by train
+	 * @return bytes, -1 if output doesn't hold it
+	 */
+	public static long peakHeapUsage(String output){
+		if(output == null) return -1;
+		int k = output.lastIndexOf(ClusMain.PEAK_HEAP);
+		if(k < 0) return -1;
+		int from = k + ClusMain.PEAK_HEAP.length();
+		int to = from;
+		while(to < output.length() && Character.isDigit(output.charAt(to))) to++;
+		return to > from ? Long.parseLong(output.substring(from, to)) : -1;
+	}
+}
@@ -0,0 +1,82 @@
+package DTCleaner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * The repair models of every group of CFDs with the same premise, learned as MultiTargetTrees and kept in memory,
+ * so that single tuples can be repaired without writing a test set.
+ *
+ * The model of a group predicts the premise and RHS attributes of its CFDs from the other attributes, as the
+ * models of makeModel() do.
+ */
+public class RepairModels {
+
+	private List<MultiTargetTree> models = new ArrayList<MultiTargetTree>();
+	private int[][] targets;
+	private boolean[][] rhs;
+
+	/**
+	 * Learns a model per group of CFDs.
+	 * @param clean: the tuples satisfying the CFDs. Tables repaired later must share its dictionaries.
+	 * @param CFDs
+	 * @param heuristic: Default, Gain, GainRatio, VarianceReduction or ReducedError
+	 * @param parallelism: number of threads used to learn a model
+	 */
+	public RepairModels(EncodedTable clean, Multiset<CFD> CFDs, HeuristicType heuristic, int parallelism){
+		List<TrainingScheduler.TrainingGroup> groups = TrainingScheduler.groupByPremise(CFDs);
+		int numAttributes = clean.numAttributes();
+		List<Set<Integer>> premises = new ArrayList<Set<Integer>>();
+		targets = new int[groups.size()][];
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			for(TrainingScheduler.TrainingGroup group : groups){
+				int[] groupTargets = Util.convertIntegers(new ArrayList<Integer>(group.targets));
+				int[] features = new int[numAttributes - groupTargets.length];
+				int f = 0;
+				for(int att = 0; att < numAttributes; att++) if(!group.targets.contains(att)) features[f++] = att;
+
+				models.add(new MultiTargetTree(clean, groupTargets, features, heuristic, pool));
+				targets[models.size() - 1] = groupTargets;
+				premises.add(group.premise);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		rhs = PredictionCombiner.rhs(targets, premises, numAttributes);
+	}
+
+	/**
+	 * Returns the number of models
+	 */
+	public int size(){
+		return models.size();
+	}
+
+	/**
+	 * Predicts the targets of a row with one model.
+	 * @param model
+	 * @param t: table sharing the dictionaries of the clean tuples
+	 * @param row
+	 * @return predicted code of every target of the model. Not to be modified.
+	 */
+	public int[] predict(int model, EncodedTable t, int row){
+		return models.get(model).predict(t, row);
+	}
+
+	/**
+	 * Sets the predictions of every model into a row, choosing among them with the combiner.
+	 * @param t: table sharing the dictionaries of the clean tuples. Repaired in place.
+	 * @param row
+	 * @param predictions: the predictions of every model for the row, from predict()
+	 * @param combiner
+	 */
+	public void repair(EncodedTable t, int row, int[][] predictions, PredictionCombiner combiner){
+		combiner.apply(t, row, targets, predictions, rhs);
+	}
+}
@@ -0,0 +1,417 @@
+package DTCleaner;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured report of the events of a run, e.g. violating tuples, repaired tuples and misclassified tuples.
+ *
+ * Every event is counted. Depending on the verbosity none, a sample or all of the events are also written as
+ * JSON lines or CSV rows by a background thread, through a bounded queue. The detection and repair loops only
+ * hand a line over to the queue. With a sample, when the queue is full the line is dropped (and counted as such)
+ * instead of waiting for the writer; with all of the events nothing is dropped, the loops wait for room in the
+ * queue. The counters are printed as a summary when the report is closed.
+ *
+ * By default only the counters are kept. Usage:
+ * 		Report report = Report.get();
+ * 		if(report.sample(Report.VIOLATION)) report.write(Report.VIOLATION, new String[]{"row", "tuple"}, new Object[]{j, tuple});
+ */
+public class Report {
+
+	// event kinds
+	public static final String VIOLATION = "violation";
+	public static final String REPAIR = "repair";
+	public static final String MISCLASSIFIED = "misclassified";
+	public static final String TRAINING = "training";
+	public static final String ACCURACY = "accuracy";
+	public static final String SWEEP = "sweep";
+	public static final String LATENCY = "latency";
+	public static final String ROUND = "round";
+	public static final String CELLS = "cells";
+
+	// fields of a violation event
+	public static final String[] VIOLATION_FIELDS = {"row", "rules", "tuple"};
+
+	public enum Format { JSON, CSV }
+
+	public enum Verbosity {
+		// only count the events
+		SUMMARY,
+		// write every n-th event of every kind
+		SAMPLE,
+		// write every event
+		ALL
+	}
+
+	// number of lines waiting for the writer before lines are dropped, or wait with Verbosity.ALL
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	// marks the end of the lines
+	private static final String END = new String("");
+
+	private static Report current = new Report();
+
+	private Format format;
+	private Verbosity verbosity;
+	private int sampleEvery;
+	private String name;
+
+	// events of every kind, and those written or dropped
+	private ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+	private ConcurrentHashMap<String, AtomicLong> written = new ConcurrentHashMap<String, AtomicLong>();
+	private ConcurrentHashMap<String, AtomicLong> dropped = new ConcurrentHashMap<String, AtomicLong>();
+	// kinds whose CSV header was written
+	private ConcurrentHashMap<String, Boolean> headers = new ConcurrentHashMap<String, Boolean>();
+
+	private BlockingQueue<String> lines;
+	private Thread writerThread;
+	// false for the console, which stays open
+	private volatile boolean closeOut = true;
+	private volatile IOException error;
+
+	/**
+	 * Makes a report keeping the counters only.
+	 */
+	public Report(){
+		this.format = Format.JSON;
+		this.verbosity = Verbosity.SUMMARY;
+		this.sampleEvery = 1;
+	}
+
+	/**
+	 * Makes a report writing the events to out.
+	 * @param out: destination of the lines, closed with the report unless it's System.out
+	 * @param name: name of the destination, printed with the summary
+	 * @param format
+	 * @param verbosity
+	 * @param sampleEvery: with Verbosity.SAMPLE, write one out of sampleEvery events of every kind
+	 * @param capacity: number of lines waiting for the writer before lines are dropped, or wait with Verbosity.ALL
+	 */
+	public Report(final Writer out, String name, Format format, Verbosity verbosity, int sampleEvery, int capacity){
+		if(sampleEvery < 1) throw new IllegalArgumentException("sampleEvery must be at least 1, got " + sampleEvery);
+		this.format = format;
+		this.verbosity = verbosity;
+		this.sampleEvery = sampleEvery;
+		this.name = name;
+		if(verbosity == Verbosity.SUMMARY) return;
+
+		this.lines = new ArrayBlockingQueue<String>(capacity);
+		this.writerThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for(String line = lines.take(); line != END; line = lines.take()){
+						out.write(line);
+						// flush when the writer caught up, so that a slow run can be followed
+						if(lines.isEmpty()) out.flush();
+					}
+					if(closeOut) out.close();
+					else out.flush();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					error = e;
+					// keep taking the lines, so that close() doesn't wait for room in the queue
+					try {
+						while(lines.take() != END);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "DTCleaner-report");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Opens a report file. The format is CSV if the file name ends with ".csv", JSON lines otherwise.
+	 * @param filename, e.g. "exp/report.jsonl"
+	 * @param verbosity
+	 * @param sampleEvery: with Verbosity.SAMPLE, write one out of sampleEvery events of every kind
+	 * @return report
+	 * @throws IOException
+	 */
+	public static Report open(String filename, Verbosity verbosity, int sampleEvery) throws IOException{
+		// nothing would be written
+		if(verbosity == Verbosity.SUMMARY) return new Report();
+		Format format = filename.toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSON;
+		return new Report(new BufferedWriter(new FileWriter(filename)), filename, format, verbosity, sampleEvery, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Makes a report writing JSON lines to the console, from the background thread.
+	 * @param verbosity
+	 * @param sampleEvery: with Verbosity.SAMPLE, write one out of sampleEvery events of every kind
+	 * @return report
+	 */
+	public static Report console(Verbosity verbosity, int sampleEvery){
+		Report report = new Report(new BufferedWriter(new OutputStreamWriter(System.out)), null, Format.JSON, verbosity, sampleEvery, DEFAULT_CAPACITY);
+		report.closeOut = false;
+		return report;
+	}
+
+	/**
+	 * Opens a report file with a verbosity given as text: "summary", "all", or "sample:N" for one out of N events
+	 * ("sample" alone writes one out of 100).
+	 * @param filename, e.g. "exp/report.csv"
+	 * @param verbosity
+	 * @return report
+	 * @throws IOException
+	 */
+	public static Report open(String filename, String verbosity) throws IOException{
+		String[] parts = verbosity.split(":");
+		Verbosity v = Verbosity.valueOf(parts[0].trim().toUpperCase());
+		int sampleEvery = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : (v == Verbosity.SAMPLE ? 100 : 1);
+		return open(filename, v, sampleEvery);
+	}
+
+	/**
+	 * Returns the report of the run
+	 */
+	public static Report get(){
+		return current;
+	}
+
+	/**
+	 * Sets the report of the run. The previous report isn't closed.
+	 * @param report
+	 */
+	public static void set(Report report){
+		current = report;
+	}
+
+	/**
+	 * Counts an event and tells whether it should be written, so that it's only rendered when it's written.
+	 * @param kind, e.g. Report.VIOLATION
+	 * @return true if the event should be written with write()
+	 */
+	public boolean sample(String kind){
+		long n = counter(counts, kind).incrementAndGet();
+		switch(verbosity){
+		case ALL:
+			return true;
+		case SAMPLE:
+			return (n - 1) % sampleEvery == 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Counts an event without writing it.
+	 * @param kind
+	 * @param n: number of events
+	 */
+	public void count(String kind, long n){
+		counter(counts, kind).addAndGet(n);
+	}
+
+	/**
+	 * Returns the number of events of a kind
+	 */
+	public long count(String kind){
+		AtomicLong count = counts.get(kind);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Hands an event over to the writer. With Verbosity.ALL it waits for room in the queue, otherwise the event is
+	 * dropped if the writer is behind. Should only be called when sample(kind) returned true.
+	 * @param kind
+	 * @param names: names of the fields
+	 * @param values: values of the fields, numbers and booleans are written as is, anything else as a string
+	 */
+	public void write(String kind, String[] names, Object[] values){
+		if(lines == null) return;
+
+		StringBuilder line = new StringBuilder();
+		if(format == Format.CSV){
+			// the rows of a kind are only written after its header
+			if(!headers.containsKey(kind) && !writeHeader(kind, names)){
+				counter(dropped, kind).incrementAndGet();
+				return;
+			}
+			line.append(csv(kind));
+			for(Object value : values) line.append(',').append(value == null ? "" : csv(value.toString()));
+		}else{
+			line.append("{\"kind\":").append(json(kind));
+			for(int k = 0; k < names.length; k++){
+				line.append(',').append(json(names[k])).append(':');
+				Object value = values[k];
+				if(value == null) line.append("null");
+				else if(value instanceof Number || value instanceof Boolean) line.append(value);
+				else line.append(json(value.toString()));
+			}
+			line.append('}');
+		}
+		line.append('\n');
+
+		if(offer(line.toString())) counter(written, kind).incrementAndGet();
+		else counter(dropped, kind).incrementAndGet();
+	}
+
+	/**
+	 * Hands the CSV header of a kind over to the writer, waiting for room in the queue, unless another thread did.
+	 * @return false if the thread was interrupted, the header is then handed over with the next row
+	 */
+	private synchronized boolean writeHeader(String kind, String[] names){
+		if(headers.containsKey(kind)) return true;
+
+		// the first column holds the kind of the rows
+		StringBuilder header = new StringBuilder("kind");
+		for(String field : names) header.append(',').append(csv(field));
+		header.append('\n');
+		try {
+			lines.put(header.toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		headers.put(kind, Boolean.TRUE);
+		return true;
+	}
+
+	/**
+	 * Hands a line over to the writer, waiting for room in the queue with Verbosity.ALL.
+	 * @return false if the line was dropped
+	 */
+	private boolean offer(String line){
+		if(verbosity != Verbosity.ALL) return lines.offer(line);
+		try {
+			lines.put(line);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Counts the violating rows of t and writes the sampled ones with the rules they violate.
+	 * @param t
+	 * @param violations
+	 * @param rows: the rows to report, in increasing order
+	 */
+	public void violatingRows(EncodedTable t, ViolationSet violations, RowBitmap rows){
+		if(lines == null){
+			count(VIOLATION, rows.cardinality());
+			return;
+		}
+		// rows are increasing, so the rules of every row are read in a single walk over the violating rows
+		ViolationSet.Cursor cursor = violations.cursor();
+		boolean more = cursor.next();
+		for(RowBitmap.RowIterator it = rows.iterator(); it.hasNext();){
+			int j = it.next();
+			while(more && cursor.row() < j) more = cursor.next();
+			if(!sample(VIOLATION)) continue;
+			List<String> names = more && cursor.row() == j ? cursor.violations() : Collections.<String>emptyList();
+			write(VIOLATION, VIOLATION_FIELDS, new Object[]{j, rules(names), t.rowToString(j)});
+		}
+	}
+
+	/**
+	 * Returns rule names separated by " | ", as in DTCleaner.printCFDViolatingTuplesMap()
+	 * @param names
+	 * @return rules
+	 */
+	public static String rules(List<String> names){
+		StringBuilder rules = new StringBuilder();
+		for(String name : names) rules.append(name).append(" | ");
+		//remove the last " | " chars
+		if(rules.length() > 0) rules.delete(rules.length()-3, rules.length());
+		return rules.toString();
+	}
+
+	/**
+	 * Returns the summary of the counters, one line per kind of event.
+	 * @return summary
+	 */
+	public String toSummaryString(){
+		StringBuilder summary = new StringBuilder();
+		summary.append("Report summary");
+		if(name != null) summary.append(" (").append(name).append(")");
+		summary.append(":\n");
+
+		Map<String, AtomicLong> sorted = new TreeMap<String, AtomicLong>(counts);
+		for(Map.Entry<String, AtomicLong> entry : sorted.entrySet()){
+			String kind = entry.getKey();
+			summary.append("   ").append(kind).append(": ").append(entry.getValue().get());
+			if(lines != null){
+				summary.append(" (written: ").append(count(written, kind));
+				if(count(dropped, kind) > 0) summary.append(", dropped: ").append(count(dropped, kind));
+				summary.append(")");
+			}
+			summary.append("\n");
+		}
+		if(error != null) summary.append("Error writing the report: ").append(error.getMessage()).append("\n");
+		return summary.toString();
+	}
+
+	/**
+	 * Waits for the writer to write the lines handed over, closes the destination and prints the summary.
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		if(lines != null){
+			try {
+				lines.put(END);
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			lines = null;
+		}
+		System.out.println("\n" + toSummaryString());
+		if(error != null) throw error;
+	}
+
+	private static AtomicLong counter(ConcurrentHashMap<String, AtomicLong> counters, String kind){
+		AtomicLong counter = counters.get(kind);
+		if(counter == null){
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(kind, created);
+			if(counter == null) counter = created;
+		}
+		return counter;
+	}
+
+	private static long count(ConcurrentHashMap<String, AtomicLong> counters, String kind){
+		AtomicLong counter = counters.get(kind);
+		return counter == null ? 0 : counter.get();
+	}
+
+	static String csv(String value){
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) return value;
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	static String json(String value){
+		StringBuilder quoted = new StringBuilder(value.length() + 2);
+		quoted.append('"');
+		for(int k = 0; k < value.length(); k++){
+			char c = value.charAt(k);
+			switch(c){
+			case '"': quoted.append("\\\""); break;
+			case '\\': quoted.append("\\\\"); break;
+			case '\n': quoted.append("\\n"); break;
+			case '\r': quoted.append("\\r"); break;
+			case '\t': quoted.append("\\t"); break;
+			default:
+				if(c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+				else quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
@@ -0,0 +1,183 @@
+package DTCleaner;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Sample of at most size rows drawn while the rows are streamed: every row gets a random key, and a stratum keeps
+ * the rows whose key is below its threshold, i.e. a uniform sample of its rows. Only the sample and a counter per
+ * stratum are held in memory.
+ *
+ * The size rows are shared by all strata, e.g. the combinations of premise values. When a row more than size is
+ * kept, the stratum holding the largest share of its rows gives up the row with the largest key and lowers its
+ * threshold below it, so the strata end up sampled at the same rate, in proportion to their number of rows. A
+ * stratum keeps at least one row as long as there are fewer strata than size, so a value seen in the clean rows
+ * is then never left out of the train set. Without strata this is a uniform sample of size rows.
+ */
+public class ReservoirSample {
+
+	/**
+	 * A kept row and its random key.
+	 */
+	private static class Entry {
+		final double key;
+		final int row;
+
+		Entry(double key, int row){
+			this.key = key;
+			this.row = row;
+		}
+	}
+
+	private static final Comparator<Entry> LARGEST_KEY_FIRST = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			return Double.compare(b.key, a.key);
+		}
+	};
+
+	/**
+	 * Rows of a stratum: the rows offered whose key is below threshold.
+	 */
+	private static class Stratum {
+		final int id;
+		final PriorityQueue<Entry> kept = new PriorityQueue<Entry>(4, LARGEST_KEY_FIRST);
+		long seen;
+		double threshold = 1;
+
+		Stratum(int id){
+			this.id = id;
+		}
+
+		// share of the rows of the stratum that are kept
+		double rate(){
+			return (double) kept.size() / seen;
+		}
+	}
+
+	// strata holding more than one row by decreasing rate, then those holding one: the first gives up a row
+	private static final Comparator<Stratum> BY_RATE = new Comparator<Stratum>() {
+		public int compare(Stratum a, Stratum b) {
+			boolean aSingle = a.kept.size() <= 1, bSingle = b.kept.size() <= 1;
+			if(aSingle != bSingle) return aSingle ? 1 : -1;
+			int c = Double.compare(b.rate(), a.rate());
+			return c != 0 ? c : (a.id < b.id ? -1 : (a.id == b.id ? 0 : 1));
+		}
+	};
+
+	private int size;
+	private Random random;
+	// strata in the order they were first seen
+	private LinkedHashMap<CodeKey, Stratum> strata = new LinkedHashMap<CodeKey, Stratum>();
+	// strata holding rows, by BY_RATE
+	private TreeSet<Stratum> holding = new TreeSet<Stratum>(BY_RATE);
+	private int kept;
+	private long seen;
+
+	/**
+	 * @param size: number of rows in the sample
+	 * @param seed: the same rows offered with the same seed give the same sample
+	 */
+	public ReservoirSample(int size, long seed){
+		if(size <= 0) throw new IllegalArgumentException("Sample size must be positive: " + size);
+		this.size = size;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Offers a row to a uniform sample.
+	 * @param row
+	 */
+	public void offer(int row){
+		offer(row, null);
+	}
+
+	/**
+	 * Offers a row of a stratum.
+	 * @param row
+	 * @param stratum: e.g. the premise values of the row, null for a uniform sample
+	 */
+	public void offer(int row, CodeKey stratum){
+		Stratum s = strata.get(stratum);
+		if(s == null){
+			s = new Stratum(strata.size());
+			strata.put(stratum, s);
+		}
+		seen++;
+		double key = random.nextDouble();
+
+		// the rate of s changes, so it's moved in holding
+		boolean held = holding.remove(s);
+		s.seen++;
+		if(key < s.threshold){
+			s.kept.add(new Entry(key, row));
+			kept++;
+		}
+		if(held || !s.kept.isEmpty()) holding.add(s);
+
+		if(kept > size){
+			Stratum victim = holding.pollFirst();
+			Entry dropped = victim.kept.poll();
+			victim.threshold = dropped.key;
+			kept--;
+			if(!victim.kept.isEmpty()) holding.add(victim);
+		}
+	}
+
+	/**
+	 * Returns the number of rows offered so far
+	 */
+	public long seen(){
+		return seen;
+	}
+
+	/**
+	 * Returns the number of strata seen so far
+	 */
+	public int numStrata(){
+		return strata.size();
+	}
+
+	/**
+	 * Returns the rows of the sample.
+	 * @return rows, increasing
+	 */
+	public int[] rows(){
+		int[] sample = new int[kept];
+		int n = 0;
+		for(Stratum s : strata.values()){
+			for(Entry entry : s.kept) sample[n++] = entry.row;
+		}
+		Arrays.sort(sample);
+		return sample;
+	}
+
+	/**
+	 * Draws a sample of the rows of a table in a single pass.
+	 * @param t
+	 * @param size: number of rows in the sample
+	 * @param strata: attributes whose values make up the strata, null or empty for a uniform sample
+	 * @param seed
+	 * @return rows of t, increasing
+	 */
+	public static int[] sample(EncodedTable t, int size, int[] strata, long seed){
+		ReservoirSample sample = new ReservoirSample(size, seed);
+		boolean stratified = strata != null && strata.length > 0;
+		int[][] columns = new int[stratified ? strata.length : 0][];
+		for(int k = 0; k < columns.length; k++) columns[k] = t.column(strata[k]);
+
+		for(int j = 0; j < t.numRows(); j++){
+			if(!stratified){
+				sample.offer(j);
+				continue;
+			}
+			int[] codes = new int[columns.length];
+			for(int k = 0; k < columns.length; k++) codes[k] = columns[k][j];
+			sample.offer(j, new CodeKey(codes));
+		}
+		return sample.rows();
+	}
+}
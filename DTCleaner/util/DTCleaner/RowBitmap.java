@@ -0,0 +1,416 @@
+package DTCleaner;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of row indexes.
+ *
+ * The rows are split by their upper 16 bits into blocks of 65536 rows. A block holding few rows stores them as a
+ * sorted char array (2 bytes per row), a block holding more than 4096 rows as a 8KB bitset, whichever is smaller.
+ * Union, intersection and difference work block by block, and rows are iterated in increasing order.
+ */
+public class RowBitmap {
+
+	// above this number of rows a block is stored as a bitset
+	private static final int ARRAY_LIMIT = 4096;
+	private static final int BITSET_WORDS = 1024;
+
+	// upper 16 bits of the rows of every block, increasing
+	private char[] keys = new char[4];
+	private Block[] blocks = new Block[4];
+	private int numBlocks;
+
+	/**
+	 * Iterates the rows of a bitmap in increasing order.
+	 */
+	public class RowIterator {
+		private int block = 0;
+		// lower 16 bits of the next row in the current block, -1 if the block has no more rows
+		private int next = numBlocks > 0 ? blocks[0].nextRow(0) : -1;
+
+		public boolean hasNext(){
+			return block < numBlocks;
+		}
+
+		public int next(){
+			int row = (keys[block] << 16) | next;
+			next = next + 1 < 65536 ? blocks[block].nextRow(next + 1) : -1;
+			while(next < 0 && ++block < numBlocks) next = blocks[block].nextRow(0);
+			return row;
+		}
+	}
+
+	/**
+	 * Adds a row. Adding rows in increasing order is the fastest.
+	 * @param row: non negative row index
+	 */
+	public void add(int row){
+		char key = (char) (row >>> 16);
+		char low = (char) row;
+
+		int b;
+		// rows are mostly added in increasing order, so try the last block first
+		if(numBlocks > 0 && keys[numBlocks - 1] == key) b = numBlocks - 1;
+		else b = Arrays.binarySearch(keys, 0, numBlocks, key);
+
+		if(b < 0){
+			b = -b - 1;
+			insertBlock(b, key, new ArrayBlock());
+		}
+		blocks[b] = blocks[b].add(low);
+	}
+
+	/**
+	 * Adds rows.
+	 * @param rows
+	 */
+	public void add(int[] rows){
+		for(int row : rows) add(row);
+	}
+
+	/**
+	 * Returns true if the bitmap holds row
+	 */
+	public boolean contains(int row){
+		int b = Arrays.binarySearch(keys, 0, numBlocks, (char) (row >>> 16));
+		return b >= 0 && blocks[b].contains((char) row);
+	}
+
+	/**
+	 * Returns the number of rows in the bitmap
+	 */
+	public int cardinality(){
+		int cardinality = 0;
+		for(int b = 0; b < numBlocks; b++) cardinality += blocks[b].cardinality();
+		return cardinality;
+	}
+
+	/**
+	 * Returns true if the bitmap holds no rows
+	 */
+	public boolean isEmpty(){
+		return numBlocks == 0;
+	}
+
+	/**
+	 * Returns the rows held by this bitmap or by other.
+	 * @param other
+	 * @return union
+	 */
+	public RowBitmap or(RowBitmap other){
+		RowBitmap union = new RowBitmap();
+		int i = 0, j = 0;
+		while(i < numBlocks || j < other.numBlocks){
+			if(j == other.numBlocks || (i < numBlocks && keys[i] < other.keys[j])){
+				union.appendBlock(keys[i], blocks[i].copy());
+				i++;
+			}else if(i == numBlocks || other.keys[j] < keys[i]){
+				union.appendBlock(other.keys[j], other.blocks[j].copy());
+				j++;
+			}else{
+				union.appendBlock(keys[i], blocks[i].or(other.blocks[j]));
+				i++;
+				j++;
+			}
+		}
+		return union;
+	}
+
+	/**
+	 * Returns the rows held by both this bitmap and other.
+	 * @param other
+	 * @return intersection
+	 */
+	public RowBitmap and(RowBitmap other){
+		RowBitmap intersection = new RowBitmap();
+		int i = 0, j = 0;
+		while(i < numBlocks && j < other.numBlocks){
+			if(keys[i] < other.keys[j]) i++;
+			else if(other.keys[j] < keys[i]) j++;
+			else{
+				Block block = blocks[i].and(other.blocks[j]);
+				if(block.cardinality() > 0) intersection.appendBlock(keys[i], block);
+				i++;
+				j++;
+			}
+		}
+		return intersection;
+	}
+
+	/**
+	 * Returns the rows held by this bitmap but not by other.
+	 * @param other
+	 * @return difference
+	 */
+	public RowBitmap andNot(RowBitmap other){
+		RowBitmap difference = new RowBitmap();
+		int j = 0;
+		for(int i = 0; i < numBlocks; i++){
+			while(j < other.numBlocks && other.keys[j] < keys[i]) j++;
+			Block block = j < other.numBlocks && other.keys[j] == keys[i] ? blocks[i].andNot(other.blocks[j]) : blocks[i].copy();
+			if(block.cardinality() > 0) difference.appendBlock(keys[i], block);
+		}
+		return difference;
+	}
+
+	/**
+	 * Returns an iterator over the rows, in increasing order.
+	 */
+	public RowIterator iterator(){
+		return new RowIterator();
+	}
+
+	/**
+	 * Returns the rows, in increasing order.
+	 */
+	public int[] toArray(){
+		int[] rows = new int[cardinality()];
+		int k = 0;
+		for(RowIterator it = iterator(); it.hasNext();) rows[k++] = it.next();
+		return rows;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the rows.
+	 */
+	public long sizeInBytes(){
+		long size = 0;
+		for(int b = 0; b < numBlocks; b++) size += 2 + blocks[b].sizeInBytes();
+		return size;
+	}
+
+	private void appendBlock(char key, Block block){
+		insertBlock(numBlocks, key, block);
+	}
+
+	private void insertBlock(int b, char key, Block block){
+		if(numBlocks == keys.length){
+			keys = Arrays.copyOf(keys, numBlocks * 2);
+			blocks = Arrays.copyOf(blocks, numBlocks * 2);
+		}
+		System.arraycopy(keys, b, keys, b + 1, numBlocks - b);
+		System.arraycopy(blocks, b, blocks, b + 1, numBlocks - b);
+		keys[b] = key;
+		blocks[b] = block;
+		numBlocks++;
+	}
+
+	/**
+	 * The lower 16 bits of the rows of a block.
+	 */
+	private static abstract class Block {
+		// returns the block holding the rows of this block and low, which may be a new one
+		abstract Block add(char low);
+		abstract boolean contains(char low);
+		abstract int cardinality();
+		// returns the smallest row >= from, or -1
+		abstract int nextRow(int from);
+		abstract Block or(Block other);
+		abstract Block and(Block other);
+		abstract Block andNot(Block other);
+		abstract Block copy();
+		abstract long sizeInBytes();
+
+		BitsetBlock toBitset(){
+			BitsetBlock bitset = new BitsetBlock();
+			for(int low = nextRow(0); low >= 0; low = low + 1 < 65536 ? nextRow(low + 1) : -1) bitset.add((char) low);
+			return bitset;
+		}
+	}
+
+	private static class ArrayBlock extends Block {
+		char[] values;
+		int size;
+
+		ArrayBlock(){
+			this(new char[4], 0);
+		}
+
+		ArrayBlock(char[] values, int size){
+			this.values = values;
+			this.size = size;
+		}
+
+		Block add(char low){
+			// appending in increasing order
+			if(size > 0 && values[size - 1] < low){
+				if(size == ARRAY_LIMIT) return toBitset().add(low);
+				if(size == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, size * 2)));
+				values[size++] = low;
+				return this;
+			}
+
+			int k = Arrays.binarySearch(values, 0, size, low);
+			if(k >= 0) return this;
+			if(size == ARRAY_LIMIT) return toBitset().add(low);
+
+			k = -k - 1;
+			if(size == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, size * 2)));
+			System.arraycopy(values, k, values, k + 1, size - k);
+			values[k] = low;
+			size++;
+			return this;
+		}
+
+		boolean contains(char low){
+			return Arrays.binarySearch(values, 0, size, low) >= 0;
+		}
+
+		int cardinality(){
+			return size;
+		}
+
+		int nextRow(int from){
+			int k = Arrays.binarySearch(values, 0, size, (char) from);
+			if(k < 0) k = -k - 1;
+			return k < size ? values[k] : -1;
+		}
+
+		Block or(Block other){
+			if(!(other instanceof ArrayBlock) || size + other.cardinality() > ARRAY_LIMIT){
+				BitsetBlock union = other instanceof BitsetBlock ? (BitsetBlock) other.copy() : other.toBitset();
+				for(int k = 0; k < size; k++) union.add(values[k]);
+				return union;
+			}
+
+			ArrayBlock a = (ArrayBlock) other;
+			char[] merged = new char[size + a.size];
+			int i = 0, j = 0, n = 0;
+			while(i < size && j < a.size){
+				if(values[i] < a.values[j]) merged[n++] = values[i++];
+				else if(a.values[j] < values[i]) merged[n++] = a.values[j++];
+				else{
+					merged[n++] = values[i++];
+					j++;
+				}
+			}
+			while(i < size) merged[n++] = values[i++];
+			while(j < a.size) merged[n++] = a.values[j++];
+			return new ArrayBlock(merged, n);
+		}
+
+		Block and(Block other){
+			char[] common = new char[size];
+			int n = 0;
+			for(int k = 0; k < size; k++) if(other.contains(values[k])) common[n++] = values[k];
+			return new ArrayBlock(common, n);
+		}
+
+		Block andNot(Block other){
+			char[] left = new char[size];
+			int n = 0;
+			for(int k = 0; k < size; k++) if(!other.contains(values[k])) left[n++] = values[k];
+			return new ArrayBlock(left, n);
+		}
+
+		Block copy(){
+			return new ArrayBlock(Arrays.copyOf(values, size), size);
+		}
+
+		long sizeInBytes(){
+			return 2L * values.length;
+		}
+	}
+
+	private static class BitsetBlock extends Block {
+		long[] words = new long[BITSET_WORDS];
+		int cardinality;
+
+		Block add(char low){
+			long bit = 1L << low;
+			if((words[low >>> 6] & bit) == 0){
+				words[low >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		boolean contains(char low){
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		int cardinality(){
+			return cardinality;
+		}
+
+		int nextRow(int from){
+			int w = from >>> 6;
+			long word = words[w] & (-1L << from);
+			while(true){
+				if(word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+				if(++w == BITSET_WORDS) return -1;
+				word = words[w];
+			}
+		}
+
+		Block or(Block other){
+			if(!(other instanceof BitsetBlock)) return other.or(this);
+
+			BitsetBlock union = new BitsetBlock();
+			long[] o = ((BitsetBlock) other).words;
+			for(int w = 0; w < BITSET_WORDS; w++){
+				union.words[w] = words[w] | o[w];
+				union.cardinality += Long.bitCount(union.words[w]);
+			}
+			return union;
+		}
+
+		Block and(Block other){
+			if(!(other instanceof BitsetBlock)) return other.and(this);
+
+			BitsetBlock intersection = new BitsetBlock();
+			long[] o = ((BitsetBlock) other).words;
+			for(int w = 0; w < BITSET_WORDS; w++){
+				intersection.words[w] = words[w] & o[w];
+				intersection.cardinality += Long.bitCount(intersection.words[w]);
+			}
+			return intersection.shrink();
+		}
+
+		Block andNot(Block other){
+			BitsetBlock difference = (BitsetBlock) copy();
+			if(other instanceof BitsetBlock){
+				long[] o = ((BitsetBlock) other).words;
+				difference.cardinality = 0;
+				for(int w = 0; w < BITSET_WORDS; w++){
+					difference.words[w] &= ~o[w];
+					difference.cardinality += Long.bitCount(difference.words[w]);
+				}
+			}else{
+				ArrayBlock a = (ArrayBlock) other;
+				for(int k = 0; k < a.size; k++){
+					long bit = 1L << a.values[k];
+					if((difference.words[a.values[k] >>> 6] & bit) != 0){
+						difference.words[a.values[k] >>> 6] &= ~bit;
+						difference.cardinality--;
+					}
+				}
+			}
+			return difference.shrink();
+		}
+
+		/**
+		 * Returns the block as an array if it holds few rows.
+		 */
+		Block shrink(){
+			if(cardinality > ARRAY_LIMIT) return this;
+
+			// few rows left, go back to an array
+			char[] values = new char[cardinality];
+			int n = 0;
+			for(int low = nextRow(0); low >= 0; low = low + 1 < 65536 ? nextRow(low + 1) : -1) values[n++] = (char) low;
+			return new ArrayBlock(values, n);
+		}
+
+		Block copy(){
+			BitsetBlock copy = new BitsetBlock();
+			copy.words = words.clone();
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		long sizeInBytes(){
+			return 8L * BITSET_WORDS;
+		}
+	}
+}
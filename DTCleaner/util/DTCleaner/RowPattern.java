@@ -0,0 +1,94 @@
+package DTCleaner;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * A CFD with wildcards in its premise and a constant RHS, e.g. 4="AZ",5=_->3="PHOENIX". Like a constant CFD it only
+ * needs the tuple itself: a tuple violates it when its premise matches and its RHS value differs.
+ *
+ * The CFD index leaves these CFDs out, PatternTableau checks them over a whole table; RowPattern checks them one
+ * tuple at a time, for the detectors that see a single tuple (IncrementalDetector, RepairService).
+ */
+class RowPattern {
+
+	final String name;
+	final int[] premise;
+	// premise codes, PatternTableau.ANY for any value
+	final int[] codes;
+	final int rhs;
+	final int rhsCode;
+
+	private RowPattern(String name, int[] premise, int[] codes, int rhs, int rhsCode){
+		this.name = name;
+		this.premise = premise;
+		this.codes = codes;
+		this.rhs = rhs;
+		this.rhsCode = rhsCode;
+	}
+
+	/**
+	 * Returns the CFDs with wildcards in their premise only, in the order of the CFDs. The constants of the CFDs are
+	 * added to the dictionaries of t.
+	 * @param CFDs
+	 * @param t: the table whose dictionaries encode the tuples to check
+	 * @return patterns
+	 */
+	static List<RowPattern> of(Multiset<CFD> CFDs, EncodedTable t){
+		List<RowPattern> patterns = new ArrayList<RowPattern>();
+		for(CFD cfd : CFDs.elementSet()){
+			if(cfd.isConstant() || cfd.getRHS().getValue().equals(CFD.WILDCARD)) continue;
+
+			int[] premise = premise(cfd);
+			int rhs = cfd.getRHS().getKey();
+			patterns.add(new RowPattern(cfd.toString(), premise, codes(cfd, t), rhs, t.dictionary(rhs).intern(cfd.getRHS().getValue())));
+		}
+		return patterns;
+	}
+
+	/**
+	 * Returns the premise attributes of a CFD, in the order of its premise.
+	 */
+	static int[] premise(CFD cfd){
+		int[] premise = new int[cfd.getPremise().size()];
+		int k = 0;
+		for(SimpleImmutableEntry<Integer, String> lhs : cfd.getPremise()) premise[k++] = lhs.getKey();
+		return premise;
+	}
+
+	/**
+	 * Returns the premise codes of a CFD in the dictionaries of t, in the order of its premise, PatternTableau.ANY
+	 * for a wildcard.
+	 */
+	static int[] codes(CFD cfd, EncodedTable t){
+		int[] codes = new int[cfd.getPremise().size()];
+		int k = 0;
+		for(SimpleImmutableEntry<Integer, String> lhs : cfd.getPremise()){
+			codes[k++] = lhs.getValue().equals(CFD.WILDCARD) ? PatternTableau.ANY : t.dictionary(lhs.getKey()).intern(lhs.getValue());
+		}
+		return codes;
+	}
+
+	/**
+	 * Returns true if a row of t violates the CFD.
+	 * @param t: table sharing the dictionaries the pattern was made with
+	 * @param row
+	 */
+	boolean isViolatedBy(EncodedTable t, int row){
+		return matches(t, row, premise, codes) && t.code(row, rhs) != rhsCode;
+	}
+
+	/**
+	 * Returns true if the premise of a row holds the codes of pattern: no missing value, and the constants.
+	 */
+	static boolean matches(EncodedTable t, int row, int[] premise, int[] pattern){
+		for(int k = 0; k < premise.length; k++){
+			int code = t.code(row, premise[k]);
+			if(code == EncodedTable.MISSING || (pattern[k] != PatternTableau.ANY && pattern[k] != code)) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,366 @@
+package DTCleaner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Detects violating tuples while reading an ARFF or CSV file row by row, without loading the dataset.
+ *
+ * Constant CFDs, and CFDs with wildcards in the premise only, e.g. 4="AZ",5=_->3="PHOENIX", only need the current
+ * row, so memory stays flat no matter how large the input is.
+ * For FDs only the RHS value first seen for every premise value is kept, and a tuple is reported when its
+ * RHS value differs from it. The first tuple of a conflicting premise value isn't reported, since it's not kept.
+ * CFDs with a wildcard RHS, e.g. 5=_->3=_, are kept the same way over the rows matching their premise pattern.
+ */
+public class StreamingDetector {
+
+	/**
+	 * Receives the violating tuples as they are found.
+	 */
+	public interface ViolationSink {
+		/**
+		 * @param row: index of the tuple in the input
+		 * @param values: values of the tuple, "?" for missing values
+		 * @param rules: the CFDs and FDs that the tuple violates
+		 */
+		void violation(long row, String[] values, List<String> rules) throws IOException;
+	}
+
+	/**
+	 * Writes one line per violating tuple: index, violated rules separated by " | ", and the tuple, separated by tabs.
+	 */
+	public static class WriterSink implements ViolationSink {
+		private Writer writer;
+
+		public WriterSink(Writer writer){
+			this.writer = writer;
+		}
+
+		public void violation(long row, String[] values, List<String> rules) throws IOException {
+			StringBuilder line = new StringBuilder();
+			line.append(row).append('\t');
+			for(String rule : rules) line.append(rule).append(" | ");
+			//remove the last " | " chars
+			line.delete(line.length()-3, line.length());
+			line.append('\t');
+			for(String value : values) line.append(value.equals("?") ? value : Utils.quote(value)).append(',');
+			// delete last ","
+			line.deleteCharAt(line.length()-1);
+			line.append('\n');
+			writer.write(line.toString());
+		}
+	}
+
+	/**
+	 * The premise to RHS state of an FD, or CFD with a wildcard RHS.
+	 */
+	private static class StreamingFD {
+		final String name;
+		final int[] premise;
+		final int[] rhs;
+		// premise values a row must hold to be kept, null for any value. null for an FD.
+		final String[] pattern;
+		// maps the premise value to the first row seen with it and its RHS value
+		final HashMap<String, FirstSeen> seen = new HashMap<String, FirstSeen>();
+
+		StreamingFD(String name, int[] premise, int[] rhs, String[] pattern){
+			this.name = name;
+			this.premise = premise;
+			this.rhs = rhs;
+			this.pattern = pattern;
+		}
+	}
+
+	/**
+	 * A CFD with wildcards in its premise and a constant RHS.
+	 */
+	private static class StreamingPattern {
+		final String name;
+		final int[] premise;
+		// premise values, null for any value
+		final String[] values;
+		final int rhs;
+		final String rhsValue;
+
+		StreamingPattern(String name, int[] premise, String[] values, int rhs, String rhsValue){
+			this.name = name;
+			this.premise = premise;
+			this.values = values;
+			this.rhs = rhs;
+			this.rhsValue = rhsValue;
+		}
+	}
+
+	private static class FirstSeen {
+		final long row;
+		final String rhs;
+
+		FirstSeen(long row, String rhs){
+			this.row = row;
+			this.rhs = rhs;
+		}
+	}
+
+	/**
+	 * Reads the input one row at a time.
+	 */
+	private interface RowSource {
+		String[] attributeNames();
+		// returns the next row, or null at the end of the input
+		String[] next() throws Exception;
+		void close() throws IOException;
+	}
+
+	private CFDIndex index;
+	private List<StreamingPattern> patterns = new ArrayList<StreamingPattern>();
+	// CFDs with a wildcard RHS
+	private List<CFD> wildcardCFDs = new ArrayList<CFD>();
+	private HashMap<String, String[]> FDs;
+	private long numRows;
+	private long numViolatingRows;
+
+	/**
+	 * @param CFDs
+	 * @param FDs: FDs as read by FDUtility.readFDs, may be null
+	 */
+	public StreamingDetector(Multiset<CFD> CFDs, HashMap<String, String[]> FDs){
+		this.index = new CFDIndex(CFDs);
+		this.FDs = FDs;
+
+		// CFDs with wildcards, which the CFD index leaves out
+		for(CFD cfd : CFDs.elementSet()){
+			if(cfd.isConstant()) continue;
+			if(cfd.getRHS().getValue().equals(CFD.WILDCARD)) wildcardCFDs.add(cfd);
+			else patterns.add(new StreamingPattern(cfd.toString(), RowPattern.premise(cfd), premiseValues(cfd), cfd.getRHS().getKey(), cfd.getRHS().getValue()));
+		}
+	}
+
+	/**
+	 * Returns the premise values of a CFD, in the order of its premise, null for a wildcard.
+	 */
+	private static String[] premiseValues(CFD cfd){
+		String[] values = new String[cfd.getPremise().size()];
+		int k = 0;
+		for(SimpleImmutableEntry<Integer, String> lhs : cfd.getPremise()){
+			values[k++] = lhs.getValue().equals(CFD.WILDCARD) ? null : lhs.getValue();
+		}
+		return values;
+	}
+
+	/**
+	 * Returns true if the premise of a row holds the values of pattern: no missing value, and the constants.
+	 */
+	private static boolean matches(String[] values, int[] premise, String[] pattern){
+		for(int k = 0; k < premise.length; k++){
+			String value = values[premise[k]];
+			if(value.equals("?") || (pattern[k] != null && !pattern[k].equals(value))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of rows read by the last call to detect()
+	 */
+	public long getNumRows(){
+		return numRows;
+	}
+
+	/**
+	 * Returns the number of violating rows found by the last call to detect()
+	 */
+	public long getNumViolatingRows(){
+		return numViolatingRows;
+	}
+
+	/**
+	 * Reads the input row by row and passes every violating tuple to sink.
+	 * @param dataInput: ARFF file, or CSV file with a header line if its name ends with ".csv"
+	 * @param sink
+	 * @throws Exception
+	 */
+	public void detect(String dataInput, ViolationSink sink) throws Exception{
+		RowSource source = dataInput.toLowerCase().endsWith(".csv") ? csvSource(dataInput) : arffSource(dataInput);
+		List<StreamingFD> streamingFDs = streamingFDs(source.attributeNames());
+
+		numRows = 0;
+		numViolatingRows = 0;
+
+		try {
+			String[] values;
+			while((values = source.next()) != null){
+				List<String> rules = index.violations(values);
+				for(StreamingPattern pattern : patterns){
+					if(!matches(values, pattern.premise, pattern.values) || values[pattern.rhs].equals(pattern.rhsValue)) continue;
+					if(rules == null) rules = new LinkedList<String>();
+					rules.add(pattern.name);
+				}
+
+				for(StreamingFD fd : streamingFDs){
+					if(fd.pattern != null && !matches(values, fd.premise, fd.pattern)) continue;
+					String premise = join(values, fd.premise);
+					String rhs = join(values, fd.rhs);
+
+					FirstSeen first = fd.seen.get(premise);
+					if(first == null) fd.seen.put(premise, new FirstSeen(numRows, rhs));
+					else if(!first.rhs.equals(rhs)){
+						if(rules == null) rules = new LinkedList<String>();
+						rules.add(fd.name + " (conflicts with row " + first.row + ")");
+					}
+				}
+
+				if(rules != null){
+					sink.violation(numRows, values, rules);
+					numViolatingRows++;
+				}
+				numRows++;
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	private List<StreamingFD> streamingFDs(String[] names){
+		List<StreamingFD> streamingFDs = new ArrayList<StreamingFD>();
+		for(CFD cfd : wildcardCFDs){
+			streamingFDs.add(new StreamingFD(cfd.toString(), RowPattern.premise(cfd), new int[]{cfd.getRHS().getKey()}, premiseValues(cfd)));
+		}
+		if(FDs == null) return streamingFDs;
+
+		for(String premiseID : FDs.keySet()){
+			int[] premise = FDUtility.parseAttributes(premiseID);
+			int[] rhs = FDUtility.parseAttributes(FDs.get(premiseID));
+
+			StringBuilder name = new StringBuilder();
+			for(int att : premise) name.append(names[att] + ", ");
+			//replace the last ", "
+			name.delete(name.length()-2, name.length());
+			name.append("->");
+			for(int att : rhs) name.append(names[att] + ", ");
+			//remove the last ", "
+			name.delete(name.length()-2, name.length());
+
+			streamingFDs.add(new StreamingFD(name.toString(), premise, rhs, null));
+		}
+		return streamingFDs;
+	}
+
+	private static String join(String[] values, int[] attributes){
+		if(attributes.length == 1) return values[attributes[0]];
+
+		StringBuilder key = new StringBuilder();
+		for(int attribute : attributes) key.append(values[attribute]).append('\u0000');
+		return key.toString();
+	}
+
+	/**
+	 * Reads an ARFF file through weka's incremental loader.
+	 */
+	private static RowSource arffSource(String dataInput) throws Exception{
+		final DataSource source = new DataSource(dataInput);
+		final Instances structure = source.getStructure();
+
+		final String[] names = new String[structure.numAttributes()];
+		for(int att = 0; att < names.length; att++) names[att] = structure.attribute(att).name();
+
+		return new RowSource() {
+			public String[] attributeNames(){
+				return names;
+			}
+
+			public String[] next() throws Exception {
+				if(!source.hasMoreElements(structure)) return null;
+
+				Instance inst = source.nextElement(structure);
+				String[] values = new String[names.length];
+				for(int att = 0; att < names.length; att++){
+					if(inst.isMissing(att)) values[att] = "?";
+					else if(structure.attribute(att).isNumeric()) values[att] = inst.toString(att);
+					else values[att] = inst.stringValue(att);
+				}
+				return values;
+			}
+
+			public void close(){
+			}
+		};
+	}
+
+	/**
+	 * Reads a CSV file whose first line holds the attribute names. Empty values are missing.
+	 */
+	private static RowSource csvSource(String dataInput) throws IOException{
+		final BufferedReader reader = new BufferedReader(new FileReader(dataInput));
+		String header = reader.readLine();
+		if(header == null){
+			reader.close();
+			throw new IOException("Empty CSV file: " + dataInput);
+		}
+		final String[] names = Util.splitCSVLine(header);
+
+		return new RowSource() {
+			public String[] attributeNames(){
+				return names;
+			}
+
+			public String[] next() throws IOException {
+				String line;
+				do {
+					line = reader.readLine();
+					if(line == null) return null;
+				} while(line.length() == 0);
+
+				String[] values = Util.splitCSVLine(line);
+				if(values.length != names.length)
+					throw new IOException("Expected " + names.length + " values, got " + values.length + ": " + line);
+				for(int att = 0; att < values.length; att++) if(values[att].length() == 0) values[att] = "?";
+				return values;
+			}
+
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2 || args.length > 4){
+			System.out.println("\nUsage: StreamingDetector <input.arff|input.csv> <CFDinput> [FDinput] [output]");
+			System.out.println("Example: StreamingDetector data/hospital.csv data/CFDs data/FDs violations.txt");
+			System.exit(1);
+		}
+
+		Multiset<CFD> CFDs = CFDUtility.readCFDs(args[1]);
+		HashMap<String, String[]> FDs = args.length >= 3 ? FDUtility.readFDs(args[2]) : null;
+
+		Writer writer = args.length == 4 ? new BufferedWriter(new FileWriter(args[3])) : new BufferedWriter(new OutputStreamWriter(System.out));
+
+		System.out.println("\nStreaming dataset: " + args[0] + "...\n");
+		StreamingDetector detector = new StreamingDetector(CFDs, FDs);
+		try {
+			detector.detect(args[0], new WriterSink(writer));
+		} finally {
+			writer.flush();
+			if(args.length == 4) writer.close();
+		}
+
+		System.out.println("\nRead: " + detector.getNumRows() + " tuples.");
+		System.out.println("Found: " + detector.getNumViolatingRows() + " violating tuples.");
+	}
+}
@@ -0,0 +1,223 @@
+package DTCleaner;
+
+import java.util.Arrays;
+
+/**
+ * Stripped partition of the rows of an EncodedTable by the values of a set of attributes.
+ *
+ * Rows with equal values on the attributes form an equivalence class. Classes holding a single row can't take part
+ * in an FD violation and are left out ("stripped"), so a partition only holds the rows sharing their values with
+ * another row. The partition of several attributes is the product of the partitions of each attribute, computed
+ * in time linear in the number of rows. Missing values are treated as a value of their own.
+ */
+public class StrippedPartition {
+
+	// rows of the classes. Class c holds rows[starts[c]] to rows[starts[c+1]-1], in row order.
+	private int[] rows;
+	private int[] starts;
+	// number of rows of the table the partition was made from
+	private int numRows;
+
+	StrippedPartition(int[] rows, int[] starts, int numRows){
+		this.rows = rows;
+		this.starts = starts;
+		this.numRows = numRows;
+	}
+
+	/**
+	 * Makes the partition of the rows of t by a single attribute, with a counting sort over its codes.
+	 * @param t
+	 * @param att
+	 * @return partition
+	 */
+	public static StrippedPartition of(EncodedTable t, int att){
+		int numRows = t.numRows();
+		int[] column = t.column(att);
+
+		// slot 0 holds missing values, slot code+1 holds code
+		int[] count = new int[t.dictionary(att).size() + 1];
+		for(int j = 0; j < numRows; j++) count[column[j] + 1]++;
+
+		// only the slots holding at least two rows get a class
+		int numClasses = 0;
+		int size = 0;
+		int[] next = new int[count.length];
+		for(int slot = 0; slot < count.length; slot++){
+			if(count[slot] < 2){
+				next[slot] = -1;
+				continue;
+			}
+			next[slot] = size;
+			size += count[slot];
+			numClasses++;
+		}
+
+		int[] starts = new int[numClasses + 1];
+		int c = 0;
+		for(int slot = 0; slot < count.length; slot++) if(next[slot] >= 0) starts[c++] = next[slot];
+		starts[numClasses] = size;
+
+		int[] rows = new int[size];
+		for(int j = 0; j < numRows; j++){
+			int slot = column[j] + 1;
+			if(next[slot] >= 0) rows[next[slot]++] = j;
+		}
+
+		return new StrippedPartition(rows, starts, numRows);
+	}
+
+	/**
+	 * Makes the partition of the rows of t by a set of attributes.
+	 * @param t
+	 * @param attributes
+	 * @return partition
+	 */
+	public static StrippedPartition of(EncodedTable t, int[] attributes){
+		StrippedPartition partition = of(t, attributes[0]);
+		for(int k = 1; k < attributes.length; k++) partition = partition.product(of(t, attributes[k]));
+		return partition;
+	}
+
+	/**
+	 * Makes a stripped partition out of rows grouped by value, leaving out the groups holding less than two rows.
+	 * @param grouped: rows grouped by value, group g holds grouped[starts[g]] to grouped[starts[g+1]-1] in row order
+	 * @param starts
+	 * @param numRows: number of rows of the table
+	 * @return partition
+	 */
+	static StrippedPartition strip(int[] grouped, int[] starts, int numRows){
+		int numClasses = 0;
+		int size = 0;
+		for(int g = 0; g + 1 < starts.length; g++){
+			int length = starts[g + 1] - starts[g];
+			if(length < 2) continue;
+			numClasses++;
+			size += length;
+		}
+
+		int[] rows = new int[size];
+		int[] classStarts = new int[numClasses + 1];
+		int c = 0;
+		size = 0;
+		for(int g = 0; g + 1 < starts.length; g++){
+			int length = starts[g + 1] - starts[g];
+			if(length < 2) continue;
+			classStarts[c++] = size;
+			System.arraycopy(grouped, starts[g], rows, size, length);
+			size += length;
+		}
+		classStarts[numClasses] = size;
+
+		return new StrippedPartition(rows, classStarts, numRows);
+	}
+
+	/**
+	 * Returns the partition by the attributes of this partition and of other together.
+	 * @param other: partition of the same table
+	 * @return product
+	 */
+	public StrippedPartition product(StrippedPartition other){
+		int numClasses = numClasses();
+
+		// class of every row in this partition, -1 for stripped rows
+		int[] classOf = new int[numRows];
+		Arrays.fill(classOf, -1);
+		for(int c = 0; c < numClasses; c++){
+			for(int k = starts[c]; k < starts[c + 1]; k++) classOf[rows[k]] = c;
+		}
+
+		// the product can't hold more rows than either partition
+		int[] productRows = new int[Math.min(rows.length, other.rows.length)];
+		int[] productStarts = new int[productRows.length / 2 + 1];
+		int numProductClasses = 0;
+		int size = 0;
+
+		int[] count = new int[numClasses];
+		int[] next = new int[numClasses];
+		Arrays.fill(next, -1);
+
+		// split every class of other by the classes of this partition
+		for(int d = 0; d < other.numClasses(); d++){
+			int from = other.starts[d];
+			int to = other.starts[d + 1];
+
+			for(int k = from; k < to; k++){
+				int c = classOf[other.rows[k]];
+				if(c >= 0) count[c]++;
+			}
+
+			for(int k = from; k < to; k++){
+				int row = other.rows[k];
+				int c = classOf[row];
+				if(c < 0 || count[c] < 2) continue;
+
+				if(next[c] < 0){
+					next[c] = size;
+					productStarts[numProductClasses++] = size;
+					size += count[c];
+				}
+				productRows[next[c]++] = row;
+			}
+
+			for(int k = from; k < to; k++){
+				int c = classOf[other.rows[k]];
+				if(c < 0) continue;
+				count[c] = 0;
+				next[c] = -1;
+			}
+		}
+
+		productStarts = Arrays.copyOf(productStarts, numProductClasses + 1);
+		productStarts[numProductClasses] = size;
+		return new StrippedPartition(Arrays.copyOf(productRows, size), productStarts, numRows);
+	}
+
+	/**
+	 * Returns the number of equivalence classes
+	 */
+	public int numClasses(){
+		return starts.length - 1;
+	}
+
+	/**
+	 * Returns the number of rows in the equivalence classes
+	 */
+	public int size(){
+		return rows.length;
+	}
+
+	/**
+	 * Returns the rows of the classes whose rows don't all agree on the RHS attributes, i.e. the tuples violating the
+	 * FD from the attributes of the partition to rhs. Every row is returned once, in class order.
+	 * @param t: table the partition was made from
+	 * @param rhs: RHS attributes
+	 * @return rows
+	 */
+	public int[] violatingRows(EncodedTable t, int[] rhs){
+		int[][] columns = new int[rhs.length][];
+		for(int k = 0; k < rhs.length; k++) columns[k] = t.column(rhs[k]);
+
+		int[] violating = new int[rows.length];
+		int size = 0;
+		for(int c = 0; c < numClasses(); c++){
+			if(isViolating(c, columns)){
+				int length = starts[c + 1] - starts[c];
+				System.arraycopy(rows, starts[c], violating, size, length);
+				size += length;
+			}
+		}
+		return Arrays.copyOf(violating, size);
+	}
+
+	/**
+	 * Returns true if the rows of class c don't all have the same codes in columns.
+	 */
+	boolean isViolating(int c, int[][] columns){
+		int first = rows[starts[c]];
+		for(int k = starts[c] + 1; k < starts[c + 1]; k++){
+			int row = rows[k];
+			for(int[] column : columns) if(column[row] != column[first]) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,219 @@
+package DTCleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Trains one multi-target model per premise group of CFDs, on a bounded pool of worker threads.
+ *
+ * CFDs sharing their premise attributes are merged into one group, whose targets are the premise attributes and
+ * the RHS attributes of its CFDs. Group n is trained in folder exp/n/, on a train and test set shared by all groups. Groups are independent, so they are trained
+ * concurrently when the trainer allows it (see ProcessTrainer), and every group reports its own progress and
+ * training time when it's done.
+ */
+public class TrainingScheduler {
+
+	/**
+	 * The CFDs sharing their premise attributes, trained as one model.
+	 */
+	public static class TrainingGroup {
+		// number of the group, starting at 1, the model is trained in exp/<folder>/
+		public final int folder;
+		// premise attributes, increasing
+		public final TreeSet<Integer> premise;
+		// premise attributes and RHS attributes of the CFDs
+		public final TreeSet<Integer> targets;
+		public final List<CFD> cfds = new ArrayList<CFD>();
+
+		TrainingGroup(int folder, TreeSet<Integer> premise){
+			this.folder = folder;
+			this.premise = premise;
+			this.targets = new TreeSet<Integer>(premise);
+		}
+	}
+
+	/**
+	 * The outcome of training a group.
+	 */
+	public static class TrainingResult {
+		public final TrainingGroup group;
+		public final long elapsedNanos;
+		// console output of Clus, null if training failed
+		public final String output;
+		// null if the model was built
+		public final Exception error;
+
+		TrainingResult(TrainingGroup group, long elapsedNanos, String output, Exception error){
+			this.group = group;
+			this.elapsedNanos = elapsedNanos;
+			this.output = output;
+			this.error = error;
+		}
+	}
+
+	private ModelTrainer trainer;
+	private int parallelism;
+	private String location;
+
+	/**
+	 * @param trainer: builds the models, it must allow concurrent calls when parallelism > 1
+	 * @param parallelism: number of models trained at the same time
+	 * @param location: folder holding the folders of the groups, e.g. "exp/"
+	 */
+	public TrainingScheduler(ModelTrainer trainer, int parallelism, String location){
+		this.trainer = trainer;
+		this.parallelism = Math.max(1, parallelism);
+		this.location = location;
+	}
+
+	/**
+	 * Groups the CFDs by premise attributes in a single pass, in the order the premises are first seen.
+	 * @param CFDs
+	 * @return groups, numbered from 1
+	 */
+	public static List<TrainingGroup> groupByPremise(Multiset<CFD> CFDs){
+		LinkedHashMap<TreeSet<Integer>, TrainingGroup> groups = new LinkedHashMap<TreeSet<Integer>, TrainingGroup>();
+
+		for(CFD cfd : CFDs){
+			TreeSet<Integer> premise = new TreeSet<Integer>();
+			for(SimpleImmutableEntry<Integer, String> lhs : cfd.getPremise()) premise.add(lhs.getKey());
+
+			TrainingGroup group = groups.get(premise);
+			if(group == null){
+				group = new TrainingGroup(groups.size() + 1, premise);
+				groups.put(premise, group);
+			}
+			group.cfds.add(cfd);
+			group.targets.add(cfd.getRHS().getKey());
+		}
+		return new ArrayList<TrainingGroup>(groups.values());
+	}
+
+	/**
+	 * Writes the setting file of every group and trains the groups. A group is handed to the workers as soon as its
+	 * setting file is written.
+	 * @param groups
+	 * @param trainFile: the train set shared by the groups, e.g. stored with an ArtifactStore
+	 * @param testFile: the test set shared by the groups
+	 * @param heuristic
+	 * @return the result of every group, in the order of groups
+	 * @throws IOException if the folder of a group couldn't be made
+	 * @throws InterruptedException
+	 */
+	public List<TrainingResult> train(List<TrainingGroup> groups, String trainFile, String testFile, HeuristicType heuristic) throws IOException, InterruptedException{
+		return train(groups, trainFile, testFile, heuristic, Collections.<String, String>emptyMap());
+	}
+	
+	/**
+	 * Writes the setting file of every group, with more settings than the defaults, and trains the groups.
+	 * @param groups
+	 * @param trainFile
+	 * @param testFile
+	 * @param heuristic
+	 * @param settings: more Clus settings, see Util.makeSettingFile
+	 * @return the result of every group, in the order of groups
+	 * @throws IOException if the folder of a group couldn't be made
+	 * @throws InterruptedException
+	 */
+	public List<TrainingResult> train(List<TrainingGroup> groups, String trainFile, String testFile, HeuristicType heuristic, Map<String, String> settings) throws IOException, InterruptedException{
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, groups.size())));
+		List<Future<TrainingResult>> futures = new ArrayList<Future<TrainingResult>>();
+		AtomicInteger done = new AtomicInteger();
+
+		try {
+			for(TrainingGroup group : groups){
+				String folder = location + group.folder + "/";
+				File dir = new File(folder);
+				if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Couldn't create " + folder);
+				Util.makeSettingFile(trainFile, testFile, group.targets, heuristic, settings, folder);
+				// predictions of an earlier run mustn't pass for the predictions of this one
+				File predictions = new File(folder + "setting.test.pred.arff");
+				if(predictions.exists() && !predictions.delete()) throw new IOException("Couldn't delete " + predictions);
+
+				futures.add(pool.submit(new TrainingTask(group, folder + "setting.s", groups.size(), done)));
+			}
+
+			List<TrainingResult> results = new ArrayList<TrainingResult>(futures.size());
+			for(Future<TrainingResult> future : futures){
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// TrainingTask catches what the trainer throws
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Trains a single group and reports its progress.
+	 */
+	private class TrainingTask implements Callable<TrainingResult> {
+		private TrainingGroup group;
+		private String settingFile;
+		private int numGroups;
+		private AtomicInteger done;
+
+		TrainingTask(TrainingGroup group, String settingFile, int numGroups, AtomicInteger done){
+			this.group = group;
+			this.settingFile = settingFile;
+			this.numGroups = numGroups;
+			this.done = done;
+		}
+
+		public TrainingResult call() throws InterruptedException {
+			long start = System.nanoTime();
+			String output = null;
+			Exception error = null;
+			try {
+				String console = trainer.train(settingFile);
+				// Clus exits normally on some errors, e.g. a heuristic it doesn't support for classification trees
+				if(!new File(settingFile.substring(0, settingFile.length() - 2) + ".test.pred.arff").isFile()) throw new IOException("No predictions for " + settingFile + errorLine(console));
+				output = console;
+			} catch (IOException e) {
+				error = e;
+			}
+			long elapsedTime = System.nanoTime() - start;
+
+			int n = done.incrementAndGet();
+			if(error == null) System.out.println("Model " + group.folder + " (" + n + "/" + numGroups + ") built, targets " + group.targets + ". Elapsed Training Time: " + elapsedTime);
+			else System.out.println("Model " + group.folder + " (" + n + "/" + numGroups + ") failed, targets " + group.targets + ": " + error.getMessage());
+
+			// the output of Clus is kept in memory and only goes to the report
+			Report report = Report.get();
+			if(report.sample(Report.TRAINING)) report.write(Report.TRAINING, new String[]{"model", "targets", "nanos", "output", "error"},
+					new Object[]{group.folder, group.targets.toString(), elapsedTime, output, error == null ? null : error.getMessage()});
+
+			return new TrainingResult(group, elapsedTime, output, error);
+		}
+		
+		/**
+		 * Returns the last line of the console output starting with "Error", if any
+		 */
+		private String errorLine(String console){
+			if(console == null) return "";
+			int k = console.lastIndexOf("\nError") + 1;
+			if(k == 0) return "";
+			int end = console.indexOf('\n', k);
+			return ": " + console.substring(k, end < 0 ? console.length() : end).trim();
+		}
+	}
+}
@@ -6,8 +6,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import weka.core.Attribute;
@@ -34,6 +39,20 @@ public class Util {
 	    return ret;
 	}
 	
+	/**
+	 * Returns a collection of indexes as an int[] array sorted in ascending order.
+	 * @param indexes: e.g. the rows of a violation map, in any order
+	 * @return sorted array
+	 */
+	public static int[] sortedIndexes(Collection<Integer> indexes)
+	{
+		int[] ret = new int[indexes.size()];
+		int k = 0;
+		for (int index : indexes) ret[k++] = index;
+		Arrays.sort(ret);
+		return ret;
+	}
+	
 	/**
 	 * Saves the instances i to an arff file with name being filename
 	 * Note: ".arff" should be included.
@@ -122,6 +141,41 @@ public class Util {
 	    return pos;
 	}
 	
+	/**
+	 * Splits a line of a comma separated file into its values.
+	 * Values may be enclosed in double quotes, in which case they can contain commas,
+	 * and a double quote inside a quoted value is written as two double quotes.
+	 * 
+	 * @param line
+	 * @return values
+	 */
+	public static String[] splitCSVLine(String line){
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		
+		for(int k = 0; k < line.length(); k++){
+			char c = line.charAt(k);
+			if(quoted){
+				if(c == '"' && k + 1 < line.length() && line.charAt(k + 1) == '"'){
+					value.append('"');
+					k++;
+				}
+				else if(c == '"') quoted = false;
+				else value.append(c);
+			}
+			else if(c == '"') quoted = true;
+			else if(c == ','){
+				values.add(value.toString());
+				value.setLength(0);
+			}
+			else value.append(c);
+		}
+		values.add(value.toString());
+		
+		return values.toArray(new String[values.size()]);
+	}
+	
 	/**
 	 * 
 	 * Removes the first and last chars from a string.
@@ -142,34 +196,47 @@ public class Util {
 	 * @param location, of where to save the setting.s file
 	 */
 	public static void makeSettingFile(String dataFile, String testFile, Set<Integer> targets, HeuristicType treeHeuristic, String location){
+		makeSettingFile(dataFile, testFile, targets, treeHeuristic, Collections.<String, String>emptyMap(), location);
+	}
+	
+	/**
+	 * Makes a setting file for Clus to run, with more settings than the defaults
+	 * @param dataFile, name of training file
+	 * @param testFile, name of test file
+	 * @param attributesTarget, the id of targets
+	 * @param treeHeuristic, type of heuristic
+	 * @param settings, more settings by "Section.Key", e.g. "Tree.PruningMethod" -> "None" or "Constraints.MaxDepth" -> "10".
+	 * 		They replace the defaults of the same name, e.g. "Ensemble.Optimize".
+	 * @param location, of where to save the setting.s file
+	 */
+	public static void makeSettingFile(String dataFile, String testFile, Set<Integer> targets, HeuristicType treeHeuristic, Map<String, String> settings, String location){
+		StringBuilder targetsFormatted = new StringBuilder();
+		for(int singleTarget : targets) targetsFormatted.append(singleTarget+1+",");
+		targetsFormatted.deleteCharAt(targetsFormatted.length()-1);
+		
+		// sections in the order they're written, the defaults first
+		Map<String, Map<String, String>> sections = new LinkedHashMap<String, Map<String, String>>();
+		section(sections, "Data").put("File", dataFile);
+		section(sections, "Data").put("TestSet", testFile);
+		section(sections, "Output").put("WritePredictions", "{Test}");
+		section(sections, "Attributes").put("Target", targetsFormatted.toString());
+		section(sections, "Tree").put("Heuristic", treeHeuristic.toString());
+		section(sections, "Ensemble").put("Optimize", "y");
+		for(Map.Entry<String, String> setting : settings.entrySet()){
+			int dot = setting.getKey().indexOf('.');
+			if(dot < 0) throw new IllegalArgumentException("Setting isn't of the form Section.Key: " + setting.getKey());
+			section(sections, setting.getKey().substring(0, dot)).put(setting.getKey().substring(dot + 1), setting.getValue());
+		}
+		
 		PrintWriter writer;
 		try {
 			writer = new PrintWriter(location+"/setting.s", "UTF-8");
 			
-			writer.println();
-			writer.println("[Data]");
-			writer.println("File = " + dataFile);
-			writer.println("TestSet = " + testFile);
-			
-			writer.println();
-			writer.println("[Output]");
-			writer.println("WritePredictions = {Test}");
-			
-
-			StringBuilder targetsFormatted = new StringBuilder();
-			for(int singleTarget : targets) targetsFormatted.append(singleTarget+1+",");
-			targetsFormatted.deleteCharAt(targetsFormatted.length()-1);
-			writer.println();
-			writer.println("[Attributes]");
-			writer.println("Target = " + targetsFormatted.toString());
-			
-			writer.println();
-			writer.println("[Tree]");
-			writer.println("Heuristic = "+ treeHeuristic.toString());
-
-			writer.println();
-			writer.println("[Ensemble]");
-			writer.println("Optimize = y");
+			for(Map.Entry<String, Map<String, String>> section : sections.entrySet()){
+				writer.println();
+				writer.println("[" + section.getKey() + "]");
+				for(Map.Entry<String, String> setting : section.getValue().entrySet()) writer.println(setting.getKey() + " = " + setting.getValue());
+			}
 			
 			writer.println();
 			
@@ -186,4 +253,13 @@ public class Util {
 		}
 
 	}
+	
+	private static Map<String, String> section(Map<String, Map<String, String>> sections, String name){
+		Map<String, String> section = sections.get(name);
+		if(section == null){
+			section = new LinkedHashMap<String, String>();
+			sections.put(name, section);
+		}
+		return section;
+	}
 }
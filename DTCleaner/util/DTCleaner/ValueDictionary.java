@@ -0,0 +1,103 @@
+package DTCleaner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Dictionary of the distinct values of a single column. Values are mapped to consecutive int codes
+ * starting at 0, in the order they were first added.
+ * Numeric values are normalized so that e.g. "85032", "85032.0" and 85032d share a code.
+ */
+public class ValueDictionary {
+
+	private List<String> labels = new ArrayList<String>();
+	private HashMap<String, Integer> codes = new HashMap<String, Integer>();
+	private boolean numeric;
+
+	/**
+	 * @param numeric whether the column holds numeric values
+	 */
+	public ValueDictionary(boolean numeric){
+		this.numeric = numeric;
+	}
+
+	/**
+	 * Returns the code of value, adding it to the dictionary if it's not there yet.
+	 * @param value
+	 * @return code
+	 */
+	public synchronized int intern(String value){
+		String label = normalize(value);
+		if(label == null) return EncodedTable.MISSING;
+
+		Integer code = codes.get(label);
+		if(code == null){
+			code = labels.size();
+			labels.add(label);
+			codes.put(label, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the code of a numeric value, adding it to the dictionary if it's not there yet.
+	 * @param value
+	 * @return code
+	 */
+	public int intern(double value){
+		return intern(format(value));
+	}
+
+	/**
+	 * Returns the code of value, or EncodedTable.MISSING if value isn't in the dictionary.
+	 * @param value
+	 * @return code
+	 */
+	public synchronized int code(String value){
+		String label = normalize(value);
+		if(label == null) return EncodedTable.MISSING;
+
+		Integer code = codes.get(label);
+		return code == null ? EncodedTable.MISSING : code;
+	}
+
+	/**
+	 * Returns the value of a code, "?" for missing values.
+	 * @param code
+	 * @return label
+	 */
+	public synchronized String label(int code){
+		if(code < 0) return "?";
+		return labels.get(code);
+	}
+
+	/**
+	 * Returns the number of distinct values in the dictionary.
+	 * @return size
+	 */
+	public synchronized int size(){
+		return labels.size();
+	}
+
+	/**
+	 * Returns true if the dictionary holds numeric values.
+	 */
+	public boolean isNumeric(){
+		return numeric;
+	}
+
+	private String normalize(String value){
+		if(!numeric) return value;
+		try {
+			return format(Double.parseDouble(value));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String format(double value){
+		if(value == Math.rint(value) && !Double.isInfinite(value)) return Long.toString((long) value);
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,195 @@
+package DTCleaner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The tuples violating a list of rules (CFDs or FDs), kept as one RowBitmap of violating rows per rule.
+ *
+ * Detection only records row indexes against the index of the rule, the rules are rendered with toString() when
+ * the violations are reported. Violations can be read per rule, or per row in increasing row order with a Cursor.
+ */
+public class ViolationSet {
+
+	// the rules, e.g. CFDs in the order of the CFDs multiset
+	private List<?> rules;
+	// violating rows of every rule, null if the rule isn't violated
+	private RowBitmap[] rows;
+
+	/**
+	 * @param rules: the rules the violations refer to by index
+	 */
+	public ViolationSet(List<?> rules){
+		this.rules = rules;
+		this.rows = new RowBitmap[rules.size()];
+	}
+
+	/**
+	 * Records that row violates a rule.
+	 * @param rule: index of the rule
+	 * @param row
+	 */
+	public void add(int rule, int row){
+		if(rows[rule] == null) rows[rule] = new RowBitmap();
+		rows[rule].add(row);
+	}
+
+	/**
+	 * Records that rows violate a rule.
+	 * @param rule: index of the rule
+	 * @param violating
+	 */
+	public void add(int rule, int[] violating){
+		if(violating.length == 0) return;
+		if(rows[rule] == null) rows[rule] = new RowBitmap();
+		rows[rule].add(violating);
+	}
+
+	/**
+	 * Adds the violations of other, which must refer to the same rules.
+	 * @param other
+	 */
+	public void addAll(ViolationSet other){
+		if(other.rows.length != rows.length) throw new IllegalArgumentException("Expected " + rows.length + " rules, got " + other.rows.length);
+
+		for(int rule = 0; rule < rows.length; rule++){
+			if(other.rows[rule] == null) continue;
+			rows[rule] = rows[rule] == null ? new RowBitmap().or(other.rows[rule]) : rows[rule].or(other.rows[rule]);
+		}
+	}
+
+	/**
+	 * Returns the number of rules
+	 */
+	public int numRules(){
+		return rules.size();
+	}
+
+	/**
+	 * Returns a rule
+	 * @param rule: index of the rule
+	 */
+	public Object rule(int rule){
+		return rules.get(rule);
+	}
+
+	/**
+	 * Returns the rows violating a rule
+	 * @param rule: index of the rule
+	 * @return rows, empty if the rule isn't violated
+	 */
+	public RowBitmap rows(int rule){
+		return rows[rule] == null ? new RowBitmap() : rows[rule];
+	}
+
+	/**
+	 * Returns the rows violating at least one rule
+	 */
+	public RowBitmap violatingRows(){
+		List<RowBitmap> level = new ArrayList<RowBitmap>();
+		for(RowBitmap r : rows) if(r != null) level.add(r);
+		if(level.isEmpty()) return new RowBitmap();
+
+		// merge pairwise so that every row is copied once per level instead of once per rule
+		while(level.size() > 1){
+			List<RowBitmap> next = new ArrayList<RowBitmap>((level.size() + 1) / 2);
+			for(int k = 0; k < level.size(); k += 2){
+				next.add(k + 1 < level.size() ? level.get(k).or(level.get(k + 1)) : level.get(k));
+			}
+			level = next;
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * Returns the number of rows violating at least one rule
+	 */
+	public int size(){
+		return violatingRows().cardinality();
+	}
+
+	/**
+	 * Returns a cursor over the violating rows in increasing order.
+	 */
+	public Cursor cursor(){
+		return new Cursor();
+	}
+
+	/**
+	 * Walks the violating rows in increasing order by merging the bitmaps of the rules.
+	 * Only one entry per violated rule is held at a time.
+	 */
+	public class Cursor {
+		private PriorityQueue<RuleIterator> queue = new PriorityQueue<RuleIterator>();
+		private int row = -1;
+		private List<Integer> current = new ArrayList<Integer>();
+
+		Cursor(){
+			for(int rule = 0; rule < rows.length; rule++){
+				if(rows[rule] == null || rows[rule].isEmpty()) continue;
+				RuleIterator it = new RuleIterator(rule, rows[rule].iterator());
+				it.advance();
+				queue.add(it);
+			}
+		}
+
+		/**
+		 * Moves to the next violating row.
+		 * @return false if there are no more violating rows
+		 */
+		public boolean next(){
+			current.clear();
+			if(queue.isEmpty()) return false;
+
+			row = queue.peek().row;
+			while(!queue.isEmpty() && queue.peek().row == row){
+				RuleIterator it = queue.poll();
+				current.add(it.rule);
+				if(it.advance()) queue.add(it);
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the current row
+		 */
+		public int row(){
+			return row;
+		}
+
+		/**
+		 * Returns the names of the rules the current row violates, in the order of the rules.
+		 */
+		public List<String> violations(){
+			Collections.sort(current);
+			List<String> names = new LinkedList<String>();
+			for(int rule : current) names.add(rules.get(rule).toString());
+			return names;
+		}
+	}
+
+	private static class RuleIterator implements Comparable<RuleIterator> {
+		final int rule;
+		final RowBitmap.RowIterator rows;
+		int row;
+
+		RuleIterator(int rule, RowBitmap.RowIterator rows){
+			this.rule = rule;
+			this.rows = rows;
+		}
+
+		boolean advance(){
+			if(!rows.hasNext()) return false;
+			row = rows.next();
+			return true;
+		}
+
+		public int compareTo(RuleIterator other){
+			if(row != other.row) return row < other.row ? -1 : 1;
+			return rule < other.rule ? -1 : (rule == other.rule ? 0 : 1);
+		}
+	}
+}
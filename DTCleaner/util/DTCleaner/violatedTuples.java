@@ -1,8 +1,5 @@
 package DTCleaner;
 
-import java.util.HashMap;
-import java.util.List;
-
 import weka.core.Instances;
 
 
@@ -11,10 +8,10 @@ import weka.core.Instances;
  */
 public class violatedTuples {
 	public final Instances instances;
-	public final HashMap<Integer, List<String>> tupleID;
+	public final ViolationSet violations;
 	
-	public violatedTuples(Instances instances, HashMap<Integer, List<String>> tupleID) {
+	public violatedTuples(Instances instances, ViolationSet violations) {
 		this.instances = instances;
-		this.tupleID = tupleID;
+		this.violations = violations;
 	}
 }